@@ -3,6 +3,7 @@ package dowhat.is.right.concurrency;
 
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <English>
@@ -21,6 +22,8 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * the number of waiting threads it has allowed to pass is equal to the number of times it has been
  * signalled via <code>set()</code>.
+ * <p>
+ * No monitor is held while waiting, so a waiting virtual thread unmounts from its carrier.
  *
  * <Chinese>
  * 一个可以发出信号或不发出信号的简单事件。
@@ -32,6 +35,8 @@ import java.util.concurrent.TimeUnit;
  * 当线程等待事件并返回时，它会自动将事件设置为无信号状态。
  * <p>
  * 因此，如果事件以无信号状态启动，那么它允许传递的等待线程的数量等于通过<code>set()</code>发出信号的次数。
+ * <p>
+ * 等待不会占住监视器锁，虚拟线程等待时可以让出载体线程。
  *
  * @author 杨春炼
  * @since 2020-04-03
@@ -39,11 +44,11 @@ import java.util.concurrent.TimeUnit;
 public class AutoResetEvent implements IResetEvent {
 
   private final Semaphore event;
-  private final Integer mutex;
+  //互斥锁（不用synchronized，以免钉住虚拟线程）
+  private final ReentrantLock mutex = new ReentrantLock();
 
   public AutoResetEvent(boolean signalled) {
     event = new Semaphore(signalled ? 1 : 0);
-    mutex = -1;
   }
 
   /**
@@ -51,10 +56,13 @@ public class AutoResetEvent implements IResetEvent {
    */
   @Override
   public void set() {
-    synchronized (mutex) {
+    mutex.lock();
+    try {
       if (event.availablePermits() == 0) {
         event.release();
       }
+    } finally {
+      mutex.unlock();
     }
   }
 
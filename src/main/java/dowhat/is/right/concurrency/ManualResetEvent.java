@@ -2,6 +2,7 @@ package dowhat.is.right.concurrency;
 
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <English>
@@ -15,6 +16,8 @@ import java.util.concurrent.TimeUnit;
  * When a thread waits for the event it does not affect the signalled status.
  * <p>
  * This must be modified manually.
+ * <p>
+ * No monitor is held while waiting, so a waiting virtual thread unmounts from its carrier.
  *
  * <Chinese>
  * 可以发出信号或不发出信号的单一事件。
@@ -24,19 +27,20 @@ import java.util.concurrent.TimeUnit;
  * 等待一个无信号触发的事件会阻塞，直到事件触发信号或线程被中断。
  * <p>
  * 当线程等待事件信号时，它不会影响信号状态。必须被三方主动触发。
+ * <p>
+ * 等待不会占住监视器锁，虚拟线程等待时可以让出载体线程。
  *
  * @author 杨春炼
  * @since 2020-04-03
  */
 public class ManualResetEvent implements IResetEvent {
 
-  //互斥锁
-  private final Integer mutex;
+  //互斥锁（不用synchronized，以免钉住虚拟线程）
+  private final ReentrantLock mutex = new ReentrantLock();
   //计次
   private volatile CountDownLatch event;
 
   public ManualResetEvent(boolean signalled) {
-    mutex = -1;
     event = new CountDownLatch(signalled ? 0 : 1);
   }
 
@@ -57,10 +61,13 @@ public class ManualResetEvent implements IResetEvent {
    */
   @Override
   public void reset() {
-    synchronized (mutex) {
+    mutex.lock();
+    try {
       if (event.getCount() == 0) {
         event = new CountDownLatch(1);
       }
+    } finally {
+      mutex.unlock();
     }
   }
 
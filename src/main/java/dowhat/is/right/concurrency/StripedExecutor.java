@@ -0,0 +1,240 @@
+package dowhat.is.right.concurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <English>
+ * Runs tasks on a fixed number of single threaded stripes chosen by a key.
+ * <p>
+ * Tasks with the same key always run on the same stripe, one at a time and in submission order,
+ * while tasks with different keys run in parallel on the other stripes. A slow task only delays
+ * the keys sharing its stripe.
+ * <p>
+ * The tasks of a stripe wait in a ring buffer that grows when full, so submitting a task does not
+ * allocate once the buffer is large enough.
+ *
+ * <Chinese>
+ * 在固定个数的单线程分片上执行任务，分片由key决定。
+ * <p>
+ * 相同key的任务总是在同一个分片上按提交顺序逐个执行，不同key的任务在其他分片上并行执行。
+ * 慢任务只会延迟和它共享分片的key。
+ * <p>
+ * 每个分片的任务放在可扩容的环形数组中，提交任务不分配内存（扩容时除外）。
+ *
+ * @author 杨春炼
+ * @since 2020-05-13
+ */
+public class StripedExecutor {
+
+  //分片
+  private final Stripe[] stripes;
+  //已提交的任务个数
+  private final LongAdder submitted = new LongAdder();
+  //任务抛出的异常个数
+  private final LongAdder failed = new LongAdder();
+  //单个分片的最大排队个数
+  private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param name    Thread name prefix./线程名前缀
+   * @param stripes Number of stripes./分片个数
+   */
+  public StripedExecutor(String name, int stripes) {
+    if (stripes < 1) {
+      throw new IllegalArgumentException("stripes must be greater than or equals to 1");
+    }
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe();
+      Thread thread = new Thread(this.stripes[i], name + "-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * <English>
+   * Run a task on the stripe of the key. Tasks submitted after shutdown are dropped.
+   *
+   * <Chinese>
+   * 在key对应的分片上执行任务。关闭后提交的任务会被丢弃。
+   *
+   * @param key  Tasks with equal keys run in order./key相同的任务按顺序执行
+   * @param task task
+   */
+  public void execute(Object key, Runnable task) {
+    Stripe stripe = stripes[stripeOf(key)];
+    maxDepth.accumulate(stripe.depth.incrementAndGet());
+    submitted.increment();
+    if (!stripe.offer(task)) {
+      stripe.depth.decrementAndGet();
+    }
+  }
+
+  /**
+   * <English>
+   * Tasks queued or running on all stripes.
+   *
+   * <Chinese>
+   * 所有分片上排队和执行中的任务个数。
+   *
+   * @return queue depth
+   */
+  public int getQueueDepth() {
+    int total = 0;
+    for (Stripe stripe : stripes) {
+      total += stripe.depth.get();
+    }
+    return total;
+  }
+
+  /**
+   * <English>
+   * Tasks queued or running on each stripe, to spot a stripe held up by a slow task.
+   *
+   * <Chinese>
+   * 每个分片上排队和执行中的任务个数，用于发现被慢任务卡住的分片。
+   *
+   * @return queue depth of each stripe
+   */
+  public int[] getQueueDepths() {
+    int[] result = new int[stripes.length];
+    for (int i = 0; i < stripes.length; i++) {
+      result[i] = stripes[i].depth.get();
+    }
+    return result;
+  }
+
+  /**
+   * Highest queue depth any stripe has reached
+   */
+  public long getMaxQueueDepth() {
+    return maxDepth.get();
+  }
+
+  public long getSubmitted() {
+    return submitted.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public int getStripes() {
+    return stripes.length;
+  }
+
+  /**
+   * <English>
+   * Stop accepting tasks. The tasks already queued still run.
+   *
+   * <Chinese>
+   * 不再接受任务，已排队的任务仍会执行。
+   */
+  public void shutdown() {
+    for (Stripe stripe : stripes) {
+      stripe.shutdown();
+    }
+  }
+
+  /**
+   * <English>
+   * The stripe the tasks of a key run on.
+   *
+   * <Chinese>
+   * key的任务所在的分片。
+   *
+   * @param key key
+   * @return stripe index
+   */
+  public int stripeOf(Object key) {
+    int h = key.hashCode();
+    return Math.floorMod(h ^ (h >>> 16), stripes.length);
+  }
+
+  /**
+   * A single thread running the tasks of its keys in order
+   */
+  private final class Stripe implements Runnable {
+
+    //排队中的任务，环形数组
+    private Runnable[] tasks = new Runnable[16];
+    //队首下标
+    private int head;
+    //排队中的任务个数
+    private int size;
+    //是否已关闭
+    private boolean shutdown;
+    //排队和执行中的任务个数
+    private final AtomicInteger depth = new AtomicInteger();
+
+    synchronized boolean offer(Runnable task) {
+      if (shutdown) {
+        return false;
+      }
+      if (size == tasks.length) {
+        Runnable[] grown = new Runnable[tasks.length * 2];
+        for (int i = 0; i < size; i++) {
+          grown[i] = tasks[(head + i) % tasks.length];
+        }
+        tasks = grown;
+        head = 0;
+      }
+      tasks[(head + size) % tasks.length] = task;
+      size++;
+      if (size == 1) {
+        // The thread only waits when nothing is queued
+        notify();
+      }
+      return true;
+    }
+
+    synchronized void shutdown() {
+      shutdown = true;
+      notify();
+    }
+
+    /**
+     * The next task, or null once shut down and drained
+     */
+    private synchronized Runnable take() throws InterruptedException {
+      while (size == 0) {
+        if (shutdown) {
+          return null;
+        }
+        wait();
+      }
+      Runnable task = tasks[head];
+      tasks[head] = null;
+      head = (head + 1) % tasks.length;
+      size--;
+      return task;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable task;
+        try {
+          task = take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (task == null) {
+          return;
+        }
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // Keep the stripe running for the tasks queued behind
+          failed.increment();
+          e.printStackTrace();
+        } finally {
+          depth.decrementAndGet();
+        }
+      }
+    }
+  }
+}
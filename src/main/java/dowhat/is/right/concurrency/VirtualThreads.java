@@ -0,0 +1,54 @@
+package dowhat.is.right.concurrency;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <English>
+ * Access to virtual threads, which are only available from Java 21.
+ * <p>
+ * This is the Java 8 version, which reports them as unsupported. The multi-release jar built by
+ * the <code>java21</code> profile replaces it with a version under
+ * <code>META-INF/versions/21</code> that creates virtual threads.
+ *
+ * <Chinese>
+ * 访问虚拟线程，虚拟线程从Java 21开始提供。
+ * <p>
+ * 这是Java 8的版本，报告不支持虚拟线程。<code>java21</code> profile构建的多版本jar会用
+ * <code>META-INF/versions/21</code>下创建虚拟线程的版本替换它。
+ *
+ * @author 杨春炼
+ * @since 2020-05-20
+ */
+public final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * <English>
+   * Whether virtual threads are available on this JVM.
+   *
+   * <Chinese>
+   * 当前JVM是否支持虚拟线程。
+   *
+   * @return supported
+   */
+  public static boolean isSupported() {
+    return false;
+  }
+
+  /**
+   * <English>
+   * A factory of virtual threads, named with the prefix and a counter.
+   *
+   * <Chinese>
+   * 虚拟线程工厂，线程名为前缀加序号。
+   *
+   * @param name Thread name prefix./线程名前缀
+   * @return thread factory
+   * @throws UnsupportedOperationException Virtual threads are not supported./不支持虚拟线程
+   */
+  public static ThreadFactory newThreadFactory(String name) {
+    throw new UnsupportedOperationException("virtual threads require Java 21");
+  }
+}
@@ -0,0 +1,328 @@
+package dowhat.is.right.lock;
+
+import dowhat.is.right.concurrency.ManualResetEvent;
+import dowhat.is.right.zk.ZkException;
+import dowhat.is.right.zk.lock.ILockListener;
+import dowhat.is.right.zk.lock.ISinglePathLock;
+import dowhat.is.right.zk.lock.ITryLockListener;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <English>
+ * Base class for single path locks served by a backend other than ZooKeeper.
+ * <p>
+ * It runs the same lock state machine as <code>ZkLockBase</code> and reports results to listeners
+ * and blocked callers. Derived classes only start the backend operations, and report how an
+ * acquisition ended by calling <code>onGranted()</code>, <code>onAbandoned()</code> or
+ * <code>onError()</code>.
+ *
+ * <Chinese>
+ * 非zk后端的单路径锁基类。
+ * <p>
+ * 和<code>ZkLockBase</code>使用相同的锁状态机，并把结果通知给监听器和阻塞的调用者。
+ * 派生类只需要发起后端操作，并通过调用<code>onGranted()</code>、<code>onAbandoned()</code>或
+ * <code>onError()</code>报告获取的结果。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public abstract class AbstractSinglePathLock implements ISinglePathLock {
+
+  //互斥锁
+  private final Object mutex = new Object();
+  //锁路径
+  private final String lockPath;
+  //锁类型
+  private final LockType type;
+  //获取结束（获得、放弃或出错）的事件
+  private final ManualResetEvent isDone;
+  //锁状态
+  private volatile LockState lockState;
+  //出错时的异常
+  private volatile ZkException error;
+  //监听器
+  private ILockListener listener;
+  //上下文
+  private Object context;
+
+  protected AbstractSinglePathLock(String lockPath, LockType type) {
+    if (type != LockType.READ && type != LockType.WRITE) {
+      throw new IllegalArgumentException("not a single path lock type: " + type);
+    }
+    this.lockPath = lockPath;
+    this.type = type;
+    isDone = new ManualResetEvent(false);
+    lockState = LockState.IDLE;
+  }
+
+  /**
+   * <English>
+   * Join the queue for the lock without claiming it. Backends without a queue may do nothing.
+   *
+   * <Chinese>
+   * 在锁的队列中排队但不获取。没有队列的后端可以什么也不做。
+   */
+  protected abstract void doReserve();
+
+  /**
+   * <English>
+   * Start acquiring the lock. Must not block, the outcome is reported through
+   * <code>onGranted()</code>, <code>onAbandoned()</code> or <code>onError()</code>.
+   *
+   * <Chinese>
+   * 开始获取锁，不能阻塞，结果通过<code>onGranted()</code>、<code>onAbandoned()</code>或
+   * <code>onError()</code>报告。
+   *
+   * @param tryAcquireOnly Give up instead of waiting if the lock is held./锁被持有时放弃而不是等待
+   */
+  protected abstract void doAcquire(boolean tryAcquireOnly);
+
+  /**
+   * <English>
+   * Release the lock, or leave the queue if it was only reserved or waiting.
+   *
+   * <Chinese>
+   * 释放锁；如果只是预约或等待中，则退出队列。
+   */
+  protected abstract void doRelease();
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void reserve() throws ZkException {
+    synchronized (mutex) {
+      if (lockState != LockState.IDLE) {
+        throw stateError();
+      }
+      lockState = LockState.RESERVED;
+    }
+    doReserve();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void acquire() throws ZkException {
+    start(null, null, false);
+    waitDone();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void acquire(ILockListener listener, Object context) throws ZkException {
+    start(listener, context, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean tryAcquire() throws ZkException {
+    start(null, null, true);
+    waitDone();
+    return lockState == LockState.ACQUIRED;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void tryAcquire(ITryLockListener listener, Object context) throws ZkException {
+    start(listener, context, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void release() {
+    boolean releaseBackend;
+    boolean releasedWhileWaiting = false;
+    synchronized (mutex) {
+      switch (lockState) {
+        case IDLE:
+          // Change to the released state to prevent this lock being used again
+          lockState = LockState.RELEASED;
+          return;
+        case RESERVED:
+        case ACQUIRED:
+          lockState = LockState.RELEASED;
+          releaseBackend = true;
+          break;
+        case WAITING:
+          // release() called while waiting to acquire the lock. This causes an error!
+          releaseBackend = true;
+          releasedWhileWaiting = true;
+          break;
+        default:
+          // We consider that release() has been called vacuously
+          return;
+      }
+    }
+    if (releasedWhileWaiting) {
+      onError(new ZkException(ZkException.Error.LOCK_RELEASED_WHILE_WAITING));
+    }
+    if (releaseBackend) {
+      doRelease();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public LockState getState() {
+    return lockState;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public LockType getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getLockPath() {
+    return lockPath;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Without a session to lose, a held lock stays valid until released.
+   */
+  @Override
+  public boolean isValidFor(long duration, TimeUnit unit) {
+    return lockState == LockState.ACQUIRED;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isSuspect() {
+    return false;
+  }
+
+  /**
+   * <English>
+   * The backend granted the lock.
+   *
+   * <Chinese>
+   * 后端授予了锁。
+   */
+  protected void onGranted() {
+    ILockListener listener;
+    boolean granted;
+    synchronized (mutex) {
+      granted = lockState == LockState.WAITING;
+      if (granted) {
+        lockState = LockState.ACQUIRED;
+      }
+      listener = this.listener;
+    }
+    if (!granted) {
+      // Given up while the backend was granting it, hand it straight back
+      doRelease();
+      return;
+    }
+    isDone.set();
+    if (listener != null) {
+      listener.onLockAcquired(this, context);
+    }
+  }
+
+  /**
+   * <English>
+   * The lock was held by someone else and we only tried to acquire it.
+   *
+   * <Chinese>
+   * 锁被其他人持有，而我们只是尝试获取。
+   */
+  protected void onAbandoned() {
+    ILockListener listener;
+    synchronized (mutex) {
+      if (lockState != LockState.WAITING) {
+        return;
+      }
+      lockState = LockState.ABANDONED;
+      listener = this.listener;
+    }
+    isDone.set();
+    if (listener != null) {
+      ((ITryLockListener) listener).onTryAcquireLockFailed(this, context);
+    }
+  }
+
+  /**
+   * <English>
+   * The backend failed, or the lock was lost.
+   *
+   * <Chinese>
+   * 后端出错，或者锁已丢失。
+   *
+   * @param err the error/错误
+   */
+  protected void onError(ZkException err) {
+    ILockListener listener;
+    synchronized (mutex) {
+      if (lockState == LockState.RELEASED || lockState == LockState.ERROR) {
+        // Error is vacuous now. Lock has already been released
+        return;
+      }
+      lockState = LockState.ERROR;
+      error = err;
+      listener = this.listener;
+    }
+    isDone.set();
+    if (listener != null) {
+      listener.onLockError(err, this, context);
+    }
+  }
+
+  private void start(ILockListener listener, Object context, boolean tryAcquireOnly)
+      throws ZkException {
+    synchronized (mutex) {
+      if (lockState != LockState.IDLE && lockState != LockState.RESERVED) {
+        throw stateError();
+      }
+      lockState = LockState.WAITING;
+      this.listener = listener;
+      this.context = context;
+    }
+    doAcquire(tryAcquireOnly);
+  }
+
+  private void waitDone() throws ZkException {
+    isDone.waitOne();
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private ZkException stateError() {
+    switch (lockState) {
+      case RESERVED:
+        return new ZkException(ZkException.Error.LOCK_ALREADY_RESERVED);
+      case WAITING:
+        return new ZkException(ZkException.Error.LOCK_ALREADY_WAITING);
+      case ABANDONED:
+        return new ZkException(ZkException.Error.LOCK_ALREADY_ABANDONED);
+      case ACQUIRED:
+        return new ZkException(ZkException.Error.LOCK_ALREADY_ACQUIRED);
+      case RELEASED:
+        return new ZkException(ZkException.Error.LOCK_ALREADY_RELEASED);
+      default:
+        return new ZkException(ZkException.Error.UNKNOWN_ERROR);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package dowhat.is.right.lock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <English>
+ * A read or write lock on a path, shared by everyone in this JVM.
+ * <p>
+ * Each path has a FIFO queue with the same rules as the ZooKeeper lock queue: a write lock waits
+ * for everything queued before it, a read lock only for write locks queued before it. Use it for
+ * paths that only need to be locked within one process, at a fraction of the cost of ZooKeeper.
+ *
+ * <Chinese>
+ * 路径上的读锁或写锁，在本JVM内共享。
+ * <p>
+ * 每个路径有一个先进先出队列，规则和zk锁队列相同：写锁等待排在它前面的所有锁，读锁只等待排在它前面的写锁。
+ * 适用于只需要在进程内加锁的路径，开销远小于zk。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public class InProcessLock extends AbstractSinglePathLock {
+
+  //所有路径的锁队列
+  private static final ConcurrentHashMap<String, ArrayDeque<InProcessLock>> QUEUES =
+      new ConcurrentHashMap<>();
+  //是否在队列中（只在队列的锁内访问）
+  private boolean queued;
+  //是否在等待授予（只在队列的锁内访问）
+  private boolean waiting;
+
+  public InProcessLock(String lockPath, LockType type) {
+    super(lockPath, type);
+  }
+
+  @Override
+  protected void doReserve() {
+    QUEUES.compute(getLockPath(), (path, queue) -> {
+      queue = queue == null ? new ArrayDeque<>() : queue;
+      enqueue(queue);
+      return queue;
+    });
+  }
+
+  @Override
+  protected void doAcquire(boolean tryAcquireOnly) {
+    boolean[] result = new boolean[2];//granted, abandoned
+    QUEUES.compute(getLockPath(), (path, queue) -> {
+      queue = queue == null ? new ArrayDeque<>() : queue;
+      enqueue(queue);
+      if (isGrantable(queue, this)) {
+        result[0] = true;
+      } else if (tryAcquireOnly) {
+        dequeue(queue);
+        result[1] = true;
+      } else {
+        waiting = true;
+      }
+      return queue.isEmpty() ? null : queue;
+    });
+    if (result[0]) {
+      onGranted();
+    } else if (result[1]) {
+      onAbandoned();
+    }
+  }
+
+  @Override
+  protected void doRelease() {
+    List<InProcessLock> grants = new ArrayList<>(4);
+    QUEUES.computeIfPresent(getLockPath(), (path, queue) -> {
+      dequeue(queue);
+      // Leaving the queue may unblock the locks waiting behind us
+      for (InProcessLock lock : queue) {
+        if (lock.waiting && isGrantable(queue, lock)) {
+          lock.waiting = false;
+          grants.add(lock);
+        }
+      }
+      return queue.isEmpty() ? null : queue;
+    });
+    for (InProcessLock lock : grants) {
+      lock.onGranted();
+    }
+  }
+
+  private void enqueue(ArrayDeque<InProcessLock> queue) {
+    if (!queued) {
+      queued = true;
+      queue.addLast(this);
+    }
+  }
+
+  private void dequeue(ArrayDeque<InProcessLock> queue) {
+    if (queued) {
+      queued = false;
+      waiting = false;
+      queue.remove(this);
+    }
+  }
+
+  /**
+   * A write lock must be first in the queue, a read lock must have no write lock before it
+   */
+  private static boolean isGrantable(ArrayDeque<InProcessLock> queue, InProcessLock lock) {
+    Iterator<InProcessLock> it = queue.iterator();
+    while (it.hasNext()) {
+      InProcessLock prev = it.next();
+      if (prev == lock) {
+        return true;
+      }
+      if (lock.getType() == LockType.WRITE || prev.getType() == LockType.WRITE) {
+        return false;
+      }
+    }
+    return false;
+  }
+}
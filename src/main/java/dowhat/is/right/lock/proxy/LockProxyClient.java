@@ -0,0 +1,148 @@
+package dowhat.is.right.lock.proxy;
+
+import dowhat.is.right.zk.ZkException;
+import dowhat.is.right.zk.lock.ILock.LockType;
+import dowhat.is.right.zk.lock.ILockFactory;
+import dowhat.is.right.zk.lock.ISinglePathLock;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <English>
+ * A connection to a {@link LockProxyServer}, creating locks which the proxy runs on its ZooKeeper
+ * sessions. All locks of the client share the one connection.
+ *
+ * <Chinese>
+ * 到{@link LockProxyServer}的连接，创建由代理在其zk会话上执行的锁。客户端的所有锁共享这一个连接。
+ *
+ * @author 杨春炼
+ * @since 2020-05-21
+ */
+public class LockProxyClient implements ILockFactory, Closeable {
+
+  //到代理的连接
+  private final SocketChannel channel;
+  //等待应答或者持有中的锁
+  private final Map<Long, ProxyLock> locks = new ConcurrentHashMap<>();
+  //锁id生成
+  private final AtomicLong lastLockId = new AtomicLong();
+  //读取应答的线程
+  private final Thread reader;
+
+  /**
+   * @param address Address of the proxy./代理地址
+   * @throws IOException The proxy could not be reached./无法连接代理
+   */
+  public LockProxyClient(InetSocketAddress address) throws IOException {
+    channel = SocketChannel.open(address);
+    channel.socket().setTcpNoDelay(true);
+    reader = new Thread(this::readReplies, "lock-proxy-client");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ISinglePathLock newLock(String lockPath, LockType type) {
+    return new ProxyLock(this, lastLockId.incrementAndGet(), lockPath, type);
+  }
+
+  public boolean isConnected() {
+    return channel.isOpen();
+  }
+
+  /**
+   * <English>
+   * Close the connection. The proxy releases every lock of this client, and locks still waiting
+   * fail.
+   *
+   * <Chinese>
+   * 关闭连接。代理会释放此客户端的所有锁，还在等待的锁以失败结束。
+   *
+   * @throws IOException exception
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  void send(ProxyLock lock, byte op) throws IOException {
+    ByteBuffer frame;
+    if (op == LockProxyProtocol.RELEASE) {
+      locks.remove(lock.getLockId());
+      frame = LockProxyProtocol.frame(op, lock.getLockId());
+    } else {
+      locks.put(lock.getLockId(), lock);
+      frame = LockProxyProtocol.request(op, lock.getLockId(), lock.getType(), lock.getLockPath());
+    }
+    synchronized (channel) {
+      while (frame.hasRemaining()) {
+        channel.write(frame);
+      }
+    }
+  }
+
+  void forget(ProxyLock lock) {
+    locks.remove(lock.getLockId());
+  }
+
+  private void readReplies() {
+    ByteBuffer in = ByteBuffer.allocate(8192);
+    try {
+      while (channel.read(in) >= 0) {
+        in.flip();
+        ByteBuffer frame;
+        while ((frame = LockProxyProtocol.nextFrame(in)) != null) {
+          dispatch(frame);
+        }
+        in.compact();
+      }
+    } catch (IOException e) {
+      // Closed, or the proxy went away
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    // Without the connection the proxy has released our locks
+    for (Long lockId : new ArrayList<>(locks.keySet())) {
+      ProxyLock lock = locks.remove(lockId);
+      if (lock != null) {
+        lock.failed(new ZkException(ZkException.Error.BACKEND_EXCEPTION));
+      }
+    }
+  }
+
+  private void dispatch(ByteBuffer frame) {
+    byte op = frame.get();
+    long lockId = frame.getLong();
+    // A granted lock stays registered, to learn if it is lost later
+    ProxyLock lock = op == LockProxyProtocol.GRANTED ? locks.get(lockId) : locks.remove(lockId);
+    if (lock == null) {
+      return;
+    }
+    switch (op) {
+      case LockProxyProtocol.GRANTED:
+        lock.granted();
+        break;
+      case LockProxyProtocol.ABANDONED:
+        lock.abandoned();
+        break;
+      case LockProxyProtocol.ERROR:
+        lock.failed(LockProxyProtocol.readError(frame));
+        break;
+      default:
+        break;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package dowhat.is.right.lock.proxy;
+
+import dowhat.is.right.zk.ZkException;
+import dowhat.is.right.zk.lock.ILock.LockType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+
+/**
+ * <English>
+ * The binary protocol between {@link LockProxyClient} and {@link LockProxyServer}.
+ * <p>
+ * Every frame is <code>int length, byte op, long lockId</code> followed by the payload of the op.
+ * Requests which may create the lock (reserve, acquire, try acquire) carry
+ * <code>byte type, short pathLength, path (UTF-8)</code>, release carries nothing. Replies are
+ * granted, abandoned, and error which carries <code>byte error, int keeperCode</code>.
+ *
+ * <Chinese>
+ * {@link LockProxyClient}和{@link LockProxyServer}之间的二进制协议。
+ * <p>
+ * 每个帧为<code>int长度、byte操作、long锁id</code>，后面是操作的负载。可能创建锁的请求（预约、获取、尝试获取）
+ * 带有<code>byte类型、short路径长度、路径（UTF-8）</code>，释放没有负载。应答有获得、放弃和错误，
+ * 错误带有<code>byte错误、int zk错误码</code>。
+ *
+ * @author 杨春炼
+ * @since 2020-05-21
+ */
+final class LockProxyProtocol {
+
+  static final byte RESERVE = 1;
+  static final byte ACQUIRE = 2;
+  static final byte TRY_ACQUIRE = 3;
+  static final byte RELEASE = 4;
+  static final byte GRANTED = 11;
+  static final byte ABANDONED = 12;
+  static final byte ERROR = 13;
+  //帧头（操作和锁id）的长度
+  private static final int HEADER = 1 + 8;
+  //最大帧长度（不含长度字段）
+  static final int MAX_FRAME = HEADER + 1 + 2 + 0xFFFF;
+
+  private LockProxyProtocol() {
+  }
+
+  static ByteBuffer request(byte op, long lockId, LockType type, String path) {
+    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+    if (pathBytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("lock path too long: " + path);
+    }
+    int length = HEADER + 1 + 2 + pathBytes.length;
+    ByteBuffer frame = ByteBuffer.allocate(4 + length);
+    frame.putInt(length).put(op).putLong(lockId);
+    frame.put((byte) type.ordinal()).putShort((short) pathBytes.length).put(pathBytes);
+    frame.flip();
+    return frame;
+  }
+
+  static ByteBuffer frame(byte op, long lockId) {
+    ByteBuffer frame = ByteBuffer.allocate(4 + HEADER);
+    frame.putInt(HEADER).put(op).putLong(lockId);
+    frame.flip();
+    return frame;
+  }
+
+  static ByteBuffer error(long lockId, ZkException err) {
+    KeeperException keeperException = err.getKeeperException();
+    ByteBuffer frame = ByteBuffer.allocate(4 + HEADER + 1 + 4);
+    frame.putInt(HEADER + 1 + 4).put(ERROR).putLong(lockId);
+    frame.put((byte) err.getErrorCode().ordinal());
+    frame.putInt(keeperException == null ? 0 : keeperException.code().intValue());
+    frame.flip();
+    return frame;
+  }
+
+  static LockType readType(ByteBuffer frame) throws IOException {
+    int type = frame.get();
+    if (type != LockType.READ.ordinal() && type != LockType.WRITE.ordinal()) {
+      throw new IOException("not a single path lock type: " + type);
+    }
+    return LockType.values()[type];
+  }
+
+  static String readPath(ByteBuffer frame) {
+    byte[] pathBytes = new byte[frame.getShort() & 0xFFFF];
+    frame.get(pathBytes);
+    return new String(pathBytes, StandardCharsets.UTF_8);
+  }
+
+  static ZkException readError(ByteBuffer frame) {
+    ZkException.Error error = ZkException.Error.values()[frame.get()];
+    int keeperCode = frame.getInt();
+    if (keeperCode != 0) {
+      return new ZkException(KeeperException.create(Code.get(keeperCode)));
+    }
+    return new ZkException(error);
+  }
+
+  /**
+   * <English>
+   * Take the next complete frame out of a buffer in read mode, positioned after the length field.
+   *
+   * <Chinese>
+   * 从读模式的缓冲区中取出下一个完整的帧，帧的位置在长度字段之后。
+   *
+   * @param in received bytes/收到的字节
+   * @return The frame, or null if it has not been fully received./帧，还未完整收到时返回null
+   * @throws IOException The length is invalid./长度不合法
+   */
+  static ByteBuffer nextFrame(ByteBuffer in) throws IOException {
+    if (in.remaining() < 4) {
+      return null;
+    }
+    int length = in.getInt(in.position());
+    if (length < HEADER || length > MAX_FRAME) {
+      throw new IOException("invalid frame length: " + length);
+    }
+    if (in.remaining() < 4 + length) {
+      return null;
+    }
+    ByteBuffer frame = in.duplicate();
+    frame.position(in.position() + 4);
+    frame.limit(in.position() + 4 + length);
+    in.position(in.position() + 4 + length);
+    return frame;
+  }
+}
@@ -0,0 +1,339 @@
+package dowhat.is.right.lock.proxy;
+
+import dowhat.is.right.zk.IZkSessionRouter;
+import dowhat.is.right.zk.ZkException;
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock;
+import dowhat.is.right.zk.lock.ILock.LockType;
+import dowhat.is.right.zk.lock.ITryLockListener;
+import dowhat.is.right.zk.lock.ZkLockBase;
+import dowhat.is.right.zk.lock.ZkReadLock;
+import dowhat.is.right.zk.lock.ZkWriteLock;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <English>
+ * A local daemon which runs ZooKeeper locks on behalf of many client processes.
+ * <p>
+ * Short-lived workers connect to it with a {@link LockProxyClient} instead of opening their own
+ * ZooKeeper sessions, and the proxy spreads their locks over a small pool of sessions chosen by the
+ * router, e.g. a <code>ZkSessionPool</code>. A single selector thread serves every connection, lock
+ * results are written back from the session callbacks. When a client disconnects, all its locks
+ * are released, just as its own session closing would have done.
+ *
+ * <Chinese>
+ * 本地守护进程，代替大量客户端进程执行zk锁。
+ * <p>
+ * 短生命周期的工作进程用{@link LockProxyClient}连接代理，而不是各自打开zk会话；代理把它们的锁分散到路由选择的
+ * 少量会话上，比如<code>ZkSessionPool</code>。一个selector线程服务所有连接，锁的结果由会话回调写回。
+ * 客户端断开时，它的所有锁都会被释放，和它自己的会话关闭时一样。
+ *
+ * @author 杨春炼
+ * @since 2020-05-21
+ */
+public class LockProxyServer implements Closeable {
+
+  //按路径选择会话
+  private final IZkSessionRouter router;
+  //selector
+  private final Selector selector;
+  //监听的通道
+  private final ServerSocketChannel serverChannel;
+  //selector线程
+  private final Thread selectorThread;
+  //有待写应答的连接
+  private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+  //所有连接
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+  //代理中的锁个数
+  private final AtomicInteger lockCount = new AtomicInteger();
+  //是否关闭
+  private volatile boolean closed;
+
+  /**
+   * @param address Address to listen on, usually a loopback address./监听地址，一般为回环地址
+   * @param router  Chooses the session of each lock path./为每个锁路径选择会话
+   * @throws IOException The address could not be bound./地址绑定失败
+   */
+  public LockProxyServer(InetSocketAddress address, IZkSessionRouter router) throws IOException {
+    this.router = router;
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    selectorThread = new Thread(this::run, "lock-proxy-" + getLocalAddress().getPort());
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  public InetSocketAddress getLocalAddress() throws IOException {
+    return (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * <English>
+   * Number of locks the clients are currently reserving, waiting for or holding.
+   *
+   * <Chinese>
+   * 客户端当前预约、等待或持有的锁个数。
+   *
+   * @return locks
+   */
+  public int getLockCount() {
+    return lockCount.get();
+  }
+
+  /**
+   * <English>
+   * Stop serving, releasing the locks of every client.
+   *
+   * <Chinese>
+   * 停止服务，释放所有客户端的锁。
+   */
+  @Override
+  public void close() {
+    closed = true;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        selector.select();
+        Connection pending;
+        while ((pending = writable.poll()) != null) {
+          if (pending.key.isValid()) {
+            pending.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          }
+        }
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (key.isValid() && key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          try {
+            if (key.isValid() && key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.write();
+            }
+          } catch (IOException | RuntimeException e) {
+            connection.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      for (Connection connection : new ArrayList<>(connections)) {
+        connection.close();
+      }
+      try {
+        serverChannel.close();
+        selector.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    Connection connection = new Connection(channel);
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    connections.add(connection);
+  }
+
+  /**
+   * A client connection and the locks it runs through the proxy
+   */
+  private final class Connection implements ITryLockListener {
+
+    //客户端通道
+    private final SocketChannel channel;
+    //待写的应答
+    private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+    //锁id到锁
+    private final Map<Long, ZkLockBase> locks = new ConcurrentHashMap<>();
+    //selector中的key
+    private SelectionKey key;
+    //收到的字节，按需扩容到最大帧
+    private ByteBuffer in = ByteBuffer.allocate(512);
+    //是否打开
+    private volatile boolean open = true;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        throw new EOFException();
+      }
+      in.flip();
+      ByteBuffer frame;
+      while ((frame = LockProxyProtocol.nextFrame(in)) != null) {
+        handle(frame);
+      }
+      in.compact();
+      if (!in.hasRemaining()) {
+        // A frame larger than the buffer
+        ByteBuffer larger = ByteBuffer.allocate(
+            Math.min(in.capacity() * 2, 4 + LockProxyProtocol.MAX_FRAME));
+        in.flip();
+        larger.put(in);
+        in = larger;
+      }
+    }
+
+    void write() throws IOException {
+      ByteBuffer reply;
+      while ((reply = out.peek()) != null) {
+        channel.write(reply);
+        if (reply.hasRemaining()) {
+          return;
+        }
+        out.poll();
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      if (!out.isEmpty()) {
+        // Queued while we were clearing the interest
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+
+    void close() {
+      if (!open) {
+        return;
+      }
+      open = false;
+      connections.remove(this);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      // The client is gone, so are its locks
+      for (Long lockId : new ArrayList<>(locks.keySet())) {
+        ZkLockBase lock = locks.remove(lockId);
+        if (lock != null) {
+          lockCount.decrementAndGet();
+          lock.release();
+        }
+      }
+    }
+
+    private void handle(ByteBuffer frame) throws IOException {
+      byte op = frame.get();
+      long lockId = frame.getLong();
+      if (op == LockProxyProtocol.RELEASE) {
+        ZkLockBase lock = locks.remove(lockId);
+        if (lock != null) {
+          lockCount.decrementAndGet();
+          lock.release();
+        }
+        return;
+      }
+      LockType type = LockProxyProtocol.readType(frame);
+      String path = LockProxyProtocol.readPath(frame);
+      ZkLockBase lock = locks.get(lockId);
+      if (lock == null) {
+        ZkSessionManager session = router.route(path);
+        lock = type == LockType.WRITE ? new ZkWriteLock(session, path)
+            : new ZkReadLock(session, path);
+        locks.put(lockId, lock);
+        lockCount.incrementAndGet();
+      }
+      try {
+        switch (op) {
+          case LockProxyProtocol.RESERVE:
+            lock.reserve();
+            break;
+          case LockProxyProtocol.ACQUIRE:
+            lock.acquire(this, lockId);
+            break;
+          case LockProxyProtocol.TRY_ACQUIRE:
+            lock.tryAcquire(this, lockId);
+            break;
+          default:
+            throw new IOException("unknown op: " + op);
+        }
+      } catch (ZkException e) {
+        onLockError(e, lock, lockId);
+      }
+    }
+
+    private void send(ByteBuffer reply) {
+      if (!open) {
+        return;
+      }
+      out.add(reply);
+      writable.add(this);
+      selector.wakeup();
+    }
+
+    @Override
+    public void onLockAcquired(ILock lock, Object context) {
+      long lockId = (Long) context;
+      if (locks.get(lockId) == lock) {
+        send(LockProxyProtocol.frame(LockProxyProtocol.GRANTED, lockId));
+      }
+    }
+
+    @Override
+    public void onTryAcquireLockFailed(ILock lock, Object context) {
+      long lockId = (Long) context;
+      if (locks.remove(lockId, lock)) {
+        lockCount.decrementAndGet();
+        send(LockProxyProtocol.frame(LockProxyProtocol.ABANDONED, lockId));
+      }
+    }
+
+    @Override
+    public void onLockError(ZkException err, ILock lock, Object context) {
+      long lockId = (Long) context;
+      // Errors of locks the client has already released are vacuous
+      if (locks.remove(lockId, lock)) {
+        lockCount.decrementAndGet();
+        send(LockProxyProtocol.error(lockId, err));
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package dowhat.is.right.lock.proxy;
+
+import dowhat.is.right.lock.AbstractSinglePathLock;
+import dowhat.is.right.zk.ZkException;
+import java.io.IOException;
+
+/**
+ * <English>
+ * A read or write lock run by a {@link LockProxyServer}, created by a {@link LockProxyClient}.
+ * <p>
+ * It behaves like a ZooKeeper lock, except that it is tied to the connection to the proxy instead
+ * of a session: if the connection is lost, the lock fails with <code>BACKEND_EXCEPTION</code> and
+ * the proxy releases it.
+ *
+ * <Chinese>
+ * 由{@link LockProxyServer}执行的读锁或写锁，由{@link LockProxyClient}创建。
+ * <p>
+ * 行为和zk锁相同，只是绑定在到代理的连接上而不是会话上：连接断开时，锁以<code>BACKEND_EXCEPTION</code>
+ * 失败，代理会释放它。
+ *
+ * @author 杨春炼
+ * @since 2020-05-21
+ */
+public class ProxyLock extends AbstractSinglePathLock {
+
+  //代理客户端
+  private final LockProxyClient client;
+  //连接内唯一的锁id
+  private final long lockId;
+
+  ProxyLock(LockProxyClient client, long lockId, String lockPath, LockType type) {
+    super(lockPath, type);
+    this.client = client;
+    this.lockId = lockId;
+  }
+
+  long getLockId() {
+    return lockId;
+  }
+
+  @Override
+  protected void doReserve() {
+    send(LockProxyProtocol.RESERVE);
+  }
+
+  @Override
+  protected void doAcquire(boolean tryAcquireOnly) {
+    send(tryAcquireOnly ? LockProxyProtocol.TRY_ACQUIRE : LockProxyProtocol.ACQUIRE);
+  }
+
+  @Override
+  protected void doRelease() {
+    send(LockProxyProtocol.RELEASE);
+  }
+
+  void granted() {
+    onGranted();
+  }
+
+  void abandoned() {
+    onAbandoned();
+  }
+
+  void failed(ZkException err) {
+    onError(err);
+  }
+
+  private void send(byte op) {
+    try {
+      client.send(this, op);
+    } catch (IOException e) {
+      client.forget(this);
+      onError(new ZkException(ZkException.Error.BACKEND_EXCEPTION, e));
+    }
+  }
+}
@@ -0,0 +1,7 @@
+/**
+ * lock proxy
+ *
+ * @author 杨春炼
+ * @since 2020-05-21
+ */
+package dowhat.is.right.lock.proxy;
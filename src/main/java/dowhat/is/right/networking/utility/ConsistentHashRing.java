@@ -0,0 +1,115 @@
+package dowhat.is.right.networking.utility;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <English>
+ * Consistent hash ring mapping keys onto named nodes.
+ * <p>
+ * Every node is placed on the ring at many pseudo random points (virtual nodes), and a key belongs
+ * to the first node point at or after the key's own hash. Adding a node only takes over the keys
+ * that now hash closest to its points, roughly 1/N of them, and every other key stays where it
+ * was. Removing a node only moves the keys it owned.
+ *
+ * <Chinese>
+ * 一致性哈希环，把key映射到命名的节点上。
+ * <p>
+ * 每个节点被放置在环上很多个伪随机的位置（虚拟节点），key属于从它自身哈希值开始顺时针遇到的第一个节点位置。
+ * 增加一个节点只会接管离它的位置最近的key（大约1/N），其他key都保持不变；删除节点也只会移动它拥有的key。
+ *
+ * @param <T> node type
+ * @author 杨春炼
+ * @since 2020-05-11
+ */
+public class ConsistentHashRing<T> {
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+  private final int virtualNodes;
+  private final Map<String, T> nodes;
+  private volatile NavigableMap<Long, String> ring;
+
+  /**
+   * @param virtualNodes Points on the ring per node, more points spread keys more evenly./每个节点的虚拟节点数
+   */
+  public ConsistentHashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("virtual nodes must be greater than or equals to 1");
+    }
+    this.virtualNodes = virtualNodes;
+    nodes = new ConcurrentHashMap<>();
+    ring = new TreeMap<>();
+  }
+
+  /**
+   * <English>
+   * Add a node, or replace the node with the same name keeping its keys.
+   *
+   * <Chinese>
+   * 增加节点；如果名字相同则替换原节点，并保留它的key。
+   *
+   * @param name The stable name that decides where the node sits on the ring./决定节点在环上位置的名字
+   * @param node node
+   */
+  public synchronized void add(String name, T node) {
+    nodes.put(name, node);
+    NavigableMap<Long, String> newRing = new TreeMap<>(ring);
+    for (int i = 0; i < virtualNodes; i++) {
+      newRing.put(hash(name + "#" + i), name);
+    }
+    ring = newRing;
+  }
+
+  /**
+   * <English>
+   * Remove a node, its keys move to the following nodes on the ring.
+   *
+   * <Chinese>
+   * 删除节点，它的key转移到环上后面的节点。
+   *
+   * @param name node name
+   */
+  public synchronized void remove(String name) {
+    if (nodes.remove(name) == null) {
+      return;
+    }
+    NavigableMap<Long, String> newRing = new TreeMap<>(ring);
+    newRing.values().removeIf(name::equals);
+    ring = newRing;
+  }
+
+  /**
+   * <English>
+   * Find the node a key belongs to.
+   *
+   * <Chinese>
+   * 查找key所属的节点。
+   *
+   * @param key key
+   * @return node, or null if the ring is empty
+   */
+  public T get(String key) {
+    NavigableMap<Long, String> currRing = ring;
+    if (currRing.isEmpty()) {
+      return null;
+    }
+    Map.Entry<Long, String> point = currRing.ceilingEntry(hash(key));
+    if (point == null) {
+      point = currRing.firstEntry();//wrap around the ring
+    }
+    return nodes.get(point.getValue());
+  }
+
+  public int size() {
+    return nodes.size();
+  }
+
+  private static long hash(String key) {
+    return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+  }
+}
@@ -1,5 +1,7 @@
 package dowhat.is.right.networking.utility;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * @author 杨春炼
  * @since 2020-04-05
@@ -43,6 +45,29 @@ public class NetworkAlgorithms {
     return delay;
   }
 
+  /**
+   * Get delay before new attempt at task using exponential backoff with decorrelated jitter. Each
+   * delay is picked at random between the first failure delay and three times the previous delay,
+   * so clients that failed at the same moment spread their attempts out instead of retrying in
+   * lockstep.
+   *
+   * @param previousDelay     Delay before the previous attempt, or 0 after the first failure
+   * @param firstFailureDelay Delay after first failure in chosen time unit
+   * @param maxDelay          Maximum allowed delay in chosen time unit
+   * @return The delay before the next attempt
+   */
+  public static long getDecorrelatedJitterDelay(long previousDelay, long firstFailureDelay,
+      long maxDelay) {
+    if (firstFailureDelay <= 0) {
+      firstFailureDelay = 500;
+    }
+    if (maxDelay < firstFailureDelay) {
+      maxDelay = firstFailureDelay;
+    }
+    long upper = Math.min(maxDelay, Math.max(firstFailureDelay, previousDelay) * 3);
+    return ThreadLocalRandom.current().nextLong(firstFailureDelay, upper + 1);
+  }
+
   /**
    * Get an expiry time expressed as milliseconds in the future from now. When passing objects
    * containing expiry time fields between nodes in a cluster, assuming message transmission to be
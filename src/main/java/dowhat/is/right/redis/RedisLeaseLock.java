@@ -0,0 +1,117 @@
+package dowhat.is.right.redis;
+
+import dowhat.is.right.lock.AbstractSinglePathLock;
+import dowhat.is.right.zk.ZkException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.redisson.api.RLock;
+import org.redisson.api.RReadWriteLock;
+import org.redisson.api.RedissonClient;
+
+/**
+ * <English>
+ * A read or write lock on a path, held in Redis as a lease that expires on its own.
+ * <p>
+ * Much cheaper than a ZooKeeper lock, but only as safe as its lease: the lock is lost once the
+ * lease runs out, which <code>isValidFor()</code> counts down to. Redis keeps no queue of waiters,
+ * so <code>reserve()</code> does not secure a position.
+ *
+ * <Chinese>
+ * 路径上的读锁或写锁，以自动过期的租约形式保存在redis中。
+ * <p>
+ * 比zk锁便宜很多，但只在租约内安全：租约到期后锁即丢失，<code>isValidFor()</code>会倒计时到这一刻。
+ * redis不维护等待队列，所以<code>reserve()</code>不能占据排队位置。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public class RedisLeaseLock extends AbstractSinglePathLock {
+
+  /**
+   * Redisson ties a lock to an owner id, normally the thread id. We may acquire and release on
+   * different threads, so each lock instance gets its own id, kept clear of real thread ids.
+   */
+  private static final AtomicLong OWNER_IDS = new AtomicLong(Long.MIN_VALUE);
+  private final RLock lock;
+  private final long ownerId;
+  private final long leaseMillis;
+  //租约到期时间（System.nanoTime）
+  private volatile long leaseDeadline;
+
+  /**
+   * @param redisson    redis client
+   * @param lockPath    The path to lock./加锁的路径
+   * @param type        READ or WRITE./读锁或写锁
+   * @param leaseMillis How long the lock is held before it expires on its own./租约时长
+   */
+  public RedisLeaseLock(RedissonClient redisson, String lockPath, LockType type,
+      long leaseMillis) {
+    super(lockPath, type);
+    RReadWriteLock readWriteLock = redisson.getReadWriteLock(lockPath);
+    lock = type == LockType.READ ? readWriteLock.readLock() : readWriteLock.writeLock();
+    ownerId = OWNER_IDS.getAndIncrement();
+    this.leaseMillis = leaseMillis;
+  }
+
+  @Override
+  protected void doReserve() {
+  }
+
+  @Override
+  protected void doAcquire(boolean tryAcquireOnly) {
+    long startTime = System.nanoTime();
+    if (tryAcquireOnly) {
+      lock.tryLockAsync(0, leaseMillis, TimeUnit.MILLISECONDS, ownerId)
+          .onComplete((acquired, err) -> {
+            if (err != null) {
+              onError(new ZkException(ZkException.Error.BACKEND_EXCEPTION, err));
+            } else if (acquired) {
+              granted(startTime);
+            } else {
+              onAbandoned();
+            }
+          });
+    } else {
+      lock.lockAsync(leaseMillis, TimeUnit.MILLISECONDS, ownerId)
+          .onComplete((ignored, err) -> {
+            if (err != null) {
+              onError(new ZkException(ZkException.Error.BACKEND_EXCEPTION, err));
+            } else {
+              granted(startTime);
+            }
+          });
+    }
+  }
+
+  @Override
+  protected void doRelease() {
+    leaseDeadline = 0;
+    lock.unlockAsync(ownerId);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Counts down to the end of the lease, measured from when we asked for the lock.
+   */
+  @Override
+  public boolean isValidFor(long duration, TimeUnit unit) {
+    return super.isValidFor(duration, unit)
+        && leaseDeadline - System.nanoTime() > unit.toNanos(duration);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The lease has run out, the lock may already be held by someone else.
+   */
+  @Override
+  public boolean isSuspect() {
+    return getState() == LockState.ACQUIRED && leaseDeadline - System.nanoTime() <= 0;
+  }
+
+  private void granted(long startTime) {
+    leaseDeadline = startTime + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+    onGranted();
+  }
+}
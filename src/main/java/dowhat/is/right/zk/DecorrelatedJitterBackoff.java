@@ -0,0 +1,52 @@
+package dowhat.is.right.zk;
+
+import dowhat.is.right.networking.utility.NetworkAlgorithms;
+
+/**
+ * <English>
+ * Exponential backoff with decorrelated jitter: every delay is random between the base delay and
+ * three times the previous delay, capped. After a leader election the clients of the whole fleet
+ * fail at the same moment, and the jitter spreads their retries out.
+ *
+ * <Chinese>
+ * 带去相关抖动的指数退避：每次延迟在基础延迟和上次延迟的三倍之间随机，并有上限。
+ * leader选举后整个集群的客户端同时失败，抖动把它们的重试分散开。
+ *
+ * @author 杨春炼
+ * @since 2020-05-12
+ */
+public class DecorrelatedJitterBackoff implements IBackoffPolicy {
+
+  //基础延迟（毫秒）
+  private final long baseDelay;
+  //最大延迟（毫秒）
+  private final long maxDelay;
+
+  public DecorrelatedJitterBackoff() {
+    this(250, 7500);
+  }
+
+  public DecorrelatedJitterBackoff(long baseDelay, long maxDelay) {
+    if (baseDelay <= 0 || maxDelay < baseDelay) {
+      throw new IllegalArgumentException("require 0 < base delay <= max delay");
+    }
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getDelayMillis(int retries, long previousDelay) {
+    return NetworkAlgorithms.getDecorrelatedJitterDelay(previousDelay, baseDelay, maxDelay);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long getMaxDelayMillis() {
+    return maxDelay;
+  }
+}
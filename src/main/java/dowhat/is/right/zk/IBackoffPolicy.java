@@ -0,0 +1,38 @@
+package dowhat.is.right.zk;
+
+/**
+ * <English>
+ * Decides how long to wait before retrying a failed primitive operation.
+ *
+ * <Chinese>
+ * 决定原语操作失败后重试前等待的时间。
+ *
+ * @author 杨春炼
+ * @since 2020-05-12
+ */
+public interface IBackoffPolicy {
+
+  /**
+   * <English>
+   * Delay before the next retry of an operation.
+   *
+   * <Chinese>
+   * 操作下一次重试前的延迟。
+   *
+   * @param retries       Retries of the operation so far, 0 for the first retry./已重试次数
+   * @param previousDelay Delay before the previous retry in milliseconds, 0 for the first retry./上次重试的延迟
+   * @return delay in milliseconds
+   */
+  long getDelayMillis(int retries, long previousDelay);
+
+  /**
+   * <English>
+   * The longest delay the policy returns, used when the retry budget is used up.
+   *
+   * <Chinese>
+   * 策略返回的最大延迟，重试预算用完时使用。
+   *
+   * @return delay in milliseconds
+   */
+  long getMaxDelayMillis();
+}
@@ -0,0 +1,73 @@
+package dowhat.is.right.zk;
+
+import java.util.List;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+
+/**
+ * <English>
+ * The subset of the <code>ZooKeeper</code> client API that the session manager and the primitives
+ * use. Methods have the same signatures and semantics as their <code>ZooKeeper</code> namesakes, so
+ * primitives run unchanged over a real ensemble or an in-memory backend.
+ *
+ * <Chinese>
+ * 会话管理和原语用到的<code>ZooKeeper</code>客户端API子集。方法的签名和语义与<code>ZooKeeper</code>
+ * 中的同名方法相同，使原语不经修改就能运行在真实集群或者内存后端上。
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+public interface IZkClient {
+
+  void create(String path, byte[] data, List<ACL> acl, CreateMode createMode, StringCallback cb,
+      Object ctx);
+
+  String create(String path, byte[] data, List<ACL> acl, CreateMode createMode)
+      throws KeeperException, InterruptedException;
+
+  void delete(String path, int version, VoidCallback cb, Object ctx);
+
+  void delete(String path, int version) throws InterruptedException, KeeperException;
+
+  void exists(String path, Watcher watcher, StatCallback cb, Object ctx);
+
+  void getChildren(String path, Watcher watcher, ChildrenCallback cb, Object ctx);
+
+  void sync(String path, VoidCallback cb, Object ctx);
+
+  void multi(Iterable<Op> ops, MultiCallback cb, Object ctx);
+
+  long getSessionId();
+
+  byte[] getSessionPasswd();
+
+  int getSessionTimeout();
+
+  /**
+   * <English>
+   * Close the session, deleting its ephemeral nodes.
+   *
+   * <Chinese>
+   * 关闭会话，删除会话的临时节点。
+   *
+   * @throws InterruptedException interrupted
+   */
+  void close() throws InterruptedException;
+
+  /**
+   * <English>
+   * Stop using the session without closing it, leaving its ephemeral nodes until it times out.
+   *
+   * <Chinese>
+   * 停止使用会话但不关闭它，会话的临时节点保留到会话超时。
+   */
+  void detach();
+}
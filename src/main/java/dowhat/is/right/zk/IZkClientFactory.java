@@ -0,0 +1,37 @@
+package dowhat.is.right.zk;
+
+import java.io.IOException;
+import org.apache.zookeeper.Watcher;
+
+/**
+ * <English>
+ * Creates the client of each new session.
+ *
+ * <Chinese>
+ * 为每个新会话创建客户端。
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+@FunctionalInterface
+public interface IZkClientFactory {
+
+  /**
+   * <English>
+   * Create a client which connects asynchronously and reports connection state to the watcher.
+   *
+   * <Chinese>
+   * 创建客户端，客户端异步连接，并把连接状态通知给watcher。
+   *
+   * @param connectString "host1:port1,host2:port2"
+   * @param sessionTimeout session timeout in milliseconds/会话超时毫秒数
+   * @param watcher default watcher/默认watcher
+   * @param sessionId The session to reattach to, or 0 for a new session./要重新接入的会话，0表示新会话
+   * @param sessionPasswd password of the session to reattach to/要重新接入的会话的密码
+   * @param canBeReadOnly whether a read-only server may be used/是否允许连接只读服务端
+   * @return client
+   * @throws IOException The connect string is invalid./连接串不合法
+   */
+  IZkClient newClient(String connectString, int sessionTimeout, Watcher watcher, long sessionId,
+      byte[] sessionPasswd, boolean canBeReadOnly) throws IOException;
+}
@@ -0,0 +1,27 @@
+package dowhat.is.right.zk;
+
+/**
+ * <English>
+ * Chooses the session a primitive operates within, from the primitive's path. The same path must
+ * always be routed to the same session, so that operations on a path stay ordered.
+ *
+ * <Chinese>
+ * 根据原语的路径选择原语所在的会话。同一个路径必须总是路由到同一个会话，以保证同一路径上的操作有序。
+ *
+ * @author 杨春炼
+ * @since 2020-05-10
+ */
+public interface IZkSessionRouter {
+
+  /**
+   * <English>
+   * Choose the session for a path.
+   *
+   * <Chinese>
+   * 为路径选择会话。
+   *
+   * @param path The primitive path./原语路径
+   * @return session manager
+   */
+  ZkSessionManager route(String path);
+}
@@ -0,0 +1,234 @@
+package dowhat.is.right.zk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+
+/**
+ * <English>
+ * Caps the asynchronous operations a session has outstanding on the server.
+ * <p>
+ * The ZooKeeper client queues requests without limit, so a burst of key set refreshes or
+ * resynchronization could queue ahead of a lock release and delay it for everyone. Operations over
+ * the cap wait in priority lanes instead, and each completed operation hands its slot to the next
+ * operation of the highest non-empty lane, so releases and handoffs overtake bulk work.
+ * <p>
+ * The bulk lane is bounded, so that a flood of refreshes can't grow memory without limit: a
+ * producer issuing into a full bulk lane blocks until a slot hands one of its operations out. Lock
+ * lanes are not bounded, a lock operation never waits for room.
+ * <p>
+ * An operation issues exactly one asynchronous call, whose callback must be wrapped by
+ * <code>wrapXxx()</code> to give the slot back.
+ *
+ * <Chinese>
+ * 限制会话在服务端未完成的异步操作个数。
+ * <p>
+ * zk客户端对请求排队没有上限，一批key集合刷新或重新同步可能排在锁释放前面，使所有人都被延迟。
+ * 超过上限的操作在优先级通道中等待，每个完成的操作把名额交给最高的非空通道中的下一个操作，
+ * 所以释放和移交锁会超过批量操作。
+ * <p>
+ * 批量通道有上限，避免大量刷新使内存无限增长：向已满的批量通道发出操作的生产者会阻塞，直到有操作从中被发出。
+ * 锁的通道没有上限，锁操作从不等待空间。
+ * <p>
+ * 每个操作只发出一个异步调用，它的回调必须用<code>wrapXxx()</code>包装以归还名额。
+ *
+ * @author 杨春炼
+ * @since 2020-05-16
+ */
+public class InFlightGate {
+
+  //最大在途操作个数
+  private final int maxInFlight;
+  //批量通道中最大等待个数
+  private final int maxQueuedBulk;
+  //每个通道中等待的操作
+  private final List<ArrayDeque<Runnable>> lanes;
+  //在途操作个数（在this锁内访问）
+  private int inFlight;
+  //等待个数的峰值
+  private int peakQueued;
+  //已发出的操作个数
+  private long issued;
+
+  /**
+   * @param maxInFlight 最大在途操作个数，批量通道最多等待其10倍
+   */
+  public InFlightGate(int maxInFlight) {
+    this(maxInFlight, maxInFlight * 10);
+  }
+
+  /**
+   * @param maxInFlight   max operations in flight/最大在途操作个数
+   * @param maxQueuedBulk max operations waiting in the bulk lane/批量通道中最大等待个数
+   */
+  public InFlightGate(int maxInFlight, int maxQueuedBulk) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("max in flight must be greater than or equals to 1");
+    }
+    if (maxQueuedBulk < 1) {
+      throw new IllegalArgumentException("max queued bulk must be greater than or equals to 1");
+    }
+    this.maxInFlight = maxInFlight;
+    this.maxQueuedBulk = maxQueuedBulk;
+    lanes = new ArrayList<>(OperationLane.values().length);
+    for (int i = 0; i < OperationLane.values().length; i++) {
+      lanes.add(new ArrayDeque<>());
+    }
+  }
+
+  /**
+   * <English>
+   * Issue an operation now if there is a free slot, otherwise queue it in its lane. Blocks while
+   * the bulk lane is full, never call it for bulk work from the ZooKeeper event thread, whose
+   * callbacks give the slots back.
+   *
+   * <Chinese>
+   * 有空闲名额时立即发出操作，否则在其通道中排队。批量通道已满时阻塞，不要在zk事件线程上发出批量操作，
+   * 名额是由该线程上的回调归还的。
+   *
+   * @param lane      优先级通道
+   * @param operation Issues one asynchronous call with a wrapped callback./发出一个回调已包装的异步调用
+   * @throws RejectedExecutionException Interrupted while waiting for room in the bulk lane./等待批量通道空间时被中断
+   */
+  public void issue(OperationLane lane, Runnable operation) {
+    synchronized (this) {
+      ArrayDeque<Runnable> queue = lanes.get(lane.ordinal());
+      while (lane == OperationLane.BULK && inFlight >= maxInFlight
+          && queue.size() >= maxQueuedBulk) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException("interrupted while the bulk lane is full", e);
+        }
+      }
+      if (inFlight >= maxInFlight) {
+        queue.addLast(operation);
+        peakQueued = Math.max(peakQueued, queued());
+        return;
+      }
+      inFlight++;
+      issued++;
+    }
+    run(operation);
+  }
+
+  /**
+   * <English>
+   * An operation completed, hand its slot to the next waiting operation.
+   *
+   * <Chinese>
+   * 一个操作已完成，把它的名额交给下一个等待的操作。
+   */
+  public void done() {
+    Runnable next = null;
+    synchronized (this) {
+      for (ArrayDeque<Runnable> lane : lanes) {
+        next = lane.pollFirst();
+        if (next != null) {
+          issued++;
+          if (lane == lanes.get(OperationLane.BULK.ordinal())) {
+            // Room for a blocked producer
+            notifyAll();
+          }
+          break;
+        }
+      }
+      if (next == null) {
+        inFlight--;
+        return;
+      }
+    }
+    run(next);
+  }
+
+  public StringCallback wrapString(StringCallback callback) {
+    return (rc, path, ctx, name) -> {
+      done();
+      callback.processResult(rc, path, ctx, name);
+    };
+  }
+
+  public VoidCallback wrapVoid(VoidCallback callback) {
+    return (rc, path, ctx) -> {
+      done();
+      callback.processResult(rc, path, ctx);
+    };
+  }
+
+  public StatCallback wrapStat(StatCallback callback) {
+    return (rc, path, ctx, stat) -> {
+      done();
+      callback.processResult(rc, path, ctx, stat);
+    };
+  }
+
+  public ChildrenCallback wrapChildren(ChildrenCallback callback) {
+    return (rc, path, ctx, children) -> {
+      done();
+      callback.processResult(rc, path, ctx, children);
+    };
+  }
+
+  public MultiCallback wrapMulti(MultiCallback callback) {
+    return (rc, path, ctx, results) -> {
+      done();
+      callback.processResult(rc, path, ctx, results);
+    };
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public int getMaxQueuedBulk() {
+    return maxQueuedBulk;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Operations waiting for a slot in all lanes
+   */
+  public synchronized int getQueued() {
+    return queued();
+  }
+
+  public synchronized int getQueued(OperationLane lane) {
+    return lanes.get(lane.ordinal()).size();
+  }
+
+  public synchronized int getPeakQueued() {
+    return peakQueued;
+  }
+
+  public synchronized long getIssued() {
+    return issued;
+  }
+
+  private int queued() {
+    int total = 0;
+    for (ArrayDeque<Runnable> lane : lanes) {
+      total += lane.size();
+    }
+    return total;
+  }
+
+  private void run(Runnable operation) {
+    try {
+      operation.run();
+    } catch (RuntimeException e) {
+      // No callback will come to give the slot back
+      done();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package dowhat.is.right.zk;
+
+import lombok.Getter;
+
+/**
+ * <English>
+ * Priority lanes of ZooKeeper operations waiting for an in-flight slot, in the order they are
+ * served.
+ *
+ * <Chinese>
+ * 等待在途名额的zk操作的优先级通道，按服务顺序排列。
+ *
+ * @author 杨春炼
+ * @since 2020-05-16
+ */
+public enum OperationLane {
+  RELEASE("释放和移交锁"),
+  ACQUIRE("获取锁"),
+  BULK("批量刷新和重新同步");
+
+  @Getter
+  private String des;
+
+  OperationLane(String des) {
+    this.des = des;
+  }
+}
@@ -0,0 +1,194 @@
+package dowhat.is.right.zk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <English>
+ * Replays the operations of primitives interrupted by disconnection, or resurrects them after
+ * session expiry, at a limited rate once the session connects again.
+ * <p>
+ * Firing every pending operation at once would flood the server we just reconnected to, so they
+ * are released in small batches, highest restart priority first (lock waiters before cache
+ * refreshes), and each runs on the dispatch stripe of its primitive. Replay pauses when the session
+ * disconnects again, and resumes on the next connection.
+ *
+ * <Chinese>
+ * 会话重新连接后，按限定的速率重放因断开连接而中断的原语操作，或复活会话过期后的原语。
+ * <p>
+ * 一次性触发所有等待中的操作会冲垮刚重连的服务端，所以分小批放行，重启优先级高的先执行（锁等待者先于缓存刷新），
+ * 每个操作在其原语的分发线程上执行。会话再次断开时暂停重放，下次连接后继续。
+ *
+ * @author 杨春炼
+ * @since 2020-05-14
+ */
+public class RestartScheduler {
+
+  //每批之间的间隔（毫秒）
+  private static final int TICK_MILLIS = 10;
+  //会话
+  private final ZkSessionManager session;
+  //调度线程池
+  private final ScheduledExecutorService executor;
+  //待重启的原语，按优先级排序
+  private final PriorityBlockingQueue<Restart> queue;
+  //是否正在按节奏放行
+  private final AtomicBoolean pacing = new AtomicBoolean();
+  //入队序号，保证同优先级先进先出
+  private final AtomicLong sequence = new AtomicLong();
+  //已重放的操作个数
+  private final LongAdder replayed = new LongAdder();
+  //每秒放行的操作个数
+  private volatile int ratePerSecond;
+
+  RestartScheduler(ZkSessionManager session, ScheduledExecutorService executor,
+      int ratePerSecond) {
+    this.session = session;
+    this.executor = executor;
+    queue = new PriorityBlockingQueue<>();
+    setRatePerSecond(ratePerSecond);
+  }
+
+  /**
+   * <English>
+   * Change how many operations are replayed per second.
+   *
+   * <Chinese>
+   * 修改每秒重放的操作个数。
+   *
+   * @param ratePerSecond 每秒放行的操作个数
+   */
+  public void setRatePerSecond(int ratePerSecond) {
+    if (ratePerSecond < 1) {
+      throw new IllegalArgumentException("rate must be greater than or equals to 1");
+    }
+    this.ratePerSecond = ratePerSecond;
+  }
+
+  public int getRatePerSecond() {
+    return ratePerSecond;
+  }
+
+  /**
+   * Operations waiting to be replayed
+   */
+  public int getPending() {
+    return queue.size();
+  }
+
+  public long getReplayed() {
+    return replayed.sum();
+  }
+
+  /**
+   * <English>
+   * Queue the pending operation of a primitive for replay.
+   *
+   * <Chinese>
+   * 把原语等待中的操作排队重放。
+   *
+   * @param primitive 原语
+   * @param resurrect Resynchronize the primitive instead of running its pending operation./是否复活原语
+   */
+  void submit(ZkSyncPrimitive primitive, boolean resurrect) {
+    queue.add(new Restart(primitive, resurrect, sequence.getAndIncrement()));
+  }
+
+  /**
+   * <English>
+   * Start releasing the queued operations, e.g. after connection.
+   *
+   * <Chinese>
+   * 开始放行排队中的操作，比如连接成功后。
+   */
+  void start() {
+    if (!queue.isEmpty() && pacing.compareAndSet(false, true)) {
+      executor.execute(this::tick);
+    }
+  }
+
+  /**
+   * <English>
+   * Take the operations which were not replayed yet, e.g. when the session expires.
+   *
+   * <Chinese>
+   * 取出还未重放的操作，比如会话过期时。
+   *
+   * @return primitives and whether each was to be resurrected
+   */
+  List<Restart> drain() {
+    List<Restart> restarts = new ArrayList<>(queue.size());
+    queue.drainTo(restarts);
+    return restarts;
+  }
+
+  private void tick() {
+    if (session.isShutdown()) {
+      pacing.set(false);
+      return;
+    }
+    int batch = Math.max(1, ratePerSecond * TICK_MILLIS / 1000);
+    for (int i = 0; i < batch && session.isConnectedNow(); i++) {
+      Restart restart = queue.poll();
+      if (restart == null) {
+        break;
+      }
+      replayed.increment();
+      session.dispatch(restart.primitive, restart::run);
+    }
+    if (!queue.isEmpty() && session.isConnectedNow()) {
+      executor.schedule(this::tick, TICK_MILLIS, TimeUnit.MILLISECONDS);
+      return;
+    }
+    pacing.set(false);
+    // Operations queued, or a connection made, while we were stopping
+    if (session.isConnectedNow()) {
+      start();
+    }
+  }
+
+  /**
+   * A primitive waiting to be restarted
+   */
+  static final class Restart implements Comparable<Restart> {
+
+    final ZkSyncPrimitive primitive;
+    final boolean resurrect;
+    private final int priority;
+    private final long seq;
+
+    private Restart(ZkSyncPrimitive primitive, boolean resurrect, long seq) {
+      this.primitive = primitive;
+      this.resurrect = resurrect;
+      this.priority = primitive.getRestartPriority();
+      this.seq = seq;
+    }
+
+    private void run() {
+      if (resurrect) {
+        primitive.zkClient = primitive.session().zkClient;
+        primitive.resynchronize();
+        return;
+      }
+      Runnable retryOnConnect = primitive.retryOnConnect;
+      primitive.retryOnConnect = null;// this may be re-assigned by running if disconnect again.
+      if (retryOnConnect != null) {
+        retryOnConnect.run();
+      }
+    }
+
+    @Override
+    public int compareTo(Restart other) {
+      if (priority != other.priority) {
+        return Integer.compare(other.priority, priority);
+      }
+      return Long.compare(seq, other.seq);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package dowhat.is.right.zk;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <English>
+ * Schedules retries of failed primitive operations of a session.
+ * <p>
+ * Delays come from a pluggable backoff policy. The session also has a retry budget, a token bucket
+ * refilled at a fixed rate: once it is used up, retries are not dropped but pushed back to the
+ * policy's maximum delay, so a retry storm can't keep hammering a struggling ensemble.
+ *
+ * <Chinese>
+ * 调度会话中失败的原语操作的重试。
+ * <p>
+ * 延迟由可替换的退避策略决定。会话还有一个重试预算（按固定速率补充的令牌桶）：用完后重试不会被丢弃，而是推迟到策略的最大延迟，
+ * 避免重试风暴持续冲击已经吃力的集群。
+ *
+ * @author 杨春炼
+ * @since 2020-05-12
+ */
+public class RetryScheduler {
+
+  //执行重试的线程池
+  private final ScheduledExecutorService executor;
+  //退避策略
+  private volatile IBackoffPolicy backoffPolicy;
+  //预算上限（次）
+  private final int budgetCapacity;
+  //每秒补充的预算（次）
+  private final double budgetPerSecond;
+  //剩余预算（在this锁内访问）
+  private double budget;
+  //上次补充预算的时间（System.nanoTime，在this锁内访问）
+  private long lastRefill;
+  //已调度的重试次数
+  private final LongAdder scheduled = new LongAdder();
+  //预算用完的重试次数
+  private final LongAdder budgetExhausted = new LongAdder();
+  //总延迟（毫秒）
+  private final LongAdder totalDelayMillis = new LongAdder();
+  //等待执行的重试个数
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * @param executor        The executor that runs the retries./执行重试的线程池
+   * @param backoffPolicy   退避策略
+   * @param budgetCapacity  Retries allowed in a burst./允许突发的重试次数
+   * @param budgetPerSecond Retries allowed per second after the burst./突发之后每秒允许的重试次数
+   */
+  public RetryScheduler(ScheduledExecutorService executor, IBackoffPolicy backoffPolicy,
+      int budgetCapacity, double budgetPerSecond) {
+    if (budgetCapacity < 1 || budgetPerSecond <= 0) {
+      throw new IllegalArgumentException("retry budget must be positive");
+    }
+    this.executor = executor;
+    this.backoffPolicy = backoffPolicy;
+    this.budgetCapacity = budgetCapacity;
+    this.budgetPerSecond = budgetPerSecond;
+    budget = budgetCapacity;
+    lastRefill = System.nanoTime();
+  }
+
+  /**
+   * <English>
+   * Schedule a retry of an operation.
+   *
+   * <Chinese>
+   * 调度一次操作重试。
+   *
+   * @param operation     task
+   * @param retries       Retries of the operation so far./已重试次数
+   * @param previousDelay Delay before the previous retry, 0 for the first retry./上次重试的延迟
+   * @return The delay chosen, to pass as previous delay of the next retry./本次延迟（毫秒）
+   */
+  public long schedule(Runnable operation, int retries, long previousDelay) {
+    IBackoffPolicy policy = backoffPolicy;
+    long delay;
+    if (takeBudget()) {
+      delay = policy.getDelayMillis(retries, previousDelay);
+    } else {
+      delay = policy.getMaxDelayMillis();
+      budgetExhausted.increment();
+    }
+    scheduled.increment();
+    totalDelayMillis.add(delay);
+    pending.incrementAndGet();
+    executor.schedule(() -> {
+      pending.decrementAndGet();
+      operation.run();
+    }, delay, TimeUnit.MILLISECONDS);
+    return delay;
+  }
+
+  public void setBackoffPolicy(IBackoffPolicy backoffPolicy) {
+    this.backoffPolicy = backoffPolicy;
+  }
+
+  public IBackoffPolicy getBackoffPolicy() {
+    return backoffPolicy;
+  }
+
+  public long getScheduled() {
+    return scheduled.sum();
+  }
+
+  public long getBudgetExhausted() {
+    return budgetExhausted.sum();
+  }
+
+  public long getTotalDelayMillis() {
+    return totalDelayMillis.sum();
+  }
+
+  public int getPending() {
+    return pending.get();
+  }
+
+  /**
+   * Retry budget left right now
+   */
+  public synchronized double getBudget() {
+    refill();
+    return budget;
+  }
+
+  @Override
+  public String toString() {
+    return "RetryScheduler{scheduled=" + getScheduled() + ", budgetExhausted="
+        + getBudgetExhausted() + ", totalDelayMillis=" + getTotalDelayMillis() + ", pending="
+        + getPending() + '}';
+  }
+
+  private synchronized boolean takeBudget() {
+    refill();
+    if (budget < 1) {
+      return false;
+    }
+    budget--;
+    return true;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    budget = Math.min(budgetCapacity, budget + (now - lastRefill) / 1e9 * budgetPerSecond);
+    lastRefill = now;
+  }
+}
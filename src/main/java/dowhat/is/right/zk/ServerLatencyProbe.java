@@ -0,0 +1,208 @@
+package dowhat.is.right.zk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <English>
+ * Measures the round trip time to each server of a connect string, and picks the fastest servers.
+ * <p>
+ * The ZooKeeper client shuffles the servers of its connect string, so ordering them does not steer
+ * the connection. <code>selectFastest()</code> narrows the connect string down to the fastest tier
+ * instead, and the session falls back to the whole connect string if it cannot connect to that tier
+ * or loses its connection. Each server is timed by connecting and sending the four letter word
+ * <code>ruok</code>. Servers that don't allow the command are timed by the connection alone.
+ *
+ * <Chinese>
+ * 测量到连接串中每个服务端的往返时间，并选出最快的服务端。
+ * <p>
+ * zk客户端会打乱连接串中服务端的顺序，所以排序无法决定连接到哪个服务端。<code>selectFastest()</code>
+ * 把连接串缩小到最快的一档服务端，如果连不上这些服务端或者断开连接，会话退回到完整的连接串。
+ * 每个服务端的计时方式是建立连接并发送四字命令<code>ruok</code>，不允许该命令的服务端只按建立连接计时。
+ *
+ * @author 杨春炼
+ * @since 2020-05-17
+ */
+public class ServerLatencyProbe {
+
+  private static final byte[] RUOK = "ruok".getBytes(StandardCharsets.US_ASCII);
+  //单个服务端的探测超时（毫秒）
+  private final int timeoutMillis;
+  //最快的一档包括延迟在最快服务端多少倍以内的服务端
+  private final double tierFactor;
+
+  public ServerLatencyProbe() {
+    this(1000);
+  }
+
+  /**
+   * @param timeoutMillis Probe timeout of a server./单个服务端的探测超时（毫秒）
+   */
+  public ServerLatencyProbe(int timeoutMillis) {
+    this(timeoutMillis, 2.0);
+  }
+
+  /**
+   * @param timeoutMillis Probe timeout of a server./单个服务端的探测超时（毫秒）
+   * @param tierFactor    The fastest tier takes servers up to this many times slower than the
+   *                      fastest./最快的一档包括延迟在最快服务端多少倍以内的服务端
+   */
+  public ServerLatencyProbe(int timeoutMillis, double tierFactor) {
+    if (timeoutMillis < 1 || tierFactor < 1) {
+      throw new IllegalArgumentException("invalid probe settings");
+    }
+    this.timeoutMillis = timeoutMillis;
+    this.tierFactor = tierFactor;
+  }
+
+  /**
+   * <English>
+   * Probe the servers of a connect string and order them fastest first, unreachable servers last.
+   * No server is dropped.
+   *
+   * <Chinese>
+   * 探测连接串中的服务端，按从快到慢排序，不可达的服务端排在最后。不会去掉任何服务端。
+   *
+   * @param connectString "host1:port1,host2:port2[/chroot]"
+   * @return connect string of all the servers, in order of latency
+   */
+  public String select(String connectString) {
+    int chrootIdx = connectString.indexOf('/');
+    String servers = chrootIdx == -1 ? connectString : connectString.substring(0, chrootIdx);
+    String chroot = chrootIdx == -1 ? "" : connectString.substring(chrootIdx);
+    List<Latency> latencies = probe(servers.split(","));
+    // Stable, so unreachable servers keep their original order at the end
+    latencies.sort(Comparator.comparingLong(latency -> latency.nanos));
+    StringBuilder selected = new StringBuilder();
+    for (Latency latency : latencies) {
+      if (selected.length() > 0) {
+        selected.append(',');
+      }
+      selected.append(latency.server);
+    }
+    return selected.append(chroot).toString();
+  }
+
+  /**
+   * <English>
+   * Probe the servers of a connect string and keep the fastest tier only, for the first connection
+   * of a session. If no server answers, the connect string is returned unchanged.
+   *
+   * <Chinese>
+   * 探测连接串中的服务端，只保留最快的一档，用于会话的第一次连接。如果没有服务端响应，原样返回连接串。
+   *
+   * @param connectString "host1:port1,host2:port2[/chroot]"
+   * @return connect string of the fastest servers
+   */
+  public String selectFastest(String connectString) {
+    int chrootIdx = connectString.indexOf('/');
+    String servers = chrootIdx == -1 ? connectString : connectString.substring(0, chrootIdx);
+    String chroot = chrootIdx == -1 ? "" : connectString.substring(chrootIdx);
+    List<Latency> latencies = probe(servers.split(","));
+    latencies.removeIf(latency -> latency.nanos == Long.MAX_VALUE);
+    if (latencies.isEmpty()) {
+      return connectString;
+    }
+    latencies.sort(Comparator.comparingLong(latency -> latency.nanos));
+    // A little absolute slack, so sub-millisecond noise between local servers doesn't split them
+    long limit = Math.max((long) (latencies.get(0).nanos * tierFactor),
+        latencies.get(0).nanos + 2_000_000);
+    StringBuilder selected = new StringBuilder();
+    for (Latency latency : latencies) {
+      if (latency.nanos > limit) {
+        break;
+      }
+      if (selected.length() > 0) {
+        selected.append(',');
+      }
+      selected.append(latency.server);
+    }
+    return selected.append(chroot).toString();
+  }
+
+  /**
+   * <English>
+   * Time each server in parallel.
+   *
+   * <Chinese>
+   * 并行测量每个服务端。
+   *
+   * @param servers "host:port"
+   * @return latency of each server, <code>Long.MAX_VALUE</code> nanoseconds if unreachable
+   */
+  public List<Latency> probe(String[] servers) {
+    ExecutorService executor = Executors.newFixedThreadPool(servers.length, runnable -> {
+      Thread thread = new Thread(runnable, "zk-latency-probe");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<CompletableFuture<Latency>> futures = new ArrayList<>(servers.length);
+      for (String server : servers) {
+        String trimmed = server.trim();
+        futures.add(CompletableFuture.supplyAsync(
+            () -> new Latency(trimmed, probe(trimmed)), executor));
+      }
+      List<Latency> latencies = new ArrayList<>(servers.length);
+      for (CompletableFuture<Latency> future : futures) {
+        latencies.add(future.join());
+      }
+      return latencies;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long probe(String server) {
+    int portIdx = server.lastIndexOf(':');
+    String host = portIdx == -1 ? server : server.substring(0, portIdx);
+    int port = portIdx == -1 ? 2181 : Integer.parseInt(server.substring(portIdx + 1));
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);//IPv6
+    }
+    long start = System.nanoTime();
+    try (Socket socket = new Socket()) {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(timeoutMillis);
+      socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+      OutputStream out = socket.getOutputStream();
+      out.write(RUOK);
+      out.flush();
+      InputStream in = socket.getInputStream();
+      // "imok", or the connection closed if four letter words are not allowed
+      in.read();
+      return System.nanoTime() - start;
+    } catch (IOException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Round trip time of a server
+   */
+  public static final class Latency {
+
+    public final String server;
+    public final long nanos;
+
+    Latency(String server, long nanos) {
+      this.server = server;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+      return server + "=" + (nanos == Long.MAX_VALUE ? "unreachable" : nanos / 1000 + "us");
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package dowhat.is.right.zk;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
 import org.apache.zookeeper.AsyncCallback.StringCallback;
@@ -47,26 +49,51 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
    */
   private String[] myContribution;
   private int myEntryIdx;
+  /**
+   * Whether creating our entries waits for a read-write session, while the set is refreshed from a
+   * read-only server
+   */
+  private volatile boolean contributionDeferred;
+  /**
+   * When the set was last read from the server (System.currentTimeMillis), 0 if never
+   */
+  private volatile long lastRefreshMillis;
+  /**
+   * Reads of the set started and not completed yet, retries included (accessed under refreshWaiters)
+   */
+  private int refreshesPending;
+  /**
+   * Linearizable reads waiting for the reads of the set in progress
+   */
+  private final List<CompletableFuture<Set<String>>> refreshWaiters = new ArrayList<>();
   private StringCallback entryNodeCreatorResultHandler = new StringCallback() {
 
     @Override
     public void processResult(int rc, String path, Object ctx, String name) {
       // In respect to the entry we tried to add, record whether we made the contribution, or another instance
-      recordCreationResult(name, Code.get(rc));
+      recordCreationResult(path.substring(path.lastIndexOf('/') + 1), Code.get(rc));
+      if (rc == Code.OK.intValue()) {
+        ownEphemeral(path, true);
+      }
       // Execute next step
-      if (passOrTryRepeat(rc, new Code[]{Code.OK, Code.NODEEXISTS}, (Runnable) ctx)) {
+      if (passOrTryRepeat(rc, PASS_OK_OR_NODEEXISTS, (Runnable) ctx)) {
+        myEntryIdx++;
         entryNodeCreator.run();
       }
     }
 
   };
+  private final StringCallback entryNodeCreatorResultCallback =
+      wrapString(entryNodeCreatorResultHandler);
   private ChildrenCallback entriesRequestorResultHandler = new ChildrenCallback() {
 
     @Override
     public void processResult(int rc, String path, Object ctx, List<String> children) {
-      if (passOrTryRepeat(rc, new Code[]{Code.OK}, (Runnable) ctx)) {
+      if (passOrTryRepeat(rc, PASS_OK, (Runnable) ctx)) {
         HashSet<String> modifiableSet = new HashSet<String>(children);
         set = Collections.unmodifiableSet(modifiableSet);
+        lastRefreshMillis = System.currentTimeMillis();
+        refreshed();
         onStateUpdated();
       }
     }
@@ -75,21 +102,30 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
   private Runnable entriesRequestor = new Runnable() {
     @Override
     public void run() {
-      zkClient()
-          .getChildren(rootPath, ZkContributedKeySet.this, entriesRequestorResultHandler, this);
+      watchChildren(OperationLane.BULK, rootPath, entriesRequestorResultHandler, this);
     }
   };
   private Runnable entryNodeCreator = new Runnable() {
 
     @Override
     public void run() {
-      if (myEntryIdx < myContribution.length) {
-        String entryPath = rootPath + "/" + myContribution[myEntryIdx++];
-        zkClient()
+      if (myEntryIdx < myContribution.length && session().isReadOnly()) {
+        // Only reads are served during a partition, create our entries once read-write again
+        contributionDeferred = true;
+        requestEntries();
+      } else if (myEntryIdx < myContribution.length) {
+        String entry = myContribution[myEntryIdx];
+        String entryPath = rootPath + "/" + entry;
+        if (adoptOrphan(rootPath, entry::equals) != null) {
+          // Our entry from before the restart is still there
+          entryNodeCreatorResultHandler.processResult(Code.OK.intValue(), entryPath, this, entryPath);
+          return;
+        }
+        issue(OperationLane.BULK, () -> zkClient()
             .create(entryPath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL,
-                entryNodeCreatorResultHandler, this);
+                entryNodeCreatorResultCallback, this));
       } else {
-        entriesRequestor.run();
+        requestEntries();
       }
     }
 
@@ -101,22 +137,39 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
    * disconnects from ZooKeeper, then all the entries they created will be automatically deleted.
    * This makes a contributed set useful for scenarios such as cluster node management.
    *
-   * @param session    The ZooKeeper session manager
-   * @param path       The path uniquely identifying the distributed set
-   * @param myEntries  Entries that we wish to add to the set, while our ZooKeeper session is
-   *                   active
-   * @param allowDirty Whether the set should try to recover from a "dead" state and continue
-   *                   showing "dirty" values while unsynchronized (session expired)
+   * @param path                 The path uniquely identifying the distributed set
+   * @param myContribution       Entries that we wish to add to the set, while our ZooKeeper
+   *                             session is active
+   * @param resurrectAfterExpiry Whether the set should try to recover from a "dead" state and
+   *                             continue showing "dirty" values while unsynchronized (session
+   *                             expired)
    */
   public ZkContributedKeySet(String path, String[] myContribution, boolean resurrectAfterExpiry) {
-    super(ZkSessionManager.instance());
+    this(ZkSessionManager.instance(path), path, myContribution, resurrectAfterExpiry);
+  }
+
+  /**
+   * Maintains the contents of a contributed set within a given session.
+   *
+   * @param session              The ZooKeeper session manager
+   * @param path                 The path uniquely identifying the distributed set
+   * @param myContribution       Entries that we wish to add to the set, while our ZooKeeper
+   *                             session is active
+   * @param resurrectAfterExpiry Whether the set should try to recover from a "dead" state and
+   *                             continue showing "dirty" values while unsynchronized (session
+   *                             expired)
+   */
+  public ZkContributedKeySet(ZkSessionManager session, String path, String[] myContribution,
+      boolean resurrectAfterExpiry) {
+    super(session);
     this.set = new HashSet<String>();
     this.successfulContributions = new ConcurrentHashMap<String, Boolean>();
     this.failedContributions = new ConcurrentHashMap<String, Boolean>();
     this.rootPath = path;
     this.resurrectAfterExpiry = resurrectAfterExpiry;
     this.myContribution = myContribution;
-    resynchronize();
+    watchConnection(true);
+    runWhenConnected(this::resynchronize);
   }
 
   /**
@@ -129,6 +182,49 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
     return set;
   }
 
+  /**
+   * Whether the key set may be out of date: it is read from a read-only server during a partition,
+   * or we are disconnected from ZooKeeper
+   *
+   * @return whether the key set may be stale
+   */
+  public boolean isStale() {
+    return session().isReadOnly() || !session().isConnected();
+  }
+
+  /**
+   * Linearizable read of the set: it reflects every change completed before this call. Concurrent
+   * readers share one sync with the server, and are served from the cached set unless a change
+   * notification is still being read.
+   *
+   * @return the set of all the entries, or fails with a ZkException
+   */
+  public CompletableFuture<Set<String>> getKeySetLinearizable() {
+    return session().readBarrier(rootPath).thenCompose(synced -> {
+      CompletableFuture<Set<String>> result = new CompletableFuture<>();
+      // Change notifications received before the sync completed are handled before this runs
+      session().dispatch(this, () -> {
+        synchronized (refreshWaiters) {
+          if (refreshesPending == 0) {
+            result.complete(set);
+          } else {
+            refreshWaiters.add(result);
+          }
+        }
+      });
+      return result;
+    });
+  }
+
+  /**
+   * When the key set was last read from the server
+   *
+   * @return milliseconds since the epoch, 0 if never read
+   */
+  public long getLastRefreshMillis() {
+    return lastRefreshMillis;
+  }
+
   /**
    * A list of entries that we contributed, and which will be removed when our session to ZooKeeper
    * is closed or expires
@@ -175,6 +271,7 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
 
       // Delete obsolete entries
       for (String entry : myObsoleteEntries) {
+        ownEphemeral(rootPath + "/" + entry, false);
         zkClient().delete(rootPath + "/" + entry, -1);
         successfulContributions.remove(entry);
       }
@@ -184,6 +281,7 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
           zkClient().create(rootPath + "/" + entry, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE,
               CreateMode.EPHEMERAL);
           recordCreationResult(entry, Code.OK);
+          ownEphemeral(rootPath + "/" + entry, true);
         } catch (KeeperException ex) {
           recordCreationResult(entry, ex.code());
         }
@@ -209,10 +307,61 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
     entryNodeCreator.run();
   }
 
+  @Override
+  protected void onDie(ZkException killerException) {
+    List<CompletableFuture<Set<String>>> waiters;
+    synchronized (refreshWaiters) {
+      waiters = new ArrayList<>(refreshWaiters);
+      refreshWaiters.clear();
+    }
+    for (CompletableFuture<Set<String>> waiter : waiters) {
+      waiter.completeExceptionally(killerException);
+    }
+  }
+
+  @Override
+  protected void onConnected() {
+    // Read-write again, create the entries deferred while read-only
+    if (contributionDeferred) {
+      contributionDeferred = false;
+      entryNodeCreator.run();
+    }
+  }
+
   @Override
   protected void onNodeChildrenChanged(String path) {
     synchronized (this) { // so that we see result of adjustMyContribution() in a single stage
-      entriesRequestor.run();
+      requestEntries();
+    }
+  }
+
+  /**
+   * Start reading the set, retries of the read don't count again
+   */
+  private void requestEntries() {
+    synchronized (refreshWaiters) {
+      refreshesPending++;
+    }
+    entriesRequestor.run();
+  }
+
+  /**
+   * A read of the set completed, serve the linearizable reads once none is left
+   */
+  private void refreshed() {
+    List<CompletableFuture<Set<String>>> waiters;
+    synchronized (refreshWaiters) {
+      if (refreshesPending > 0) {
+        refreshesPending--;
+      }
+      if (refreshesPending > 0 || refreshWaiters.isEmpty()) {
+        return;
+      }
+      waiters = new ArrayList<>(refreshWaiters);
+      refreshWaiters.clear();
+    }
+    for (CompletableFuture<Set<String>> waiter : waiters) {
+      waiter.complete(set);
     }
   }
 
@@ -220,7 +369,7 @@ public class ZkContributedKeySet extends ZkSyncPrimitive {
     if (rc == Code.OK) {
       successfulContributions.put(entryName, true);
     } else if (rc == Code.NODEEXISTS) {
-      if (!successfulContributions.contains(entryName)) {
+      if (!successfulContributions.containsKey(entryName)) {
         failedContributions.put(entryName, true);
       }
     }
@@ -0,0 +1,77 @@
+package dowhat.is.right.zk;
+
+import dowhat.is.right.networking.utility.ConsistentHashRing;
+
+/**
+ * <English>
+ * Shards primitives over several independent ZooKeeper ensembles.
+ * <p>
+ * Paths are mapped onto ensembles by a consistent hash ring, so write throughput scales with the
+ * number of ensembles, and adding an ensemble only moves about 1/N of the paths. Each ensemble is
+ * itself a router: a single session, or a session pool.
+ * <p>
+ * All processes sharing lock paths must use the same ensembles with the same names. A path that
+ * moves to another ensemble is a different lock, so only change the ensembles while the moved
+ * paths are not in use.
+ *
+ * <Chinese>
+ * 把原语分片到多个独立的zk集群。
+ * <p>
+ * 通过一致性哈希环把路径映射到集群上，写吞吐随集群数量增长，增加一个集群只会移动大约1/N的路径。
+ * 每个集群本身也是一个路由：单个会话或者会话池。
+ * <p>
+ * 共享锁路径的所有进程必须使用相同名字的相同集群。路径移动到另一个集群后就是另一把锁，所以只能在被移动的路径不再使用时调整集群。
+ *
+ * @author 杨春炼
+ * @since 2020-05-11
+ */
+public class ZkEnsembleRouter implements IZkSessionRouter {
+
+  private static final int VIRTUAL_NODES = 160;
+  private final ConsistentHashRing<IZkSessionRouter> ring;
+
+  public ZkEnsembleRouter() {
+    ring = new ConsistentHashRing<>(VIRTUAL_NODES);
+  }
+
+  /**
+   * <English>
+   * Add an ensemble, or replace the sessions of an ensemble with the same name.
+   *
+   * <Chinese>
+   * 增加集群；名字相同时替换该集群的会话。
+   *
+   * @param name     Stable name of the ensemble, the same in all processes./集群的固定名字，所有进程相同
+   * @param sessions A session or pool connected to the ensemble./连接该集群的会话或会话池
+   * @return this, for chaining
+   */
+  public ZkEnsembleRouter addEnsemble(String name, IZkSessionRouter sessions) {
+    ring.add(name, sessions);
+    return this;
+  }
+
+  /**
+   * <English>
+   * Remove an ensemble, its paths move to the remaining ensembles.
+   *
+   * <Chinese>
+   * 删除集群，它的路径转移到其他集群。
+   *
+   * @param name ensemble name
+   */
+  public void removeEnsemble(String name) {
+    ring.remove(name);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ZkSessionManager route(String path) {
+    IZkSessionRouter ensemble = ring.get(path);
+    if (ensemble == null) {
+      throw new IllegalStateException("no ZooKeeper ensemble added");
+    }
+    return ensemble.route(path);
+  }
+}
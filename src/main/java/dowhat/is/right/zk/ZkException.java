@@ -30,6 +30,11 @@ public class ZkException extends Exception {
     this.error = error;
   }
 
+  public ZkException(Error error, Throwable cause) {
+    super(cause);
+    this.error = error;
+  }
+
   public Error getErrorCode() {
     return error;
   }
@@ -41,12 +46,14 @@ public class ZkException extends Exception {
   public enum Error {
     ZOOKEEPER_EXCEPTION("zk异常"),
     INTERRUPTED_EXCEPTION("中断异常"),
+    LOCK_ALREADY_RESERVED("锁已经被预约"),
     LOCK_ALREADY_WAITING("锁等待被获取"),
     LOCK_ALREADY_ABANDONED("锁已经被遗弃"),
     LOCK_ALREADY_ACQUIRED("锁已经被获取"),
     LOCK_ALREADY_RELEASED("锁已经被释放"),
     LOCK_RELEASED_WHILE_WAITING("锁在等待时释放"),
     MAX_ATTEMPTS_EXCEEDED("超出获取次数"),
+    BACKEND_EXCEPTION("锁后端异常"),
     UNKNOWN_ERROR("未知错误"),
     //
     ;
@@ -69,8 +69,10 @@ public class ZkPath extends ZkSyncPrimitive {
         }
         toCreatePath = currNodePath.toString();
       }
-      zkClient().create(
-          toCreatePath, new byte[0], Ids.OPEN_ACL_UNSAFE, createMode, createPathHandler, this);
+      String path = toCreatePath;
+      issue(OperationLane.ACQUIRE, () -> zkClient().create(
+          path, new byte[0], Ids.OPEN_ACL_UNSAFE, createMode, createPathCallback,
+          this));
     }
   };
 
@@ -91,19 +93,24 @@ public class ZkPath extends ZkSyncPrimitive {
       tryCreatePath.run();
     }
   };
+  private final StringCallback createPathCallback = wrapString(createPathHandler);
 
   ZkPath(String targetPath) {
     this(targetPath, CreateMode.PERSISTENT);
   }
 
   public ZkPath(String targetPath, CreateMode createMode) {
-    super(ZkSessionManager.instance());
+    this(ZkSessionManager.instance(targetPath), targetPath, createMode);
+  }
+
+  public ZkPath(ZkSessionManager session, String targetPath, CreateMode createMode) {
+    super(session);
     this.targetPath = targetPath;
     this.createMode = createMode;
     PathUtils.validatePath(targetPath);
     pathNodes = targetPath.split("/");
     pathNodesIdx = pathNodes.length;
-    tryCreatePath.run();
+    runWhenConnected(tryCreatePath);
   }
 
   public String getTargetPath() {
@@ -0,0 +1,143 @@
+package dowhat.is.right.zk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+
+/**
+ * <English>
+ * Read barriers for linearizable reads, coalesced behind one <code>sync()</code> per path prefix.
+ * <p>
+ * A barrier completes once the server we are connected to has caught up with the leader as of
+ * some moment after the barrier was requested, so reads made after it see every write completed
+ * before the request. A sync already in flight started too early to serve new requests, so they
+ * all wait for the one next sync, started as soon as the current one completes. However many
+ * requests arrive, at most two syncs per prefix are outstanding.
+ *
+ * <Chinese>
+ * 用于线性一致读的读屏障，每个路径前缀的请求合并到一个<code>sync()</code>上。
+ * <p>
+ * 屏障完成时，我们连接的服务端已经追上了请求屏障之后某一时刻的leader，所以之后的读能看到请求前完成的所有写。
+ * 已经在途的sync开始得太早，不能服务新的请求，所以新请求都等待下一个sync，它在当前sync完成后立即开始。
+ * 无论有多少请求，每个路径前缀最多有两个sync在途。
+ *
+ * @author 杨春炼
+ * @since 2020-05-18
+ */
+public class ZkReadBarrier {
+
+  //发出sync调用
+  private final BiConsumer<String, VoidCallback> syncer;
+  //每个路径前缀的屏障
+  private final ConcurrentHashMap<String, Barrier> barriers = new ConcurrentHashMap<>();
+  //屏障请求个数
+  private final LongAdder requests = new LongAdder();
+  //发出的sync个数
+  private final LongAdder syncs = new LongAdder();
+
+  /**
+   * @param syncer Issues a sync of a path, calling back once it completed./发出路径的sync，完成后回调
+   */
+  ZkReadBarrier(BiConsumer<String, VoidCallback> syncer) {
+    this.syncer = syncer;
+  }
+
+  /**
+   * <English>
+   * Request a read barrier on a path prefix.
+   *
+   * <Chinese>
+   * 请求路径前缀上的读屏障。
+   *
+   * @param path 路径前缀
+   * @return Completes when reads are linearizable, or fails with a ZkException./读线性一致时完成
+   */
+  public CompletableFuture<Void> sync(String path) {
+    requests.increment();
+    while (true) {
+      Barrier barrier = barriers.computeIfAbsent(path, Barrier::new);
+      CompletableFuture<Void> result = barrier.join();
+      if (result != null) {
+        return result;
+      }
+      // The barrier went idle and was removed meanwhile, use a new one
+    }
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getSyncs() {
+    return syncs.sum();
+  }
+
+  /**
+   * Syncs of a path prefix
+   */
+  private final class Barrier implements VoidCallback {
+
+    private final String path;
+    //在途的sync
+    private CompletableFuture<Void> inFlight;
+    //当前sync完成后开始的sync
+    private CompletableFuture<Void> next;
+    //已空闲并被移除
+    private boolean removed;
+
+    private Barrier(String path) {
+      this.path = path;
+    }
+
+    private CompletableFuture<Void> join() {
+      CompletableFuture<Void> result;
+      synchronized (this) {
+        if (removed) {
+          return null;
+        }
+        if (inFlight != null) {
+          if (next == null) {
+            next = new CompletableFuture<>();
+          }
+          return next;
+        }
+        result = inFlight = new CompletableFuture<>();
+      }
+      issue();
+      return result;
+    }
+
+    private void issue() {
+      syncs.increment();
+      syncer.accept(path, this);
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx) {
+      CompletableFuture<Void> done;
+      boolean more;
+      synchronized (this) {
+        done = inFlight;
+        inFlight = next;
+        next = null;
+        more = inFlight != null;
+        if (!more) {
+          removed = true;
+          barriers.remove(this.path, this);
+        }
+      }
+      if (more) {
+        issue();
+      }
+      if (rc == Code.OK.intValue()) {
+        done.complete(null);
+      } else {
+        done.completeExceptionally(new ZkException(KeeperException.create(Code.get(rc), path)));
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package dowhat.is.right.zk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * <English>
+ * Credentials of a detached ZooKeeper session saved to a local file, with the ephemeral nodes the
+ * session owned, so that the next JVM can reattach to the session before it times out.
+ *
+ * <Chinese>
+ * 保存到本地文件的已分离zk会话凭证，以及会话拥有的临时节点，下一个JVM可以在会话超时前重新接入该会话。
+ *
+ * @author 杨春炼
+ * @since 2020-05-15
+ */
+final class ZkSessionFile {
+
+  //会话id
+  final long sessionId;
+  //会话密码
+  final byte[] password;
+  //会话拥有的临时节点
+  final List<String> ephemerals;
+
+  private ZkSessionFile(long sessionId, byte[] password, List<String> ephemerals) {
+    this.sessionId = sessionId;
+    this.password = password;
+    this.ephemerals = ephemerals;
+  }
+
+  /**
+   * <English>
+   * Write the credentials atomically, readable by the owner only where the file system allows.
+   *
+   * <Chinese>
+   * 原子地写入凭证，文件系统支持时只有所有者可读。
+   */
+  static void store(Path file, String connectString, long sessionId, byte[] password,
+      int sessionTimeout, Collection<String> ephemerals) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("connectString", connectString);
+    properties.setProperty("sessionId", Long.toHexString(sessionId));
+    properties.setProperty("password", Base64.getEncoder().encodeToString(password));
+    properties.setProperty("sessionTimeout", Integer.toString(sessionTimeout));
+    properties.setProperty("savedAt", Long.toString(System.currentTimeMillis()));
+    int i = 0;
+    for (String ephemeral : ephemerals) {
+      properties.setProperty("ephemeral." + i++, ephemeral);
+    }
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    // Left by a crash, maybe with other permissions
+    Files.deleteIfExists(tmp);
+    try {
+      // Owner only from the start, the password is never readable by others
+      Files.createFile(tmp,
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException e) {
+      // Not a POSIX file system
+      Files.createFile(tmp);
+    }
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      properties.store(out, "ZooKeeper session");
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * <English>
+   * Read and delete the credentials, so they are used once only. Credentials of another ensemble,
+   * or older than the session timeout, are ignored.
+   *
+   * <Chinese>
+   * 读取并删除凭证，保证只使用一次。其他集群的凭证或者超过会话超时时间的凭证会被忽略。
+   *
+   * @return credentials, or null if there are none usable
+   */
+  static ZkSessionFile load(Path file, String connectString) {
+    if (file == null || !Files.exists(file)) {
+      return null;
+    }
+    Properties properties = new Properties();
+    try {
+      try (InputStream in = Files.newInputStream(file)) {
+        properties.load(in);
+      }
+      Files.delete(file);
+      long age =
+          System.currentTimeMillis() - Long.parseLong(properties.getProperty("savedAt"));
+      if (!connectString.equals(properties.getProperty("connectString"))
+          || age >= Integer.parseInt(properties.getProperty("sessionTimeout"))) {
+        return null;
+      }
+      List<String> ephemerals = new ArrayList<>();
+      for (int i = 0; properties.containsKey("ephemeral." + i); i++) {
+        ephemerals.add(properties.getProperty("ephemeral." + i));
+      }
+      return new ZkSessionFile(Long.parseUnsignedLong(properties.getProperty("sessionId"), 16),
+          Base64.getDecoder().decode(properties.getProperty("password")), ephemerals);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+}
@@ -1,21 +1,29 @@
 package dowhat.is.right.zk;
 
 import dowhat.is.right.concurrency.ManualResetEvent;
+import dowhat.is.right.concurrency.StripedExecutor;
+import dowhat.is.right.concurrency.VirtualThreads;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
-import org.apache.zookeeper.ZooKeeper;
 
 /**
  * {@link ZkSyncPrimitive}
@@ -33,48 +41,127 @@ import org.apache.zookeeper.ZooKeeper;
  * @author 杨春炼
  * @since 2020-04-03
  */
-public final class ZkSessionManager implements Watcher {
+public final class ZkSessionManager implements Watcher, IZkSessionRouter {
 
   private static ZkSessionManager instance;
+  //按路径选择会话，为空时所有原语使用instance
+  private static IZkSessionRouter router;
+  //创建会话前测量服务端延迟，先只连接最快的服务端，为空时使用完整的连接串
+  private static volatile ServerLatencyProbe latencyProbe;
+  //新会话是否允许连接只读服务端
+  private static volatile boolean readOnlyAllowed;
+  //新会话的回调和重试线程是否使用虚拟线程（Java 21及以上）
+  private static volatile boolean virtualThreadsPreferred;
+  //创建新会话的客户端，默认连接真实的zk集群
+  private static volatile IZkClientFactory clientFactory = ZooKeeperClient::new;
   //"host1:port1,host2:port2"
   private final String connectString;
+  //当前会话实际使用的连接串（只包含最快的服务端）
+  private volatile String activeConnectString;
   //整个会话是否启动的标识
   private final ManualResetEvent isConnected;
+  //第一次连接成功（或连接失败）时完成
+  private final CompletableFuture<ZkSessionManager> firstConnection;
   //线程池
   private final ExecutorService connectExecutor;
   //线程池
   private final ScheduledExecutorService callBackExecutor;
+  //原语操作的重试调度
+  private final RetryScheduler retryScheduler;
+  //按原语分片的事件分发，使监听器不在zk事件线程上执行
+  private final StripedExecutor eventDispatcher;
+  //在途异步操作的上限和优先级通道
+  private final InFlightGate inFlightGate = new InFlightGate(1000);
+  //合并sync的读屏障
+  private final ZkReadBarrier readBarrier = new ZkReadBarrier((path, callback) ->
+      inFlightGate.issue(OperationLane.ACQUIRE,
+          () -> this.zkClient.sync(path, inFlightGate.wrapVoid(callback), null)));
+  //原语之间共享的watch
+  private final ZkWatchMultiplexer watchMultiplexer = new ZkWatchMultiplexer(this);
+  //合并原语写操作的事务批次
+  private final ZkWriteBatcher writeBatcher;
   //互斥锁
-  private final Integer retryMutex = -1;
+  private final Object retryMutex = new Object();
   //超时时间
   private final int sessionTimeout;
   //zk客户端
-  volatile ZooKeeper zkClient;
+  volatile IZkClient zkClient;
   //是否关闭
   private volatile boolean shutdown;
+  //是否已连接
+  private volatile boolean connected;
+  //会话是否允许连接只读服务端
+  private final boolean canBeReadOnly;
+  //是否连接在只读服务端上
+  private volatile boolean readOnly;
   //当前复活原语列表
-  private Set<ZkSyncPrimitive> currResurrectList;
+  private final Set<ZkSyncPrimitive> currResurrectList = ConcurrentHashMap.newKeySet();
   //重启后需要重启的原语列表
-  private Set<ZkSyncPrimitive> currRestartOnConnectList;
+  private final Set<ZkSyncPrimitive> currRestartOnConnectList = ConcurrentHashMap.newKeySet();
+  //连接后按节奏重启原语
+  private final RestartScheduler restartScheduler;
+  //关注连接状态变化的原语列表
+  private Set<ZkSyncPrimitive> connectionWatchers;
+  //断开连接后，会话最晚可能过期的时间（System.nanoTime），连接正常时为0
+  private volatile long suspectDeadline;
   //最大连接重试次数
   private int maxConnectAttempts;
+  //会话过期次数
+  private final AtomicLong sessionExpiries = new AtomicLong();
+  //分离会话时保存凭证的文件，为空时不保存
+  private final Path sessionFile;
+  //上个JVM保存的凭证，第一次连接时使用
+  private volatile ZkSessionFile savedSession;
+  //原语创建的临时节点（只在有sessionFile时记录）
+  private final Set<String> ownedEphemerals = ConcurrentHashMap.newKeySet();
+  //重新接入会话后，还未被原语认领的临时节点
+  private final Set<String> orphanedEphemerals = ConcurrentHashMap.newKeySet();
+  //是否保持热备会话
+  private volatile boolean hotStandby;
+  //已连接的热备会话，会话过期时立即接替（只在retryMutex的锁内访问）
+  private Standby standby;
+  //热备会话接替过期会话的次数
+  private final AtomicLong standbyTakeovers = new AtomicLong();
   /**
    * 创建一个[zk client]线程
    */
-  private Callable<ZooKeeper> zkClientCreator = new Callable<ZooKeeper>() {
+  private Callable<IZkClient> zkClientCreator = new Callable<IZkClient>() {
     @Override
-    public ZooKeeper call() throws Exception {
+    public IZkClient call() throws Exception {
       int attempts = 0;
       int retryDelay = 50;
       while (true) {//return until connected or reach the max connect attempt
         try {
-          zkClient = new ZooKeeper(connectString, sessionTimeout, ZkSessionManager.this);
-          return zkClient;
+          ServerLatencyProbe probe = latencyProbe;
+          String servers = probe == null ? connectString : probe.selectFastest(connectString);
+          activeConnectString = servers;
+          // Hold the mutex so the connected event can't be handled before zkClient is assigned
+          synchronized (retryMutex) {
+            ZkSessionFile saved = savedSession;
+            savedSession = null;// only try to reattach once
+            IZkClientFactory factory = clientFactory;
+            if (saved != null) {
+              orphanedEphemerals.addAll(saved.ephemerals);
+              ownedEphemerals.addAll(saved.ephemerals);
+              zkClient = factory.newClient(servers, sessionTimeout, ZkSessionManager.this,
+                  saved.sessionId, saved.password, canBeReadOnly);
+            } else {
+              zkClient = factory.newClient(servers, sessionTimeout, ZkSessionManager.this,
+                  0, null, canBeReadOnly);
+            }
+            if (!servers.equals(connectString)) {
+              // Give up on the fastest servers if they don't let us connect soon
+              IZkClient narrowed = zkClient;
+              callBackExecutor.schedule(() -> fallBackToAllServers(narrowed), sessionTimeout / 3,
+                  TimeUnit.MILLISECONDS);
+            }
+            return zkClient;
+          }
         } catch (IOException e) {
           e.printStackTrace();
           attempts++;
           if (maxConnectAttempts != 0 && attempts >= maxConnectAttempts) {
-            throw (IOException) e.getCause();
+            throw e;
           }
           retryDelay *= 2;//double the connect time
           if (retryDelay > 7500) {
@@ -86,11 +173,61 @@ public final class ZkSessionManager implements Watcher {
     }
   };
 
+  /**
+   * 在后台创建一个热备会话
+   */
+  private Runnable standbyCreator = new Runnable() {
+    @Override
+    public void run() {
+      int retryDelay = 50;
+      while (hotStandby && !shutdown) {
+        synchronized (retryMutex) {
+          if (standby != null) {
+            return;
+          }
+        }
+        Standby candidate = new Standby();
+        try {
+          ServerLatencyProbe probe = latencyProbe;
+          candidate.servers = probe == null ? connectString : probe.selectFastest(connectString);
+          synchronized (retryMutex) {
+            // Assigned before its connected event can be handled
+            candidate.client = clientFactory.newClient(candidate.servers, sessionTimeout,
+                candidate, 0, null, canBeReadOnly);
+            if (!hotStandby || shutdown) {
+              candidate.client.close();
+              return;
+            }
+            standby = candidate;
+            return;
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        try {
+          Thread.sleep(retryDelay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        retryDelay = Math.min(retryDelay * 2, 7500);
+      }
+    }
+  };
+
   private ZkSessionManager(String connectString) {
     this(connectString, 6000, 5);
   }
 
   private ZkSessionManager(String connectString, int sessionTimeout, int maxConnectAttempts) {
+    this(connectString, sessionTimeout, maxConnectAttempts, null);
+  }
+
+  private ZkSessionManager(String connectString, int sessionTimeout, int maxConnectAttempts,
+      Path sessionFile) {
     if (maxConnectAttempts < 1) {
       throw new IllegalArgumentException(
           "max connect attempts must be greater than or equals to 1");
@@ -99,15 +236,38 @@ public final class ZkSessionManager implements Watcher {
     this.connectString = connectString;
     this.sessionTimeout = sessionTimeout;
     this.maxConnectAttempts = maxConnectAttempts;
+    this.sessionFile = sessionFile;
+    canBeReadOnly = readOnlyAllowed;
+    savedSession = ZkSessionFile.load(sessionFile, connectString);
     isConnected = new ManualResetEvent(false);
+    firstConnection = new CompletableFuture<>();
     //一般机器为8核心
-    callBackExecutor = Executors.newScheduledThreadPool(8);
+    callBackExecutor = virtualThreadsPreferred && VirtualThreads.isSupported()
+        ? Executors.newScheduledThreadPool(8, VirtualThreads.newThreadFactory("zk-callback"))
+        : Executors.newScheduledThreadPool(8);
     //zk只有一个主线程，回调采用回调线程
     connectExecutor = Executors.newSingleThreadExecutor();
+    retryScheduler = new RetryScheduler(callBackExecutor, new DecorrelatedJitterBackoff(), 100, 20);
+    //监听器可能阻塞，分片个数不随核心数减少，避免小机器上所有原语共用一个分片
+    eventDispatcher =
+        new StripedExecutor("zk-event", Math.max(8, Runtime.getRuntime().availableProcessors()));
+    restartScheduler = new RestartScheduler(this, callBackExecutor, 2000);
+    writeBatcher = new ZkWriteBatcher(this, callBackExecutor);
+    connectExecutor.submit(() -> {
+      try {
+        zkClientCreator.call();
+      } catch (Exception e) {
+        firstConnection.completeExceptionally(e);
+      }
+    });
+  }
+
+  /**
+   * Block until the first connection, the way the constructor used to.
+   */
+  private ZkSessionManager awaitConnected() {
     try {
-      connectExecutor.submit(zkClientCreator)
-          .get();//we know zookeeper client assigned when past this statement
-      isConnected.waitOne();
+      return firstConnection.get();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -117,13 +277,285 @@ public final class ZkSessionManager implements Watcher {
     return instance;
   }
 
+  /**
+   * <English>
+   * The session that primitives on a path should use. Without a router this is the single
+   * instance.
+   *
+   * <Chinese>
+   * 路径上的原语应该使用的会话。没有路由时就是单例。
+   *
+   * @param path The primitive path./原语路径
+   * @return session manager
+   */
+  public static ZkSessionManager instance(String path) {
+    IZkSessionRouter currRouter = router;
+    return currRouter == null ? instance : currRouter.route(path);
+  }
+
   public static void initializeInstance(String connectString) {
-    instance = new ZkSessionManager(connectString);
+    instance = new ZkSessionManager(connectString).awaitConnected();
   }
 
   public static void initializeInstance(String connectString, int sessionTimeout,
       int maxConnectAttempts) {
+    instance = new ZkSessionManager(connectString, sessionTimeout, maxConnectAttempts)
+        .awaitConnected();
+  }
+
+  /**
+   * <English>
+   * Start connecting the single instance without blocking the caller.
+   * <p>
+   * The instance is available immediately. Primitives created before the connection is made queue
+   * their first operation, which runs once connected.
+   *
+   * <Chinese>
+   * 开始连接单例，不阻塞调用者。
+   * <p>
+   * 单例立即可用。连接建立前创建的原语会把第一个操作排队，连接后再执行。
+   *
+   * @param connectString "host1:port1,host2:port2"
+   * @return Completes on the first connection, or fails if the client could not be created./第一次连接成功时完成
+   */
+  public static CompletableFuture<ZkSessionManager> initializeInstanceAsync(String connectString) {
+    instance = new ZkSessionManager(connectString);
+    return instance.firstConnection;
+  }
+
+  /**
+   * <English>
+   * Start connecting the single instance without blocking the caller.
+   *
+   * <Chinese>
+   * 开始连接单例，不阻塞调用者。
+   *
+   * @param connectString      "host1:port1,host2:port2"
+   * @param sessionTimeout     超时时间
+   * @param maxConnectAttempts 最大连接重试次数
+   * @return Completes on the first connection./第一次连接成功时完成
+   */
+  public static CompletableFuture<ZkSessionManager> initializeInstanceAsync(String connectString,
+      int sessionTimeout, int maxConnectAttempts) {
     instance = new ZkSessionManager(connectString, sessionTimeout, maxConnectAttempts);
+    return instance.firstConnection;
+  }
+
+  /**
+   * <English>
+   * Connect the single instance, reattaching to the session a previous JVM saved with
+   * <code>detach()</code> if it has not timed out yet. The ephemeral nodes of the session, such as
+   * lock nodes and contributed keys, then survive the restart: primitives recreated on the same
+   * paths adopt them, and those left unadopted after one session timeout are deleted.
+   *
+   * <Chinese>
+   * 连接单例；如果上个JVM用<code>detach()</code>保存的会话还未超时，则重新接入该会话。
+   * 这样会话的临时节点（比如锁节点和贡献的key）在重启后依然存在：在相同路径上重新创建的原语会认领它们，
+   * 一个会话超时时间后仍未被认领的节点会被删除。
+   *
+   * @param connectString      "host1:port1,host2:port2"
+   * @param sessionTimeout     超时时间
+   * @param maxConnectAttempts 最大连接重试次数
+   * @param sessionFile        保存会话凭证的本地文件
+   */
+  public static void initializeInstance(String connectString, int sessionTimeout,
+      int maxConnectAttempts, Path sessionFile) {
+    instance = new ZkSessionManager(connectString, sessionTimeout, maxConnectAttempts, sessionFile)
+        .awaitConnected();
+  }
+
+  /**
+   * <English>
+   * Open a pool of sessions to the ensemble, and route every primitive to one of them by its path.
+   * The first session of the pool also becomes the single instance.
+   *
+   * <Chinese>
+   * 打开连接集群的会话池，按路径把每个原语路由到其中一个会话。池中第一个会话同时作为单例。
+   *
+   * @param connectString      "host1:port1,host2:port2"
+   * @param sessionTimeout     超时时间
+   * @param maxConnectAttempts 最大连接重试次数
+   * @param poolSize           会话个数
+   * @return the pool
+   */
+  public static ZkSessionPool initializePool(String connectString, int sessionTimeout,
+      int maxConnectAttempts, int poolSize) {
+    ZkSessionPool pool =
+        new ZkSessionPool(connectString, sessionTimeout, maxConnectAttempts, poolSize);
+    instance = pool.getSessions().get(0);
+    router = pool;
+    return pool;
+  }
+
+  /**
+   * <English>
+   * Open a new session which is not the single instance, e.g. for a pool.
+   *
+   * <Chinese>
+   * 打开一个新会话（不作为单例），比如用于会话池。
+   *
+   * @param connectString      "host1:port1,host2:port2"
+   * @param sessionTimeout     超时时间
+   * @param maxConnectAttempts 最大连接重试次数
+   * @return session manager
+   */
+  public static ZkSessionManager newSession(String connectString, int sessionTimeout,
+      int maxConnectAttempts) {
+    return new ZkSessionManager(connectString, sessionTimeout, maxConnectAttempts)
+        .awaitConnected();
+  }
+
+  /**
+   * <English>
+   * Route primitives to sessions by path, or pass null to use the single instance for all paths.
+   *
+   * <Chinese>
+   * 按路径把原语路由到会话；传入null则所有路径使用单例。
+   *
+   * @param sessionRouter router
+   */
+  public static void setRouter(IZkSessionRouter sessionRouter) {
+    router = sessionRouter;
+  }
+
+  /**
+   * <English>
+   * Probe server latency before each new session and connect to the fastest servers only, or pass
+   * null to use the connect string as it is. The session falls back to the whole connect string if
+   * it cannot connect to the fastest servers within a third of the session timeout, or loses its
+   * connection to them. Applies to sessions created from now on.
+   *
+   * <Chinese>
+   * 每次创建新会话前测量服务端延迟，只连接最快的服务端；传入null则原样使用连接串。
+   * 如果在三分之一会话超时时间内连不上最快的服务端，或者与它们断开连接，会话退回到完整的连接串。
+   * 对之后创建的会话生效。
+   *
+   * @param probe latency probe
+   */
+  public static void setLatencyProbe(ServerLatencyProbe probe) {
+    latencyProbe = probe;
+  }
+
+  /**
+   * <English>
+   * Let sessions created from now on connect to a read-only server when they are cut off from the
+   * quorum. Reads keep being served, with primitives such as key sets reporting they may be stale,
+   * and writes wait until a read-write server is reached.
+   *
+   * <Chinese>
+   * 允许之后创建的会话在与多数派断开时连接只读服务端。读操作继续执行（key集合等原语会报告可能过期），
+   * 写操作等到连接上读写服务端后再执行。
+   *
+   * @param allowed 是否允许
+   */
+  public static void setReadOnlyAllowed(boolean allowed) {
+    readOnlyAllowed = allowed;
+  }
+
+  /**
+   * <English>
+   * Run the callbacks and retries of sessions created from now on in virtual threads, so that
+   * callbacks blocking on other primitives do not tie up platform threads. Ignored unless the
+   * multi-release jar runs on Java 21 or later.
+   *
+   * <Chinese>
+   * 之后创建的会话的回调和重试在虚拟线程中执行，使阻塞在其他原语上的回调不占用平台线程。
+   * 只有多版本jar运行在Java 21及以上时才生效。
+   *
+   * @param preferred 是否使用虚拟线程
+   */
+  public static void setVirtualThreadsPreferred(boolean preferred) {
+    virtualThreadsPreferred = preferred;
+  }
+
+  /**
+   * <English>
+   * Choose how the client of each new session is created, e.g. an in-memory backend for tests and
+   * micro-benchmarks. Applies to sessions created from now on.
+   *
+   * <Chinese>
+   * 指定新会话的客户端如何创建，比如测试和微基准使用内存后端。对之后创建的会话生效。
+   *
+   * @param factory client factory
+   */
+  public static void setClientFactory(IZkClientFactory factory) {
+    clientFactory = factory == null ? ZooKeeperClient::new : factory;
+  }
+
+  /**
+   * <English>
+   * Keep a second, connected session in reserve, which takes over the moment this session expires.
+   * Primitives are then resurrected on it within milliseconds instead of after a connect and
+   * handshake, and a new standby is connected in the background. It costs one more session on the
+   * ensemble.
+   *
+   * <Chinese>
+   * 预备第二个已连接的会话，在本会话过期的瞬间接替。原语会在几毫秒内在它上面复活，而不是等待连接和握手，
+   * 新的热备会话在后台连接。代价是集群上多一个会话。
+   *
+   * @param enabled 是否保持热备会话
+   */
+  public void setHotStandby(boolean enabled) {
+    hotStandby = enabled;
+    if (enabled) {
+      connectExecutor.submit(standbyCreator);
+    } else {
+      closeStandby();
+    }
+  }
+
+  /**
+   * <English>
+   * Whether a standby session is connected, ready to take over.
+   *
+   * <Chinese>
+   * 是否有已连接、可以接替的热备会话。
+   *
+   * @return standby ready
+   */
+  public boolean isStandbyReady() {
+    synchronized (retryMutex) {
+      return standby != null && standby.connected;
+    }
+  }
+
+  /**
+   * <English>
+   * How many times a standby session took over an expired session.
+   *
+   * <Chinese>
+   * 热备会话接替过期会话的次数。
+   *
+   * @return takeovers
+   */
+  public long getStandbyTakeovers() {
+    return standbyTakeovers.get();
+  }
+
+  /**
+   * <English>
+   * Whether we are connected to a read-only server, cut off from the quorum.
+   *
+   * <Chinese>
+   * 是否连接在只读服务端上（与多数派断开）。
+   *
+   * @return read only
+   */
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * <English>
+   * The servers the current session may connect to.
+   *
+   * <Chinese>
+   * 当前会话可以连接的服务端。
+   *
+   * @return connect string
+   */
+  public String getActiveConnectString() {
+    return activeConnectString;
   }
 
   /**
@@ -136,14 +568,283 @@ public final class ZkSessionManager implements Watcher {
    */
   public void shutdown() throws InterruptedException {
     shutdown = true;
-    zkClient.close();
+    if (zkClient != null) {
+      zkClient.close();
+    }
+    closeStandby();
     callBackExecutor.shutdownNow();
+    eventDispatcher.shutdown();
   }
 
   public boolean isShutdown() {
     return shutdown;
   }
 
+  /**
+   * <English>
+   * Stop using the session without closing it, and save its credentials to the session file, e.g.
+   * on a rolling restart. The ephemeral nodes of the session stay on the server until the session
+   * times out, giving the next JVM the chance to reattach to it.
+   *
+   * <Chinese>
+   * 停止使用会话但不关闭它，并把凭证保存到会话文件，比如滚动重启时。会话的临时节点会保留在服务端直到会话超时，
+   * 使下一个JVM有机会重新接入该会话。
+   *
+   * @throws IOException The credentials could not be saved./凭证保存失败
+   */
+  public void detach() throws IOException {
+    if (sessionFile == null) {
+      throw new IllegalStateException("no session file configured");
+    }
+    if (!connected) {
+      throw new IllegalStateException("session not connected");
+    }
+    shutdown = true;
+    IZkClient client = zkClient;
+    List<String> ephemerals = new ArrayList<>(ownedEphemerals);
+    ZkSessionFile.store(sessionFile, connectString, client.getSessionId(),
+        client.getSessionPasswd(), client.getSessionTimeout(), ephemerals);
+    client.detach();
+    closeStandby();
+    callBackExecutor.shutdownNow();
+    eventDispatcher.shutdown();
+  }
+
+  /**
+   * <English>
+   * Ephemeral nodes of a reattached session that no primitive has adopted yet.
+   *
+   * <Chinese>
+   * 重新接入的会话中还未被原语认领的临时节点。
+   *
+   * @return orphaned node paths
+   */
+  public Set<String> getOrphanedEphemerals() {
+    return Collections.unmodifiableSet(orphanedEphemerals);
+  }
+
+  /**
+   * <English>
+   * A single session routes every path to itself.
+   *
+   * <Chinese>
+   * 单个会话把所有路径路由到自己。
+   *
+   * @param path The primitive path./原语路径
+   * @return this session
+   */
+  @Override
+  public ZkSessionManager route(String path) {
+    return this;
+  }
+
+  /**
+   * <English>
+   * The scheduler replaying interrupted primitive operations after reconnection, e.g. to change its
+   * rate.
+   *
+   * <Chinese>
+   * 重连后重放被中断的原语操作的调度器，比如用于修改速率。
+   *
+   * @return restart scheduler
+   */
+  public RestartScheduler getRestartScheduler() {
+    return restartScheduler;
+  }
+
+  /**
+   * Connected state as the primitive registries see it, updated before they are drained
+   */
+  boolean isConnectedNow() {
+    return connected;
+  }
+
+  /**
+   * <English>
+   * Whether the session is currently connected.
+   *
+   * <Chinese>
+   * 会话当前是否已连接。
+   *
+   * @return connected
+   */
+  public boolean isConnected() {
+    return isConnected.isSignalled();
+  }
+
+  /**
+   * <English>
+   * How many times the session has expired and been replaced by a new one.
+   *
+   * <Chinese>
+   * 会话过期（并被新会话替换）的次数。
+   *
+   * @return session expiries
+   */
+  public long getSessionExpiries() {
+    return sessionExpiries.get();
+  }
+
+  /**
+   * <English>
+   * Whether we are disconnected from ZooKeeper and so can no longer be sure our session, and the
+   * ephemeral nodes it owns, are still alive.
+   *
+   * <Chinese>
+   * 是否与zk断开了连接，此时不能确定会话以及它拥有的临时节点是否仍然有效。
+   *
+   * @return whether the session is suspect
+   */
+  public boolean isSuspect() {
+    return suspectDeadline != 0;
+  }
+
+  /**
+   * <English>
+   * Cheap check whether the session is certain to stay valid for the given duration. While connected
+   * this is always true. After disconnection it counts down locally to the earliest moment the
+   * session may have expired on the server.
+   *
+   * <Chinese>
+   * 开销很小的检查：会话在给定时长内是否一定有效。连接正常时总是返回true；断开连接后，本地倒计时到会话在服务端可能过期的最早时刻。
+   *
+   * @param duration time
+   * @param unit     unit
+   * @return whether the session is valid for the duration
+   */
+  public boolean isSessionValidFor(long duration, TimeUnit unit) {
+    long deadline = suspectDeadline;
+    return deadline == 0 || deadline - System.nanoTime() > unit.toNanos(duration);
+  }
+
+  /**
+   * <English>
+   * Time left before the session may have expired on the server, or <code>Long.MAX_VALUE</code>
+   * while connected.
+   *
+   * <Chinese>
+   * 会话在服务端可能过期之前的剩余时间，连接正常时返回<code>Long.MAX_VALUE</code>。
+   *
+   * @return remaining milliseconds
+   */
+  public long getRemainingSessionMillis() {
+    long deadline = suspectDeadline;
+    if (deadline == 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+  }
+
+  /**
+   * <English>
+   * The scheduler of retried primitive operations, e.g. to change the backoff policy or read its
+   * metrics.
+   *
+   * <Chinese>
+   * 原语操作的重试调度，比如用于修改退避策略或读取指标。
+   *
+   * @return retry scheduler
+   */
+  public RetryScheduler getRetryScheduler() {
+    return retryScheduler;
+  }
+
+  /**
+   * <English>
+   * Wait until reads of a path prefix are linearizable: once the returned future completes, reads
+   * see every write completed before this call. Concurrent requests share one <code>sync()</code>.
+   *
+   * <Chinese>
+   * 等待路径前缀的读线性一致：返回的future完成后，读能看到本次调用前完成的所有写。并发的请求共享一个<code>sync()</code>。
+   *
+   * @param path 路径前缀
+   * @return Completes when reads are linearizable, or fails with a ZkException./读线性一致时完成
+   */
+  public CompletableFuture<Void> readBarrier(String path) {
+    return readBarrier.sync(path);
+  }
+
+  /**
+   * <English>
+   * The read barrier of the session, e.g. to compare requests with the syncs issued.
+   *
+   * <Chinese>
+   * 会话的读屏障，比如用于比较请求个数和发出的sync个数。
+   *
+   * @return read barrier
+   */
+  public ZkReadBarrier getReadBarrier() {
+    return readBarrier;
+  }
+
+  /**
+   * <English>
+   * The watches shared by the primitives of this session.
+   *
+   * <Chinese>
+   * 本会话的原语共享的watch。
+   *
+   * @return watch multiplexer
+   */
+  public ZkWatchMultiplexer getWatchMultiplexer() {
+    return watchMultiplexer;
+  }
+
+  /**
+   * <English>
+   * Batches the creates and deletes of this session's primitives into transactions, off until a
+   * window is set.
+   *
+   * <Chinese>
+   * 把本会话原语的创建和删除合并成事务，设置窗口之前不启用。
+   *
+   * @return write batcher
+   */
+  public ZkWriteBatcher getWriteBatcher() {
+    return writeBatcher;
+  }
+
+  /**
+   * <English>
+   * The cap on asynchronous operations outstanding on the server, e.g. to read its queue lengths.
+   *
+   * <Chinese>
+   * 服务端未完成的异步操作上限，比如用于读取排队长度。
+   *
+   * @return in flight gate
+   */
+  public InFlightGate getInFlightGate() {
+    return inFlightGate;
+  }
+
+  /**
+   * <English>
+   * The executor running primitive events and listeners, e.g. to read its queue depths.
+   *
+   * <Chinese>
+   * 执行原语事件和监听器的线程池，比如用于读取队列深度。
+   *
+   * @return event dispatcher
+   */
+  public StripedExecutor getEventDispatcher() {
+    return eventDispatcher;
+  }
+
+  /**
+   * <English>
+   * Run a task of a primitive off the ZooKeeper event thread. Tasks of one primitive run in order,
+   * tasks of different primitives run in parallel.
+   *
+   * <Chinese>
+   * 在zk事件线程之外执行原语的任务。同一原语的任务按顺序执行，不同原语的任务并行执行。
+   *
+   * @param primitive 原语
+   * @param task      task
+   */
+  void dispatch(ZkSyncPrimitive primitive, Runnable task) {
+    eventDispatcher.execute(primitive, task);
+  }
+
   /**
    * <English>
    * retry the primitive runnable.
@@ -151,17 +852,16 @@ public final class ZkSessionManager implements Watcher {
    * <Chinese>
    * 重试逻辑。
    *
-   * @param operation runnable 需要重试的任务
-   * @param retries   retry time 重试次数
+   * @param operation     runnable 需要重试的任务
+   * @param retries       retry time 重试次数
+   * @param previousDelay 上次重试的延迟（毫秒）
+   * @return The delay chosen./本次延迟（毫秒）
    */
-  void retryPrimitiveOperation(Runnable operation, int retries) {
-    if (!shutdown) {
-      int delay = 250 + retries * 500;
-      if (delay > 7500) {
-        delay = 7500;
-        callBackExecutor.schedule(operation, delay, TimeUnit.MILLISECONDS);
-      }
+  long retryPrimitiveOperation(Runnable operation, int retries, long previousDelay) {
+    if (shutdown) {
+      return 0;
     }
+    return retryScheduler.schedule(operation, retries, previousDelay);
   }
 
   /**
@@ -174,11 +874,93 @@ public final class ZkSessionManager implements Watcher {
    * @param primitive 原语
    */
   void restartPrimitiveWhenConnected(ZkSyncPrimitive primitive) {
-    synchronized (retryMutex) {
-      if (currRestartOnConnectList == null) {
-        currRestartOnConnectList = Collections.newSetFromMap(new WeakHashMap<>());
+    currRestartOnConnectList.add(primitive);
+  }
+
+  /**
+   * <English>
+   * Queue an operation of a primitive to run on connection if we are not connected now, e.g. the
+   * first operation of a primitive created before the session has connected.
+   *
+   * <Chinese>
+   * 如果当前未连接，把原语的操作排队到连接后执行，比如在会话连接前创建的原语的第一个操作。
+   *
+   * @param primitive 原语
+   * @param operation 操作
+   * @return Whether the operation was queued, otherwise the caller should run it now./是否已排队
+   */
+  boolean deferUntilConnected(ZkSyncPrimitive primitive, Runnable operation) {
+    if (connected) {
+      return false;
+    }
+    primitive.retryOnConnect = operation;
+    currRestartOnConnectList.add(primitive);
+    // If we connected meanwhile, whoever removes the primitive from the list runs the operation
+    if (connected && currRestartOnConnectList.remove(primitive)) {
+      primitive.retryOnConnect = null;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * <English>
+   * Record an ephemeral node created, or deleted, by a primitive, so it can be saved on detach.
+   *
+   * <Chinese>
+   * 记录原语创建或删除的临时节点，以便分离会话时保存。
+   *
+   * @param path  节点路径
+   * @param owned 是否拥有
+   */
+  void ownEphemeral(String path, boolean owned) {
+    if (sessionFile == null) {
+      return;
+    }
+    if (owned) {
+      ownedEphemerals.add(path);
+    } else {
+      ownedEphemerals.remove(path);
+      orphanedEphemerals.remove(path);
+    }
+  }
+
+  /**
+   * <English>
+   * Adopt an ephemeral node a previous JVM created in this session.
+   *
+   * <Chinese>
+   * 认领上个JVM在本会话中创建的临时节点。
+   *
+   * @param parentPath 父路径
+   * @param nodeName   Matches the name of the node to adopt./匹配要认领的节点名
+   * @return The adopted node path, or null./认领的节点路径
+   */
+  String adoptOrphan(String parentPath, Predicate<String> nodeName) {
+    if (orphanedEphemerals.isEmpty()) {
+      return null;
+    }
+    String prefix = parentPath + "/";
+    for (String path : orphanedEphemerals) {
+      if (path.startsWith(prefix) && path.indexOf('/', prefix.length()) == -1
+          && nodeName.test(path.substring(prefix.length())) && orphanedEphemerals.remove(path)) {
+        return path;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Delete the ephemeral nodes of the previous JVM nobody adopted within a session timeout
+   */
+  private void deleteUnadoptedOrphans() {
+    for (String path : orphanedEphemerals) {
+      if (orphanedEphemerals.remove(path)) {
+        ownedEphemerals.remove(path);
+        inFlightGate.issue(OperationLane.BULK, () -> zkClient.delete(path, -1,
+            inFlightGate.wrapVoid((rc, p, ctx) -> {
+            }), null));
       }
-      currRestartOnConnectList.add(primitive);
     }
   }
 
@@ -192,11 +974,56 @@ public final class ZkSessionManager implements Watcher {
    * @param primitive 原语
    */
   void resurrectPrimitiveWhenNewSession(ZkSyncPrimitive primitive) {
+    currResurrectList.add(primitive);
+    // A standby may have taken over before the primitive heard of the expiry
+    if (connected && currResurrectList.remove(primitive)) {
+      restartScheduler.submit(primitive, true);
+      restartScheduler.start();
+    }
+  }
+
+  /**
+   * <English>
+   * Notify a primitive of connection, disconnection and session expiry events, e.g. a held lock
+   * which needs to know when it becomes suspect.
+   *
+   * <Chinese>
+   * 通知原语连接、断开和会话过期事件，比如持有中的锁需要知道何时变得不可靠。
+   *
+   * @param primitive 原语
+   */
+  void watchConnection(ZkSyncPrimitive primitive) {
+    synchronized (retryMutex) {
+      if (connectionWatchers == null) {
+        connectionWatchers = Collections.newSetFromMap(new WeakHashMap<>());
+      }
+      connectionWatchers.add(primitive);
+    }
+  }
+
+  /**
+   * <English>
+   * Stop notifying a primitive of connection events.
+   *
+   * <Chinese>
+   * 停止通知原语连接事件。
+   *
+   * @param primitive 原语
+   */
+  void unwatchConnection(ZkSyncPrimitive primitive) {
     synchronized (retryMutex) {
-      if (currResurrectList == null) {
-        currResurrectList = Collections.newSetFromMap(new WeakHashMap<>());
+      if (connectionWatchers != null) {
+        connectionWatchers.remove(primitive);
       }
-      currResurrectList.add(primitive);
+    }
+  }
+
+  private ZkSyncPrimitive[] getConnectionWatchers() {
+    synchronized (retryMutex) {
+      if (connectionWatchers == null) {
+        return new ZkSyncPrimitive[0];
+      }
+      return connectionWatchers.toArray(new ZkSyncPrimitive[0]);
     }
   }
 
@@ -209,15 +1036,21 @@ public final class ZkSessionManager implements Watcher {
         case SyncConnected:
           onConnected();
           break;
+        case ConnectedReadOnly:
+          onConnectedReadOnly();
+          break;
         case Disconnected:
           onDisconnection();
           break;
         case Expired:
+          // Drop the watches of the old session before a standby may take over
+          watchMultiplexer.onStateChanged(watchedEvent);
           onSessionExpired();
-          break;
+          return;
         default:
           break;
       }
+      watchMultiplexer.onStateChanged(watchedEvent);
     }
   }
 
@@ -243,36 +1076,62 @@ public final class ZkSessionManager implements Watcher {
    * 并且必须要求希望在会话期满后恢复的所有原语重新同步。
    */
   private void onConnected() {
+    readOnly = false;
+    replayWaitingPrimitives();
+    if (!orphanedEphemerals.isEmpty()) {
+      callBackExecutor
+          .schedule(this::deleteUnadoptedOrphans, zkClient.getSessionTimeout(), TimeUnit.MILLISECONDS);
+    }
+    suspectDeadline = 0;
+    isConnected.set();
+    firstConnection.complete(this);
+    for (ZkSyncPrimitive primitive : getConnectionWatchers()) {
+      dispatch(primitive, primitive::onConnected);
+    }
+  }
+
+  /**
+   * <English>
+   * Connected to a read-only server, cut off from the quorum.
+   * <p>
+   * Waiting operations are replayed: reads succeed, writes fail with NOTREADONLY and wait again
+   * until a read-write connection. The session stays suspect, since the quorum may expire it
+   * meanwhile, so connection watchers such as held locks are not told about this connection.
+   *
+   * <Chinese>
+   * 连接到只读服务端（与多数派断开）。
+   * <p>
+   * 重放等待中的操作：读操作成功，写操作以NOTREADONLY失败并再次等待读写连接。
+   * 会话仍然不可靠（多数派可能在此期间使其过期），所以不通知持有中的锁等连接关注者。
+   */
+  private void onConnectedReadOnly() {
+    readOnly = true;
+    replayWaitingPrimitives();
+    isConnected.set();
+    firstConnection.complete(this);
+  }
+
+  private void replayWaitingPrimitives() {
     synchronized (retryMutex) {
-      /*
-       * We are going to process the existing lists;
-       * We take a copy of the lists and reset them to null to avoid potential re-entrancy problems
-       * if the client becomes disconnected again while restarting the waiting primitives thus
-       * causing them to try to re-add themselves to these lists.
-       */
-      Set<ZkSyncPrimitive> resurrectList = currResurrectList;
-      Set<ZkSyncPrimitive> restartOnConnectList = currRestartOnConnectList;
-      currResurrectList = null;
-      currRestartOnConnectList = null;
-      //processing resurrection list...
-      if (resurrectList != null) {
-        System.out
-            .println("onConnected processing currResurrectList.size: " + resurrectList.size());
-        for (ZkSyncPrimitive primitive : resurrectList) {
-          primitive.zkClient = this.zkClient;
-          primitive.resynchronize();
-        }
+      // Wait for the client creator to assign zkClient
+      connected = true;
+    }
+    /*
+     * Move the waiting primitives to the restart scheduler, which replays them at a limited rate
+     * off this thread. Each primitive is removed before it is queued, so one that becomes
+     * disconnected again while restarting may safely re-add itself to these lists.
+     */
+    for (ZkSyncPrimitive primitive : currResurrectList) {
+      if (currResurrectList.remove(primitive)) {
+        restartScheduler.submit(primitive, true);
       }
-      //processing restart on re-connection list
-      if (restartOnConnectList != null) {
-        for (ZkSyncPrimitive primitive : restartOnConnectList) {
-          Runnable retryOnConnect = primitive.retryOnConnect;
-          primitive.retryOnConnect = null;// this may be re-assigned by running if disconnect again.
-          retryOnConnect.run();
-        }
+    }
+    for (ZkSyncPrimitive primitive : currRestartOnConnectList) {
+      if (currRestartOnConnectList.remove(primitive)) {
+        restartScheduler.submit(primitive, false);
       }
     }
-    isConnected.set();
+    restartScheduler.start();
   }
 
   /**
@@ -301,9 +1160,66 @@ public final class ZkSessionManager implements Watcher {
    * 此外，处于这种状态时，我们不能“确定”服务器上的情况，也不能执行需要修改服务器状态的操作。
    * <p>
    * 这可能需要特殊的处理，所以我们通知同步对象。
+   * <p>
+   * The client only reports disconnection after it has not heard from the server for two thirds of
+   * the negotiated session timeout, so in the worst case the session may expire one third of the
+   * timeout from now. We count down from there.
+   * <p>
+   * 客户端在超过协商会话超时时间的三分之二没有收到服务端响应后才报告断开，所以最坏情况下会话在三分之一超时时间后就可能过期，从这里开始倒计时。
    */
   private void onDisconnection() {
+    connected = false;
     isConnected.reset();
+    // Already counting down if this is the read-only connection going away
+    if (suspectDeadline == 0) {
+      long deadline =
+          System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(zkClient.getSessionTimeout() / 3);
+      suspectDeadline = deadline == 0 ? 1 : deadline;//0 means connected
+    }
+    for (ZkSyncPrimitive primitive : getConnectionWatchers()) {
+      dispatch(primitive, primitive::onDisConnected);
+    }
+    if (!connectString.equals(activeConnectString)) {
+      IZkClient narrowed = zkClient;
+      connectExecutor.submit(() -> fallBackToAllServers(narrowed));
+    }
+  }
+
+  /**
+   * <English>
+   * Move the session from the fastest servers to a client of the whole connect string, when it
+   * could not connect to them or lost its connection. The new client resumes the session if it was
+   * established, and does not hold the watches of the old one, so they fire for their subscribers to
+   * read again.
+   *
+   * <Chinese>
+   * 连不上最快的服务端或者与它们断开连接时，把会话从最快的服务端移到使用完整连接串的客户端。
+   * 如果会话已建立，新客户端接续该会话；新客户端没有旧客户端的watch，所以触发这些watch，使订阅者重新读取。
+   *
+   * @param narrowed The client of the fastest servers./连接最快服务端的客户端
+   */
+  private void fallBackToAllServers(IZkClient narrowed) {
+    long sessionId;
+    synchronized (retryMutex) {
+      if (shutdown || connected || zkClient != narrowed
+          || connectString.equals(activeConnectString)) {
+        return;
+      }
+      sessionId = narrowed.getSessionId();
+      try {
+        zkClient = clientFactory.newClient(connectString, sessionTimeout, this, sessionId,
+            sessionId == 0 ? null : narrowed.getSessionPasswd(), canBeReadOnly);
+      } catch (IOException e) {
+        // Keep trying the fastest servers
+        e.printStackTrace();
+        return;
+      }
+      activeConnectString = connectString;
+      narrowed.detach();
+    }
+    if (sessionId != 0) {
+      watchMultiplexer.onClientReplaced();
+    }
   }
 
   /**
@@ -324,30 +1240,139 @@ public final class ZkSessionManager implements Watcher {
    * 在等待重新连接前，当前被挂起的原语必须被立马杀死，除非在有新会话的情况下它们才可能被复活。
    */
   private void onSessionExpired() {
-    synchronized (retryMutex) {
-      /*
-       * <English>
-       * Primitives waiting for reconnection before continuing their operations must now die, except for the
-       * rare case they wish to be resurrected when there is a new session
-       *
-       * <Chinese>
-       * 在继续操作之前等待重新连接的原语现在必须死亡，除非在有新会话是，它们才有可能被复活。
-       */
-      if (currRestartOnConnectList != null) {
-        for (ZkSyncPrimitive primitive : currRestartOnConnectList) {
-          if (primitive.shouldResurrectAfterSessionExpiry()) {
-            currResurrectList.add(primitive);
-          } else {
-            primitive.die(Code.SESSIONEXPIRED);
-          }
-        }
-        // Clear the reconnect list now
-        currRestartOnConnectList.clear();
+    connected = false;
+    /*
+     * <English>
+     * Primitives waiting for reconnection before continuing their operations must now die, except for the
+     * rare case they wish to be resurrected when there is a new session. This includes those the
+     * restart scheduler had not replayed yet.
+     *
+     * <Chinese>
+     * 在继续操作之前等待重新连接的原语现在必须死亡，除非在有新会话是，它们才有可能被复活。包括重启调度器还未重放的原语。
+     */
+    for (RestartScheduler.Restart restart : restartScheduler.drain()) {
+      if (restart.resurrect) {
+        resurrectPrimitiveWhenNewSession(restart.primitive);
+      } else {
+        expireWaitingPrimitive(restart.primitive);
+      }
+    }
+    for (ZkSyncPrimitive primitive : currRestartOnConnectList) {
+      if (currRestartOnConnectList.remove(primitive)) {
+        expireWaitingPrimitive(primitive);
       }
     }
-    //会话关闭
+    //会话关闭，临时节点随之消失
     isConnected.reset();
+    sessionExpiries.incrementAndGet();
+    orphanedEphemerals.clear();
+    ownedEphemerals.clear();
+    for (ZkSyncPrimitive primitive : getConnectionWatchers()) {
+      dispatch(primitive, primitive::onSessionExpired);
+    }
+    Standby promoted = takeOverByStandby();
+    if (promoted != null) {
+      // Its state no longer changes once promoted
+      if (promoted.readOnly) {
+        onConnectedReadOnly();
+      } else {
+        onConnected();
+      }
+      connectExecutor.submit(standbyCreator);
+      return;
+    }
     //尝试创建新的会话
     connectExecutor.submit(zkClientCreator);
   }
-}
\ No newline at end of file
+
+  /**
+   * Swap the connected standby in as the client of the session
+   *
+   * @return The standby, or null if there was no connected standby
+   */
+  private Standby takeOverByStandby() {
+    Standby next;
+    synchronized (retryMutex) {
+      next = standby;
+      if (next == null || !next.connected || shutdown) {
+        return null;
+      }
+      standby = null;
+      next.promoted = true;
+      activeConnectString = next.servers;
+      zkClient = next.client;
+    }
+    standbyTakeovers.incrementAndGet();
+    return next;
+  }
+
+  private void closeStandby() {
+    Standby curr;
+    synchronized (retryMutex) {
+      curr = standby;
+      standby = null;
+    }
+    if (curr != null) {
+      try {
+        curr.client.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void expireWaitingPrimitive(ZkSyncPrimitive primitive) {
+    if (primitive.shouldResurrectAfterSessionExpiry()) {
+      resurrectPrimitiveWhenNewSession(primitive);
+    } else {
+      primitive.die(Code.SESSIONEXPIRED);
+    }
+  }
+
+  /**
+   * A session held in reserve. Its events are ours once it takes over, until then it only tracks
+   * whether it is connected, and is replaced if it expires.
+   */
+  private final class Standby implements Watcher {
+
+    //会话可以连接的服务端
+    private String servers;
+    //zk客户端
+    private IZkClient client;
+    //是否已连接（只在retryMutex的锁内访问）
+    private boolean connected;
+    //是否连接到只读服务端（接替会话前只在retryMutex的锁内访问）
+    private boolean readOnly;
+    //是否已接替会话（只在retryMutex的锁内访问）
+    private boolean promoted;
+
+    @Override
+    public void process(WatchedEvent watchedEvent) {
+      boolean replace = false;
+      boolean ours;
+      synchronized (retryMutex) {
+        ours = promoted;
+        if (!ours) {
+          if (EventType.None == watchedEvent.getType()) {
+            KeeperState keeperState = watchedEvent.getState();
+            readOnly = keeperState == KeeperState.ConnectedReadOnly;
+            connected = keeperState == KeeperState.SyncConnected || readOnly;
+            if (keeperState == KeeperState.Expired && standby == this) {
+              standby = null;
+              replace = true;
+            }
+          }
+        }
+      }
+      if (replace) {
+        if (hotStandby && !shutdown) {
+          connectExecutor.submit(standbyCreator);
+        }
+        return;
+      }
+      if (ours) {
+        ZkSessionManager.this.process(watchedEvent);
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package dowhat.is.right.zk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <English>
+ * A pool of sessions to the same ZooKeeper ensemble.
+ * <p>
+ * Each session has its own connection, I/O thread and event thread, so spreading primitives over
+ * several sessions lifts the throughput limit of a single connection, and watch notifications of
+ * different sessions no longer queue up behind each other. Primitives are routed by hashing their
+ * path, so all operations on one path go through one session and stay ordered.
+ * <p>
+ * Each session reconnects and recovers from expiry on its own, the pool reports the health of all
+ * of them.
+ *
+ * <Chinese>
+ * 连接同一个zk集群的会话池。
+ * <p>
+ * 每个会话有自己的连接、I/O线程和事件线程，把原语分散到多个会话上，可以突破单个连接的吞吐上限，
+ * 不同会话的watch通知也不会互相排队。原语按路径哈希路由，同一路径上的所有操作都经过同一个会话，保持有序。
+ * <p>
+ * 每个会话各自重连和从过期中恢复，会话池汇总所有会话的健康状况。
+ *
+ * @author 杨春炼
+ * @since 2020-05-10
+ */
+public class ZkSessionPool implements IZkSessionRouter {
+
+  private final List<ZkSessionManager> sessions;
+
+  /**
+   * @param connectString      "host1:port1,host2:port2"
+   * @param sessionTimeout     超时时间
+   * @param maxConnectAttempts 最大连接重试次数
+   * @param poolSize           会话个数
+   */
+  public ZkSessionPool(String connectString, int sessionTimeout, int maxConnectAttempts,
+      int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("pool size must be greater than or equals to 1");
+    }
+    List<ZkSessionManager> newSessions = new ArrayList<>(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+      newSessions.add(
+          ZkSessionManager.newSession(connectString, sessionTimeout, maxConnectAttempts));
+    }
+    sessions = Collections.unmodifiableList(newSessions);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ZkSessionManager route(String path) {
+    int hash = path.hashCode();
+    hash ^= hash >>> 16;//spread the high bits, paths often only differ at the end
+    return sessions.get(Math.floorMod(hash, sessions.size()));
+  }
+
+  public List<ZkSessionManager> getSessions() {
+    return sessions;
+  }
+
+  /**
+   * <English>
+   * Number of sessions currently connected.
+   *
+   * <Chinese>
+   * 当前已连接的会话数。
+   *
+   * @return connected sessions
+   */
+  public int getConnectedCount() {
+    int connected = 0;
+    for (ZkSessionManager session : sessions) {
+      if (session.isConnected()) {
+        connected++;
+      }
+    }
+    return connected;
+  }
+
+  /**
+   * <English>
+   * Whether every session is connected, i.e. primitives on any path can make progress.
+   *
+   * <Chinese>
+   * 是否所有会话都已连接，即任何路径上的原语都能正常工作。
+   *
+   * @return healthy
+   */
+  public boolean isHealthy() {
+    return getConnectedCount() == sessions.size();
+  }
+
+  /**
+   * <English>
+   * Total session expiries over the pool.
+   *
+   * <Chinese>
+   * 所有会话的过期总次数。
+   *
+   * @return session expiries
+   */
+  public long getSessionExpiries() {
+    long expiries = 0;
+    for (ZkSessionManager session : sessions) {
+      expiries += session.getSessionExpiries();
+    }
+    return expiries;
+  }
+
+  /**
+   * <English>
+   * Shut down every session of the pool.
+   *
+   * <Chinese>
+   * 关闭池中所有会话。
+   *
+   * @throws InterruptedException exception
+   */
+  public void shutdown() throws InterruptedException {
+    for (ZkSessionManager session : sessions) {
+      session.shutdown();
+    }
+  }
+}
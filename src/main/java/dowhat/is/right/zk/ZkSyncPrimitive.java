@@ -2,14 +2,24 @@ package dowhat.is.right.zk;
 
 import dowhat.is.right.concurrency.ManualResetEvent;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
-import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
 
 /**
  * {@link ZkSessionManager}
@@ -27,12 +37,17 @@ public abstract class ZkSyncPrimitive implements Watcher {
 
   /**
    * <English>
-   * Mutex for use synchronizing access to private members.
+   * Acceptable return codes for <code>passOrTryRepeat()</code>, shared so that classifying a
+   * result doesn't allocate.
    *
    * <Chinese>
-   * 互斥锁：用于同步访问私有字段（成员）。
+   * <code>passOrTryRepeat()</code>可接受的返回码，共享以免判断结果时分配内存。
    */
-  private final Integer mutex;
+  protected static final Set<Code> PASS_OK = Collections.unmodifiableSet(EnumSet.of(Code.OK));
+  protected static final Set<Code> PASS_OK_OR_NONODE =
+      Collections.unmodifiableSet(EnumSet.of(Code.OK, Code.NONODE));
+  protected static final Set<Code> PASS_OK_OR_NODEEXISTS =
+      Collections.unmodifiableSet(EnumSet.of(Code.OK, Code.NODEEXISTS));
   /**
    * <English>
    * The zookeeper session handle.
@@ -40,7 +55,7 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * <Chinese>
    * zk客户端。
    */
-  ZooKeeper zkClient;
+  IZkClient zkClient;
   /**
    * <English>
    * Interrupted task in asynchronous operation sequence, which needs to be re-run on connect.
@@ -61,12 +76,13 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * <English>
    * Tasks to be run when the logical state of
    * <p>
-   * the primitive changes e.g. a lock acquired, a list get new items.
+   * the primitive changes e.g. a lock acquired, a list get new items. Copy on write, so that
+   * listeners run outside any lock.
    *
    * <Chinese>
-   * 当原语的逻辑状态改变时（比如得到锁，获得新的消息），需要启动的任务列表。
+   * 当原语的逻辑状态改变时（比如得到锁，获得新的消息），需要启动的任务列表。写时复制，使监听器在锁外执行。
    */
-  private List<Runnable> stateUpdateListeners;
+  private final List<Runnable> stateUpdateListeners = new CopyOnWriteArrayList<>();
   /**
    * <English>
    * Tasks to be run when the primitive enters into an unsynchronized state
@@ -76,7 +92,7 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * <Chinese>
    * 当原语进入非同步状态（比如会话过期时）时要运行的任务。
    */
-  private List<Runnable> dieListeners;
+  private final List<Runnable> dieListeners = new CopyOnWriteArrayList<>();
   /**
    * <English>
    * Event that indicates that our state is synchronized
@@ -103,16 +119,21 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * 异常（比如超时）造成的重试次数。
    */
   private int reties;
+  /**
+   * <English>
+   * Delay before the last retry in milliseconds.
+   *
+   * <Chinese>
+   * 上次重试前的延迟（毫秒）。
+   */
+  private long retryDelay;
 
   protected ZkSyncPrimitive(ZkSessionManager session) {
     this.session = session;
     zkClient = this.session.zkClient;
-    stateUpdateListeners = null;
-    dieListeners = null;
     isSynchronized = new ManualResetEvent(false);
     retryOnConnect = null;
     reties = 0;
-    mutex = -1;
   }
 
   /**
@@ -159,15 +180,10 @@ public abstract class ZkSyncPrimitive implements Watcher {
    *                     immediately。
    */
   public void addUpdateListener(Runnable handler, boolean doStartupRun) {
-    synchronized (mutex) {
-      if (stateUpdateListeners == null) {
-        stateUpdateListeners = new ArrayList<>(8);
-      }
-      //Add to listener set first to avoid reentrancy race.
-      stateUpdateListeners.add(handler);
-      if (doStartupRun && killedByException == null && isSynchronized.isSignalled()) {
-        handler.run();
-      }
+    //Add to listener set first to avoid reentrancy race.
+    stateUpdateListeners.add(handler);
+    if (doStartupRun && killedByException == null && isSynchronized.isSignalled()) {
+      handler.run();
     }
   }
 
@@ -194,16 +210,11 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * @param handler task
    */
   public void addDieListener(Runnable handler) {
-    synchronized (mutex) {
-      if (dieListeners == null) {
-        dieListeners = new ArrayList<>(8);
-      }
-      // Add to listener set first to avoid reentrancy race.
-      dieListeners.add(handler);
-      // If we are already synchronized then trigger.
-      if (killedByException != null) {
-        handler.run();
-      }
+    // Add to listener set first to avoid reentrancy race.
+    dieListeners.add(handler);
+    // If we are already synchronized then trigger.
+    if (killedByException != null) {
+      handler.run();
     }
   }
 
@@ -241,18 +252,17 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * 当派生类成功更新其状态时，它们必须调用。
    */
   protected void onStateUpdated() {
-    synchronized (mutex) {
-      killedByException = null;
+    killedByException = null;
+    // Listeners run off the ZooKeeper event thread, in order with the other events of this primitive
+    session.dispatch(this, () -> {
       // Notify handlers ***before*** signalling synchronized state to allow handlers to perform
       // some pre-processing / prepare the way for a blocked main client thread to proceed
-      if (stateUpdateListeners != null) {
-        for (Runnable handler : stateUpdateListeners) {
-          handler.run();
-        }
+      for (Runnable handler : stateUpdateListeners) {
+        handler.run();
       }
       // Signal state updated
       isSynchronized.set();
-    }
+    });
   }
 
   /**
@@ -436,6 +446,211 @@ public abstract class ZkSyncPrimitive implements Watcher {
     return false;
   }
 
+  /**
+   * <English>
+   * Issue an asynchronous operation through the in-flight cap of the session. The operation must
+   * issue exactly one call, with a callback wrapped by <code>wrapXxx()</code>.
+   *
+   * <Chinese>
+   * 通过会话的在途上限发出异步操作。操作必须只发出一个调用，且回调用<code>wrapXxx()</code>包装。
+   *
+   * @param lane      优先级通道
+   * @param operation task
+   */
+  protected void issue(OperationLane lane, Runnable operation) {
+    session.getInFlightGate().issue(lane, operation);
+  }
+
+  /**
+   * <English>
+   * Wrap the callback of an issued operation: the in-flight slot is given back on the ZooKeeper
+   * event thread, and the callback runs in order with the events of this primitive, off that
+   * thread. Wrap a callback once, e.g. in a final field, and issue every call with the wrapped one:
+   * its results then reach the stripe without allocating.
+   *
+   * <Chinese>
+   * 包装发出的操作的回调：在zk事件线程上归还在途名额，回调在zk事件线程之外，和本原语的事件按顺序执行。
+   * 每个回调只包装一次（例如放在final字段中），每次调用都使用包装后的回调，这样结果交给分片时不分配内存。
+   *
+   * @param callback callback
+   * @return wrapped callback
+   */
+  protected StringCallback wrapString(StringCallback callback) {
+    return session.getInFlightGate().wrapString(stringOnStripe(callback));
+  }
+
+  /**
+   * <English>
+   * See {@link #wrapString(StringCallback)}.
+   *
+   * <Chinese>
+   * 见{@link #wrapString(StringCallback)}。
+   *
+   * @param callback callback
+   * @return wrapped callback
+   */
+  protected ChildrenCallback wrapChildren(ChildrenCallback callback) {
+    return session.getInFlightGate().wrapChildren(childrenOnStripe(callback));
+  }
+
+  /**
+   * <English>
+   * Run a callback on the stripe of this primitive, for <code>createNode()</code>. Wrap a callback
+   * once, e.g. in a final field.
+   *
+   * <Chinese>
+   * 使回调在本原语的分片上执行，用于<code>createNode()</code>。每个回调只包装一次，例如放在final字段中。
+   *
+   * @param callback callback
+   * @return wrapped callback
+   */
+  protected StringCallback stringOnStripe(StringCallback callback) {
+    return new StripeCallback(callback, null, null);
+  }
+
+  /**
+   * <English>
+   * See {@link #stringOnStripe(StringCallback)}, for <code>deleteNode()</code>.
+   *
+   * <Chinese>
+   * 见{@link #stringOnStripe(StringCallback)}，用于<code>deleteNode()</code>。
+   *
+   * @param callback callback
+   * @return wrapped callback
+   */
+  protected VoidCallback voidOnStripe(VoidCallback callback) {
+    return new StripeCallback(null, callback, null);
+  }
+
+  private ChildrenCallback childrenOnStripe(ChildrenCallback callback) {
+    return new StripeCallback(null, null, callback);
+  }
+
+  /**
+   * <English>
+   * <code>exists()</code> with this primitive as the watcher, sharing the watch and the read with
+   * the other primitives of the session watching the same node.
+   *
+   * <Chinese>
+   * 以本原语为watcher的<code>exists()</code>，和会话中关注同一节点的其他原语共享watch和读取。
+   *
+   * @param lane lane of the read/读取的通道
+   * @param path node path
+   * @param cb   callback
+   * @param ctx  callback context
+   */
+  protected void watchExists(OperationLane lane, String path, StatCallback cb, Object ctx) {
+    session.getWatchMultiplexer().exists(this, lane, path, cb, ctx);
+  }
+
+  /**
+   * <English>
+   * <code>getChildren()</code> with this primitive as the watcher, sharing the watch and the read
+   * with the other primitives of the session watching the same node.
+   *
+   * <Chinese>
+   * 以本原语为watcher的<code>getChildren()</code>，和会话中关注同一节点的其他原语共享watch和读取。
+   *
+   * @param lane lane of the read/读取的通道
+   * @param path node path
+   * @param cb   callback
+   * @param ctx  callback context
+   */
+  protected void watchChildren(OperationLane lane, String path, ChildrenCallback cb, Object ctx) {
+    session.getWatchMultiplexer().getChildren(this, lane, path, cb, ctx);
+  }
+
+  /**
+   * <English>
+   * Create a node through the write batcher of the session, which may send it in one transaction
+   * with the writes of other primitives. The callback runs on the stripe of this primitive, pass
+   * one wrapped by <code>stringOnStripe()</code> to save wrapping it on every call.
+   *
+   * <Chinese>
+   * 通过会话的写批次创建节点，可能和其他原语的写操作在同一个事务中发出。回调在本原语的分片上执行，
+   * 传入用<code>stringOnStripe()</code>包装过的回调可以避免每次调用都包装。
+   *
+   * @param lane       lane of the write/写操作的通道
+   * @param path       node path
+   * @param data       node data
+   * @param acl        node acl
+   * @param createMode create mode
+   * @param cb         callback
+   * @param ctx        callback context
+   */
+  protected void createNode(OperationLane lane, String path, byte[] data, List<ACL> acl,
+      CreateMode createMode, StringCallback cb, Object ctx) {
+    session.getWriteBatcher().create(lane, path, data, acl, createMode,
+        cb instanceof StripeCallback ? cb : stringOnStripe(cb), ctx);
+  }
+
+  /**
+   * <English>
+   * Delete a node through the write batcher of the session. The callback runs on the stripe of
+   * this primitive, pass one wrapped by <code>voidOnStripe()</code> to save wrapping it on every
+   * call.
+   *
+   * <Chinese>
+   * 通过会话的写批次删除节点。回调在本原语的分片上执行，
+   * 传入用<code>voidOnStripe()</code>包装过的回调可以避免每次调用都包装。
+   *
+   * @param lane    lane of the write/写操作的通道
+   * @param path    node path
+   * @param version expected version, -1 for any/期望的版本，-1表示任意版本
+   * @param cb      callback
+   * @param ctx     callback context
+   */
+  protected void deleteNode(OperationLane lane, String path, int version, VoidCallback cb,
+      Object ctx) {
+    session.getWriteBatcher().delete(lane, path, version,
+        cb instanceof StripeCallback ? cb : voidOnStripe(cb), ctx);
+  }
+
+  /**
+   * <English>
+   * Record an ephemeral node this primitive created, or deleted, so that it can be adopted again
+   * after the session is detached and reattached by the next JVM.
+   *
+   * <Chinese>
+   * 记录原语创建或删除的临时节点，以便会话被分离并由下一个JVM重新接入后再次认领。
+   *
+   * @param path  节点路径
+   * @param owned 是否拥有
+   */
+  protected void ownEphemeral(String path, boolean owned) {
+    session.ownEphemeral(path, owned);
+  }
+
+  /**
+   * <English>
+   * Adopt an ephemeral node the previous JVM created before it detached the session, instead of
+   * creating a new one.
+   *
+   * <Chinese>
+   * 认领上个JVM分离会话前创建的临时节点，而不是创建新节点。
+   *
+   * @param parentPath 父路径
+   * @param nodeName   Matches the name of the node to adopt./匹配要认领的节点名
+   * @return The adopted node path, or null./认领的节点路径
+   */
+  protected String adoptOrphan(String parentPath, Predicate<String> nodeName) {
+    return session.adoptOrphan(parentPath, nodeName);
+  }
+
+  /**
+   * <English>
+   * Override to have the pending operation of the primitive replayed sooner after reconnection.
+   * Primitives somebody is blocked on, such as lock waiters, should come before cache refreshes.
+   *
+   * <Chinese>
+   * 重写方法，使原语等待中的操作在重连后更早地重放。有人阻塞等待的原语（比如锁等待者）应该先于缓存刷新。
+   *
+   * @return Higher values are restarted first./值越大越先重启
+   */
+  protected int getRestartPriority() {
+    return 0;
+  }
+
   /**
    * <English>
    * Return a zkClient.
@@ -445,8 +660,60 @@ public abstract class ZkSyncPrimitive implements Watcher {
    *
    * @return zk client
    */
-  protected ZooKeeper zkClient() {
-    return zkClient;
+  protected IZkClient zkClient() {
+    IZkClient client = zkClient;
+    if (client == null) {
+      // Created before the session connected
+      client = zkClient = session.zkClient;
+    }
+    return client;
+  }
+
+  /**
+   * <English>
+   * Run the first operation of the primitive now, or once the session connects if it is not
+   * connected yet.
+   *
+   * <Chinese>
+   * 立即执行原语的第一个操作；如果会话还未连接，则在连接后执行。
+   *
+   * @param operation task
+   */
+  protected void runWhenConnected(Runnable operation) {
+    if (!session.deferUntilConnected(this, operation)) {
+      operation.run();
+    }
+  }
+
+  /**
+   * <English>
+   * Return the manager of the session this primitive operates within.
+   *
+   * <Chinese>
+   * 返回原语所在的zk会话管理。
+   *
+   * @return session manager
+   */
+  protected ZkSessionManager session() {
+    return session;
+  }
+
+  /**
+   * <English>
+   * Start or stop receiving <code>onConnected()</code>, <code>onDisConnected()</code> and
+   * <code>onSessionExpired()</code> notifications.
+   *
+   * <Chinese>
+   * 开始或停止接收连接、断开连接和会话过期的通知。
+   *
+   * @param watch whether to watch/是否关注
+   */
+  protected void watchConnection(boolean watch) {
+    if (watch) {
+      session.watchConnection(this);
+    } else {
+      session.unwatchConnection(this);
+    }
   }
 
 
@@ -497,22 +764,20 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * @param killerException kill exception
    */
   protected void die(ZkException killerException) {
-    synchronized (mutex) {
-      // Record that we have been killed off by the exception passed by a derived class.
-      // This might have been generated by a contained ZkSyncPrimitive object we were
-      // using in the course of an algorithm
-      this.killedByException = killerException;
-      // Call into derived event handler
-      onDie(killerException);
+    // Record that we have been killed off by the exception passed by a derived class.
+    // This might have been generated by a contained ZkSyncPrimitive object we were
+    // using in the course of an algorithm
+    this.killedByException = killerException;
+    // Call into derived event handler
+    onDie(killerException);
+    session.dispatch(this, () -> {
       // Notify listeners ***before*** signalling state update to allow pre-processing of error
-      if (dieListeners != null) {
-        for (Runnable handler : dieListeners) {
-          handler.run();
-        }
+      for (Runnable handler : dieListeners) {
+        handler.run();
       }
       // Death is a synchronized state!
       isSynchronized.set();
-    }
+    });
   }
 
   /**
@@ -531,29 +796,30 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * 否则根据状态，对应的进行操作。
    *
    * @param rc         The Zookeeper return code from the previous step
-   * @param acceptable The acceptable list of return codes from the previous step
+   * @param acceptable The acceptable return codes from the previous step, e.g.
+   *                   <code>PASS_OK</code>
    * @param operation  The operation from the previous step（provided so it might be retried Whether
    *                   the next step should be started）
    * @return Whether the next step should be started./下个操作是否允许。
    */
-  protected boolean passOrTryRepeat(int rc, Code[] acceptable, Runnable operation) {
+  protected boolean passOrTryRepeat(int rc, Set<Code> acceptable, Runnable operation) {
     Code opResult = Code.get(rc);
-    for (Code code : acceptable) {
-      if (opResult == code) {
-        reties = 0;
-        return true;
-      }
+    if (acceptable.contains(opResult)) {
+      reties = 0;
+      retryDelay = 0;
+      return true;
     }
     //The operation result was not acceptable. We will either retry or die...
     switch (opResult) {
       case CONNECTIONLOSS:
+      case NOTREADONLY:// A write to a read-only server, wait for a read-write connection
         retryOnConnect = operation;
         session.restartPrimitiveWhenConnected(this);
         break;
       case SESSIONMOVED:// We assume that this is caused by request flowing over "old" connection, will be resolve with time.
       case OPERATIONTIMEOUT:
         if (shouldRetryOnTimeout()) {
-          retryAfterDelay(operation, reties++);
+          retryAfterDelay(operation);
         }
         break;
       case SESSIONEXPIRED:
@@ -561,7 +827,7 @@ public abstract class ZkSyncPrimitive implements Watcher {
         break;
       default:
         if (shouldRetryOnError()) {
-          retryAfterDelay(operation, reties++);
+          retryAfterDelay(operation);
         } else {
           die(opResult);
         }
@@ -581,6 +847,19 @@ public abstract class ZkSyncPrimitive implements Watcher {
    */
   @Override
   public void process(WatchedEvent watchedEvent) {
+    session.dispatch(this, () -> processEvent(watchedEvent));
+  }
+
+  /**
+   * <English>
+   * Handle a watch event on the dispatch stripe of this primitive.
+   *
+   * <Chinese>
+   * 在原语的分发线程上处理监听事件。
+   *
+   * @param watchedEvent watch event
+   */
+  private void processEvent(WatchedEvent watchedEvent) {
     String eventPath = watchedEvent.getPath();
     EventType eventType = watchedEvent.getType();
     KeeperState keeperState = watchedEvent.getState();
@@ -632,9 +911,119 @@ public abstract class ZkSyncPrimitive implements Watcher {
    * 延迟一定时间后重试。
    *
    * @param operation task
-   * @param retries   retry times
    */
-  private void retryAfterDelay(Runnable operation, int retries) {
-    session.retryPrimitiveOperation(operation, retries);
+  private void retryAfterDelay(Runnable operation) {
+    retryDelay = session.retryPrimitiveOperation(operation, reties++, retryDelay);
+  }
+
+  /**
+   * <English>
+   * A callback run on the stripe of this primitive. The results wait in a ring buffer until the
+   * stripe takes them, in order, so handing one over does not allocate.
+   *
+   * <Chinese>
+   * 在本原语的分片上执行的回调。结果按顺序放在环形缓冲区中等待分片取走，交接时不分配内存。
+   */
+  private final class StripeCallback implements StringCallback, VoidCallback, ChildrenCallback,
+      Runnable {
+
+    //被包装的回调，只有一个不为空
+    private final StringCallback stringCallback;
+    private final VoidCallback voidCallback;
+    private final ChildrenCallback childrenCallback;
+    //等待分片处理的结果，环形数组
+    private int[] rcs = new int[4];
+    private String[] paths = new String[4];
+    private Object[] ctxs = new Object[4];
+    private Object[] results = new Object[4];
+    //队首下标
+    private int head;
+    //等待中的结果个数
+    private int size;
+
+    StripeCallback(StringCallback stringCallback, VoidCallback voidCallback,
+        ChildrenCallback childrenCallback) {
+      this.stringCallback = stringCallback;
+      this.voidCallback = voidCallback;
+      this.childrenCallback = childrenCallback;
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx, String name) {
+      deliver(rc, path, ctx, name);
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx) {
+      deliver(rc, path, ctx, null);
+    }
+
+    @Override
+    public void processResult(int rc, String path, Object ctx, List<String> children) {
+      deliver(rc, path, ctx, children);
+    }
+
+    private void deliver(int rc, String path, Object ctx, Object result) {
+      synchronized (this) {
+        if (size == rcs.length) {
+          grow();
+        }
+        int tail = (head + size) % rcs.length;
+        rcs[tail] = rc;
+        paths[tail] = path;
+        ctxs[tail] = ctx;
+        results[tail] = result;
+        size++;
+      }
+      // One run per result, the stripe runs them in order
+      session.dispatch(ZkSyncPrimitive.this, this);
+    }
+
+    private void grow() {
+      int capacity = rcs.length * 2;
+      int[] grownRcs = new int[capacity];
+      String[] grownPaths = new String[capacity];
+      Object[] grownCtxs = new Object[capacity];
+      Object[] grownResults = new Object[capacity];
+      for (int i = 0; i < size; i++) {
+        int idx = (head + i) % rcs.length;
+        grownRcs[i] = rcs[idx];
+        grownPaths[i] = paths[idx];
+        grownCtxs[i] = ctxs[idx];
+        grownResults[i] = results[idx];
+      }
+      rcs = grownRcs;
+      paths = grownPaths;
+      ctxs = grownCtxs;
+      results = grownResults;
+      head = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+      int rc;
+      String path;
+      Object ctx;
+      Object result;
+      synchronized (this) {
+        rc = rcs[head];
+        path = paths[head];
+        ctx = ctxs[head];
+        result = results[head];
+        paths[head] = null;
+        ctxs[head] = null;
+        results[head] = null;
+        head = (head + 1) % rcs.length;
+        size--;
+      }
+      if (stringCallback != null) {
+        stringCallback.processResult(rc, path, ctx, (String) result);
+      } else if (voidCallback != null) {
+        voidCallback.processResult(rc, path, ctx);
+      } else {
+        childrenCallback.processResult(rc, path, ctx, (List<String>) result);
+      }
+    }
   }
 }
@@ -0,0 +1,318 @@
+package dowhat.is.right.zk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * <English>
+ * Shares ZooKeeper watches between the primitives of a session.
+ * <p>
+ * Each path has at most one exists watch and one children watch registered with ZooKeeper,
+ * whatever the number of primitives watching it. While the watch is armed, nothing can have changed
+ * since it was set, so reads are answered from the result of the read that set it. Reads made while
+ * one is in flight join it. When the watch fires, every subscriber gets the event once, and the
+ * reads they make in response are coalesced into one. A thousand primitives watching a hot node
+ * thus cost one watch and one read per change, instead of a thousand of each.
+ *
+ * <Chinese>
+ * 在会话的原语之间共享zk watch。
+ * <p>
+ * 无论有多少原语关注，每个路径最多向zk注册一个exists watch和一个children watch。watch生效期间节点不可能有变化，
+ * 所以读操作直接使用设置watch的那次读取的结果；在途读取期间发起的读操作会合并到它上面。watch触发时，
+ * 每个订阅者收到一次事件，它们随后发起的读操作合并成一次。这样一千个原语关注同一个热点节点，
+ * 每次变化只需要一个watch和一次读取，而不是各一千个。
+ *
+ * @author 杨春炼
+ * @since 2020-05-22
+ */
+public class ZkWatchMultiplexer {
+
+  //会话
+  private final ZkSessionManager session;
+  //路径到exists watch
+  private final Map<String, Watch> existsWatches = new ConcurrentHashMap<>();
+  //路径到children watch
+  private final Map<String, Watch> childrenWatches = new ConcurrentHashMap<>();
+  //原语发起的读请求个数
+  private final LongAdder requests = new LongAdder();
+  //实际发给zk的读请求个数
+  private final LongAdder reads = new LongAdder();
+  //zk触发的watch事件个数
+  private final LongAdder events = new LongAdder();
+  //分发给订阅者的事件个数
+  private final LongAdder notifications = new LongAdder();
+
+  ZkWatchMultiplexer(ZkSessionManager session) {
+    this.session = session;
+  }
+
+  /**
+   * <English>
+   * <code>exists()</code> with a watch shared by all subscribers of the path.
+   *
+   * <Chinese>
+   * 带有路径所有订阅者共享的watch的<code>exists()</code>。
+   *
+   * @param subscriber Primitive notified when the node changes./节点变化时通知的原语
+   * @param lane       lane of the read/读取的通道
+   * @param path       node path
+   * @param cb         callback
+   * @param ctx        callback context
+   */
+  public void exists(ZkSyncPrimitive subscriber, OperationLane lane, String path, StatCallback cb,
+      Object ctx) {
+    read(existsWatches, false, subscriber, lane, path,
+        (rc, result) -> cb.processResult(rc, path, ctx, (Stat) result));
+  }
+
+  /**
+   * <English>
+   * <code>getChildren()</code> with a watch shared by all subscribers of the path. Each caller gets
+   * its own copy of the children.
+   *
+   * <Chinese>
+   * 带有路径所有订阅者共享的watch的<code>getChildren()</code>。每个调用者得到子节点的独立副本。
+   *
+   * @param subscriber Primitive notified when the children change./子节点变化时通知的原语
+   * @param lane       lane of the read/读取的通道
+   * @param path       node path
+   * @param cb         callback
+   * @param ctx        callback context
+   */
+  @SuppressWarnings("unchecked")
+  public void getChildren(ZkSyncPrimitive subscriber, OperationLane lane, String path,
+      ChildrenCallback cb, Object ctx) {
+    read(childrenWatches, true, subscriber, lane, path, (rc, result) -> cb.processResult(rc, path,
+        ctx, result == null ? null : new ArrayList<>((List<String>) result)));
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getReads() {
+    return reads.sum();
+  }
+
+  public long getEvents() {
+    return events.sum();
+  }
+
+  public long getNotifications() {
+    return notifications.sum();
+  }
+
+  /**
+   * <English>
+   * Number of paths with a watch registered or being registered.
+   *
+   * <Chinese>
+   * 已注册或正在注册watch的路径个数。
+   *
+   * @return watched paths
+   */
+  public int getWatchCount() {
+    return existsWatches.size() + childrenWatches.size();
+  }
+
+  /**
+   * <English>
+   * Pass a connection state event to every subscriber once, as ZooKeeper does for the watchers it
+   * holds. On expiry, the watches are gone with the session.
+   *
+   * <Chinese>
+   * 把连接状态事件传给每个订阅者一次，和zk对它持有的watcher一样。过期时，watch随会话消失。
+   *
+   * @param event state event
+   */
+  void onStateChanged(WatchedEvent event) {
+    Set<ZkSyncPrimitive> subscribers = new HashSet<>();
+    boolean expired = event.getState() == KeeperState.Expired;
+    for (Map<String, Watch> watches : Arrays.asList(existsWatches, childrenWatches)) {
+      for (Watch watch : watches.values()) {
+        synchronized (watch) {
+          subscribers.addAll(watch.subscribers);
+          if (expired) {
+            watch.removed = true;
+            watches.remove(watch.path, watch);
+          }
+        }
+      }
+    }
+    for (ZkSyncPrimitive subscriber : subscribers) {
+      notifications.increment();
+      subscriber.process(event);
+    }
+  }
+
+  /**
+   * <English>
+   * The session moved to a new client, which does not hold the watches set through the old one.
+   * Each armed watch fires as if its node had changed, so its subscribers read again and set it on
+   * the new client. Reads in flight fail with the old client and are retried.
+   *
+   * <Chinese>
+   * 会话移到了新客户端，新客户端没有通过旧客户端设置的watch。每个已生效的watch按节点已变化触发，
+   * 订阅者重新读取并在新客户端上设置watch。在途读取随旧客户端失败并重试。
+   */
+  void onClientReplaced() {
+    for (Map<String, Watch> watches : Arrays.asList(existsWatches, childrenWatches)) {
+      for (Watch watch : watches.values()) {
+        EventType type;
+        synchronized (watch) {
+          if (!watch.armed) {
+            continue;
+          }
+          type = watch.children ? EventType.NodeChildrenChanged
+              : watch.rc == Code.OK.intValue() ? EventType.NodeDeleted : EventType.NodeCreated;
+        }
+        watch.process(new WatchedEvent(type, KeeperState.SyncConnected, watch.path));
+      }
+    }
+  }
+
+  private void read(Map<String, Watch> watches, boolean children, ZkSyncPrimitive subscriber,
+      OperationLane lane, String path, Reply reply) {
+    requests.increment();
+    // Like the watch events, replies run in order with the events of the subscriber
+    Reply onStripe = (code, value) -> session.dispatch(subscriber, () -> reply.reply(code, value));
+    while (true) {
+      Watch watch = watches.computeIfAbsent(path, p -> new Watch(watches, p, children));
+      boolean cached;
+      boolean issue = false;
+      int rc;
+      Object result;
+      synchronized (watch) {
+        if (watch.removed) {
+          continue;
+        }
+        watch.subscribers.add(subscriber);
+        cached = watch.armed && session.isConnectedNow();
+        rc = watch.rc;
+        result = watch.result;
+        if (!cached) {
+          watch.waiting.add(onStripe);
+          if (!watch.inFlight) {
+            watch.inFlight = issue = true;
+          }
+        }
+      }
+      if (cached) {
+        onStripe.reply(rc, result);
+      } else if (issue) {
+        reads.increment();
+        watch.issue(lane);
+      }
+      return;
+    }
+  }
+
+  /**
+   * The result of a shared read, for one caller
+   */
+  @FunctionalInterface
+  private interface Reply {
+
+    void reply(int rc, Object result);
+  }
+
+  /**
+   * One ZooKeeper watch, shared by the subscribers of a path
+   */
+  private final class Watch implements Watcher {
+
+    //所在的表
+    private final Map<String, Watch> watches;
+    //路径
+    private final String path;
+    //是children watch还是exists watch
+    private final boolean children;
+    //watch触发时通知的原语
+    private Set<ZkSyncPrimitive> subscribers = new HashSet<>();
+    //等待在途读取结果的调用者
+    private List<Reply> waiting = new ArrayList<>();
+    //是否有读取在途
+    private boolean inFlight;
+    //watch是否已在zk注册且未触发，此时result仍然有效
+    private boolean armed;
+    //设置watch的读取的结果
+    private int rc;
+    private Object result;
+    //是否已从表中移除
+    private boolean removed;
+
+    Watch(Map<String, Watch> watches, String path, boolean children) {
+      this.watches = watches;
+      this.path = path;
+      this.children = children;
+    }
+
+    void issue(OperationLane lane) {
+      InFlightGate gate = session.getInFlightGate();
+      if (children) {
+        gate.issue(lane, () -> session.zkClient.getChildren(path, this,
+            gate.wrapChildren((rc, p, ctx, children) -> completed(rc, children)), null));
+      } else {
+        gate.issue(lane, () -> session.zkClient.exists(path, this,
+            gate.wrapStat((rc, p, ctx, stat) -> completed(rc, stat)), null));
+      }
+    }
+
+    private void completed(int rc, Object result) {
+      List<Reply> replies;
+      synchronized (this) {
+        inFlight = false;
+        // exists() leaves a watch on a missing node too, getChildren() does not
+        if (rc == Code.OK.intValue() || (!children && rc == Code.NONODE.intValue())) {
+          armed = true;
+          this.rc = rc;
+          this.result = result;
+        }
+        replies = waiting;
+        waiting = new ArrayList<>();
+      }
+      for (Reply reply : replies) {
+        reply.reply(rc, result);
+      }
+    }
+
+    @Override
+    public void process(WatchedEvent event) {
+      if (event.getType() == EventType.None) {
+        // Connection state is passed on once per subscriber by onStateChanged()
+        return;
+      }
+      events.increment();
+      Set<ZkSyncPrimitive> fired;
+      synchronized (this) {
+        armed = false;
+        result = null;
+        fired = subscribers;
+        subscribers = new HashSet<>();
+        if (!inFlight) {
+          // Recreated by the next read
+          removed = true;
+          watches.remove(path, this);
+        }
+      }
+      for (ZkSyncPrimitive subscriber : fired) {
+        notifications.increment();
+        subscriber.process(event);
+      }
+    }
+  }
+}
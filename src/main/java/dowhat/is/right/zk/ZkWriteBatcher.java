@@ -0,0 +1,300 @@
+package dowhat.is.right.zk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.OpResult.CreateResult;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.data.ACL;
+
+/**
+ * <English>
+ * Batches the independent creates and deletes of a session's primitives into
+ * <code>multi()</code> transactions.
+ * <p>
+ * Only writes expected to succeed are batched: creates of sequential ephemeral nodes, such as lock
+ * nodes, whose names cannot collide, and deletes of nodes the primitive owns. Other creates, e.g. of
+ * persistent paths that usually exist already, are sent alone, so that their NODEEXISTS does not
+ * abort a transaction.
+ * <p>
+ * Off by default. With a window set, the first write of a batch waits up to the window for others
+ * to join it, and the batch is sent as one transaction, taking one in-flight slot, on the most
+ * urgent lane of its writes. Each write's callback then gets its own result, exactly as if it had
+ * been sent alone. Since a transaction is atomic, one failing write rolls back the others: the
+ * failing write gets its error, and the writes rolled back with it are sent again alone, so that
+ * they succeed or fail on their own merits.
+ *
+ * <Chinese>
+ * 把会话中各原语独立的创建和删除合并成<code>multi()</code>事务。
+ * <p>
+ * 只合并预期会成功的写操作：创建临时顺序节点（如锁节点，名字不会冲突），以及删除原语自己的节点。
+ * 其他创建操作，例如通常已经存在的持久路径，单独发出，避免它们的NODEEXISTS中止事务。
+ * <p>
+ * 默认关闭。设置窗口后，批次中的第一个写操作最多等待一个窗口，让其他写操作加入，然后整批作为一个事务发出，
+ * 占用一个在途名额，使用批次中最紧急的通道。每个写操作的回调得到自己的结果，和单独发出时完全一样。
+ * 由于事务是原子的，一个写操作失败会回滚其他写操作：失败的写操作得到它的错误，被一起回滚的写操作单独重发，
+ * 各自成功或失败。
+ *
+ * @author 杨春炼
+ * @since 2020-05-23
+ */
+public class ZkWriteBatcher {
+
+  //会话
+  private final ZkSessionManager session;
+  //刷新批次的定时器
+  private final ScheduledExecutorService timer;
+  //等待发出的写操作（只在this的锁内访问）
+  private List<Write> pending = new ArrayList<>();
+  //是否已安排刷新（只在this的锁内访问）
+  private boolean flushScheduled;
+  //批次窗口（纳秒），0表示不合并
+  private volatile long windowNanos;
+  //单个批次的最大写操作个数
+  private volatile int maxBatchSize = 100;
+  //提交的写操作个数
+  private final LongAdder writes = new LongAdder();
+  //发出的事务个数
+  private final LongAdder transactions = new LongAdder();
+  //因事务中其他写操作失败而回滚重发的个数
+  private final LongAdder rolledBack = new LongAdder();
+
+  ZkWriteBatcher(ZkSessionManager session, ScheduledExecutorService timer) {
+    this.session = session;
+    this.timer = timer;
+  }
+
+  /**
+   * <English>
+   * How long the first write of a batch waits for others, 0 to send every write alone.
+   *
+   * <Chinese>
+   * 批次中第一个写操作等待其他写操作的时间，0表示每个写操作单独发出。
+   *
+   * @param window window
+   * @param unit   time unit/时间单位
+   */
+  public void setWindow(long window, TimeUnit unit) {
+    windowNanos = unit.toNanos(window);
+  }
+
+  /**
+   * <English>
+   * A batch reaching this size is sent without waiting for the end of the window.
+   *
+   * <Chinese>
+   * 批次达到这个大小时不等窗口结束立即发出。
+   *
+   * @param maxBatchSize max writes per transaction/每个事务的最大写操作个数
+   */
+  public void setMaxBatchSize(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("max batch size must be greater than or equals to 1");
+    }
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public long getWrites() {
+    return writes.sum();
+  }
+
+  public long getTransactions() {
+    return transactions.sum();
+  }
+
+  public long getRolledBack() {
+    return rolledBack.sum();
+  }
+
+  /**
+   * <English>
+   * Create a node, alone or in a batch. Same contract as <code>ZooKeeper.create()</code>. Only
+   * sequential ephemeral nodes are batched.
+   *
+   * <Chinese>
+   * 单独或者批量创建节点，约定和<code>ZooKeeper.create()</code>相同。只有临时顺序节点会被合并。
+   *
+   * @param lane       lane of the write/写操作的通道
+   * @param path       node path
+   * @param data       node data
+   * @param acl        node acl
+   * @param createMode create mode
+   * @param cb         callback
+   * @param ctx        callback context
+   */
+  public void create(OperationLane lane, String path, byte[] data, List<ACL> acl,
+      CreateMode createMode, StringCallback cb, Object ctx) {
+    Write write = new Write(lane, path, data, acl, createMode, -1, cb, null, ctx);
+    if (createMode != CreateMode.EPHEMERAL_SEQUENTIAL) {
+      writes.increment();
+      write.sendAlone();
+      return;
+    }
+    submit(write);
+  }
+
+  /**
+   * <English>
+   * Delete a node, alone or in a batch. Same contract as <code>ZooKeeper.delete()</code>.
+   *
+   * <Chinese>
+   * 单独或者批量删除节点，约定和<code>ZooKeeper.delete()</code>相同。
+   *
+   * @param lane    lane of the write/写操作的通道
+   * @param path    node path
+   * @param version expected version, -1 for any/期望的版本，-1表示任意版本
+   * @param cb      callback
+   * @param ctx     callback context
+   */
+  public void delete(OperationLane lane, String path, int version, VoidCallback cb, Object ctx) {
+    submit(new Write(lane, path, null, null, null, version, null, cb, ctx));
+  }
+
+  private void submit(Write write) {
+    writes.increment();
+    long window = windowNanos;
+    if (window == 0) {
+      write.sendAlone();
+      return;
+    }
+    List<Write> full = null;
+    synchronized (this) {
+      pending.add(write);
+      if (pending.size() >= maxBatchSize) {
+        full = takeBatch();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        timer.schedule(this::flush, window, TimeUnit.NANOSECONDS);
+      }
+    }
+    if (full != null) {
+      send(full);
+    }
+  }
+
+  private void flush() {
+    List<Write> batch;
+    synchronized (this) {
+      flushScheduled = false;
+      batch = takeBatch();
+    }
+    send(batch);
+  }
+
+  private List<Write> takeBatch() {
+    List<Write> batch = pending;
+    pending = new ArrayList<>();
+    return batch;
+  }
+
+  private void send(List<Write> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    if (batch.size() == 1) {
+      batch.get(0).sendAlone();
+      return;
+    }
+    transactions.increment();
+    List<Op> ops = new ArrayList<>(batch.size());
+    OperationLane lane = OperationLane.BULK;
+    for (Write write : batch) {
+      ops.add(write.toOp());
+      if (write.lane.ordinal() < lane.ordinal()) {
+        lane = write.lane;
+      }
+    }
+    InFlightGate gate = session.getInFlightGate();
+    MultiCallback callback = (rc, path, ctx, results) -> completed(batch, rc, results);
+    gate.issue(lane, () -> session.zkClient.multi(ops, gate.wrapMulti(callback), null));
+  }
+
+  private void completed(List<Write> batch, int rc, List<OpResult> results) {
+    if (results == null || results.size() != batch.size()) {
+      // Nothing known of the individual writes, e.g. connection loss
+      for (Write write : batch) {
+        write.completed(rc, null);
+      }
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      Write write = batch.get(i);
+      OpResult result = results.get(i);
+      if (!(result instanceof ErrorResult)) {
+        write.completed(Code.OK.intValue(), result);
+        continue;
+      }
+      int err = ((ErrorResult) result).getErr();
+      if (err == Code.OK.intValue() || err == Code.RUNTIMEINCONSISTENCY.intValue()) {
+        // Rolled back because of another write of the transaction
+        rolledBack.increment();
+        write.sendAlone();
+      } else {
+        write.completed(err, null);
+      }
+    }
+  }
+
+  /**
+   * A create or delete, with the callback of the primitive
+   */
+  private final class Write {
+
+    private final OperationLane lane;
+    private final String path;
+    private final byte[] data;
+    private final List<ACL> acl;
+    private final CreateMode createMode;
+    private final int version;
+    private final StringCallback createCallback;
+    private final VoidCallback deleteCallback;
+    private final Object ctx;
+
+    Write(OperationLane lane, String path, byte[] data, List<ACL> acl, CreateMode createMode,
+        int version, StringCallback createCallback, VoidCallback deleteCallback, Object ctx) {
+      this.lane = lane;
+      this.path = path;
+      this.data = data;
+      this.acl = acl;
+      this.createMode = createMode;
+      this.version = version;
+      this.createCallback = createCallback;
+      this.deleteCallback = deleteCallback;
+      this.ctx = ctx;
+    }
+
+    Op toOp() {
+      return createCallback != null ? Op.create(path, data, acl, createMode)
+          : Op.delete(path, version);
+    }
+
+    void sendAlone() {
+      InFlightGate gate = session.getInFlightGate();
+      if (createCallback != null) {
+        gate.issue(lane, () -> session.zkClient.create(path, data, acl, createMode,
+            gate.wrapString(createCallback), ctx));
+      } else {
+        gate.issue(lane, () -> session.zkClient.delete(path, version,
+            gate.wrapVoid(deleteCallback), ctx));
+      }
+    }
+
+    void completed(int rc, OpResult result) {
+      if (createCallback != null) {
+        String name = result instanceof CreateResult ? ((CreateResult) result).getPath() : null;
+        createCallback.processResult(rc, path, ctx, name);
+      } else {
+        deleteCallback.processResult(rc, path, ctx);
+      }
+    }
+  }
+}
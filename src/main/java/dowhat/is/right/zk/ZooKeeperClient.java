@@ -0,0 +1,32 @@
+package dowhat.is.right.zk;
+
+import java.io.IOException;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * <English>
+ * {@link IZkClient} over a real ZooKeeper ensemble.
+ *
+ * <Chinese>
+ * 基于真实zk集群的{@link IZkClient}。
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+final class ZooKeeperClient extends ZooKeeper implements IZkClient {
+
+  ZooKeeperClient(String connectString, int sessionTimeout, Watcher watcher, long sessionId,
+      byte[] sessionPasswd, boolean canBeReadOnly) throws IOException {
+    super(connectString, sessionTimeout, watcher, sessionId,
+        sessionPasswd == null ? new byte[16] : sessionPasswd, canBeReadOnly);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void detach() {
+    cnxn.disconnect();
+  }
+}
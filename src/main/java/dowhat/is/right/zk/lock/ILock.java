@@ -1,6 +1,7 @@
 package dowhat.is.right.zk.lock;
 
 import dowhat.is.right.zk.ZkException;
+import java.util.concurrent.TimeUnit;
 import lombok.Getter;
 
 /**
@@ -117,11 +118,43 @@ public interface ILock {
    */
   LockType getType();
 
+  /**
+   * <English>
+   * Cheap check whether the lock is held and is certain to stay held for the given duration.
+   * <p>
+   * After disconnection from ZooKeeper a held lock becomes suspect, and this counts down locally to
+   * the earliest moment the session, and the lock with it, may have been lost. Hot loops can check
+   * this to pause or checkpoint instead of doing work that will have to be rolled back.
+   *
+   * <Chinese>
+   * 开销很小的检查：锁是否被持有，且在给定时长内一定仍被持有。
+   * <p>
+   * 与zk断开连接后，持有的锁变为可疑状态，本方法在本地倒计时到会话（以及锁）可能丢失的最早时刻。
+   * 循环中的业务可以据此暂停或保存进度，避免做需要回滚的无用功。
+   *
+   * @param duration time
+   * @param unit     unit
+   * @return whether the lock is valid for the duration./锁在给定时长内是否有效
+   */
+  boolean isValidFor(long duration, TimeUnit unit);
+
+  /**
+   * <English>
+   * Whether the lock is held but we are disconnected from ZooKeeper, so it may be lost.
+   *
+   * <Chinese>
+   * 锁是否被持有，但与zk断开了连接，可能已经丢失。
+   *
+   * @return whether the lock is suspect./锁是否可疑
+   */
+  boolean isSuspect();
+
   /**
    * 锁的状态
    */
   enum LockState {
     IDLE("空闲"),
+    RESERVED("已预约"),
     WAITING("等待"),
     ABANDONED("已遗弃"),
     ACQUIRED("已获得"),
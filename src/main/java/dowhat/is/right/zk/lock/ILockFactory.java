@@ -0,0 +1,32 @@
+package dowhat.is.right.zk.lock;
+
+import dowhat.is.right.zk.lock.ILock.LockType;
+
+/**
+ * <English>
+ * Builds the single path locks a multi-path lock is made of. Implement this to serve some paths
+ * from a backend other than ZooKeeper, e.g. a Redis lease or an in-process lock, while still taking
+ * part in the sorted multi-path acquisition.
+ *
+ * <Chinese>
+ * 构建组成多路径锁的单路径锁。实现该接口可以让部分路径使用zk以外的后端（比如redis租约或进程内锁），
+ * 同时仍参与多路径锁的排序获取。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public interface ILockFactory {
+
+  /**
+   * <English>
+   * Create a new, idle lock on a path.
+   *
+   * <Chinese>
+   * 创建一个路径上的空闲锁。
+   *
+   * @param lockPath The path to lock./加锁的路径
+   * @param type     READ or WRITE./读锁或写锁
+   * @return a new lock./新锁
+   */
+  ISinglePathLock newLock(String lockPath, LockType type);
+}
@@ -0,0 +1,49 @@
+package dowhat.is.right.zk.lock;
+
+/**
+ * <English>
+ * Call back methods reporting whether a held lock can still be relied upon while the connection to
+ * ZooKeeper comes and goes.
+ *
+ * <Chinese>
+ * 回调方法：在与zk的连接断开和恢复时，报告持有的锁是否仍然可靠。
+ *
+ * @author 杨春炼
+ * @since 2020-05-06
+ */
+public interface ILockValidityListener {
+
+  /**
+   * <English>
+   * We were disconnected while holding the lock. It may be lost once the countdown runs out.
+   *
+   * <Chinese>
+   * 持有锁时断开了连接，倒计时结束后锁可能丢失。
+   *
+   * @param lock            The suspect lock./可疑的锁
+   * @param remainingMillis Time left before the lock may be lost./锁可能丢失前的剩余时间
+   */
+  void onLockSuspect(ILock lock, long remainingMillis);
+
+  /**
+   * <English>
+   * We reconnected within the session timeout, the lock is held as before.
+   *
+   * <Chinese>
+   * 在会话超时前重新连接，锁仍然被持有。
+   *
+   * @param lock The lock./锁
+   */
+  void onLockRestored(ILock lock);
+
+  /**
+   * <English>
+   * The session expired, the lock has been lost.
+   *
+   * <Chinese>
+   * 会话过期，锁已经丢失。
+   *
+   * @param lock The lost lock./丢失的锁
+   */
+  void onLockLost(ILock lock);
+}
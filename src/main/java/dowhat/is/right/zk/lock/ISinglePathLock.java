@@ -1,5 +1,7 @@
 package dowhat.is.right.zk.lock;
 
+import dowhat.is.right.zk.ZkException;
+
 /**
  * @author 杨春炼
  * @since 2020-04-03
@@ -16,4 +18,44 @@ public interface ISinglePathLock extends ILock, Comparable<ISinglePathLock> {
    * @return The path the lock is attempting to lock./准备加锁的路径
    */
   String getLockPath();
+
+  /**
+   * <English>
+   * Enqueue this lock's node on its path ahead of time, without claiming the lock.
+   * <p>
+   * The node keeps its place in the queue, so a later <code>acquire()</code> or
+   * <code>tryAcquire()</code> only waits for the nodes that were already ahead of it and skips the
+   * round trips needed to create the path and the node.
+   * <p>
+   * Note that arrivals after the reservation queue up behind it, so only reserve shortly before the
+   * critical section. Call <code>release()</code> to give up an unused reservation.
+   *
+   * <Chinese>
+   * 提前在路径上排队，但不获取锁。
+   * <p>
+   * 节点保持在队列中的位置，之后调用<code>acquire()</code>或<code>tryAcquire()</code>时，
+   * 只需等待排在前面的节点，省去创建路径和节点的网络往返。
+   * <p>
+   * 注意：预约之后到达的请求会排在它后面，所以只应在临界区之前不久预约。不再需要时调用<code>release()</code>放弃预约。
+   *
+   * @throws ZkException zk exception
+   */
+  void reserve() throws ZkException;
+
+  /**
+   * <English>
+   * Single path locks sort by path, whatever their backend, so multi-path locks mixing backends
+   * still acquire in one global order.
+   *
+   * <Chinese>
+   * 单路径锁按路径排序，与后端无关，所以混合不同后端的多路径锁仍按同一个全局顺序获取。
+   *
+   * @param other other lock
+   * @return compare result
+   */
+  @Override
+  default int compareTo(ISinglePathLock other) {
+    int result = getLockPath().compareTo(other.getLockPath());
+    return result == 0 ? (getType() == other.getType() ? 1 : 0) : result;
+  }
 }
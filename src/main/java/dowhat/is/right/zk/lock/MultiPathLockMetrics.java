@@ -0,0 +1,148 @@
+package dowhat.is.right.zk.lock;
+
+import dowhat.is.right.zk.lock.ZkMultiPathLock.AcquireStrategy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <English>
+ * Process wide counters of blocking multi-path lock acquisitions, kept per acquire strategy so the
+ * strategies can be compared under the same load.
+ *
+ * <Chinese>
+ * 进程级的多路径锁阻塞获取统计，按获取策略分别记录，便于在相同负载下比较不同策略。
+ *
+ * @author 杨春炼
+ * @since 2020-05-07
+ */
+public final class MultiPathLockMetrics {
+
+  private static final Map<AcquireStrategy, MultiPathLockMetrics> METRICS;
+
+  static {
+    METRICS = new EnumMap<>(AcquireStrategy.class);
+    for (AcquireStrategy strategy : AcquireStrategy.values()) {
+      METRICS.put(strategy, new MultiPathLockMetrics(strategy));
+    }
+  }
+
+  private final AcquireStrategy strategy;
+  //成功获取次数
+  private final LongAdder acquisitions = new LongAdder();
+  //失败次数（包括超出最大尝试次数）
+  private final LongAdder failures = new LongAdder();
+  //尝试获取全部路径的轮数
+  private final LongAdder attempts = new LongAdder();
+  //退避次数
+  private final LongAdder backOffs = new LongAdder();
+  //退避总时间（毫秒）
+  private final LongAdder backOffMillis = new LongAdder();
+  //成功获取的总等待时间（纳秒）
+  private final LongAdder waitNanos = new LongAdder();
+  //成功获取的最长等待时间（纳秒）
+  private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+  private MultiPathLockMetrics(AcquireStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  /**
+   * <English>
+   * Get the metrics of a strategy.
+   *
+   * <Chinese>
+   * 获取某个策略的统计。
+   *
+   * @param strategy acquire strategy
+   * @return metrics
+   */
+  public static MultiPathLockMetrics of(AcquireStrategy strategy) {
+    return METRICS.get(strategy);
+  }
+
+  void onAcquired(long elapsedNanos) {
+    acquisitions.increment();
+    waitNanos.add(elapsedNanos);
+    maxWaitNanos.accumulate(elapsedNanos);
+  }
+
+  void onFailed() {
+    failures.increment();
+  }
+
+  void onAttempt() {
+    attempts.increment();
+  }
+
+  void onBackOff(int delayMillis) {
+    backOffs.increment();
+    backOffMillis.add(delayMillis);
+  }
+
+  public AcquireStrategy getStrategy() {
+    return strategy;
+  }
+
+  public long getAcquisitions() {
+    return acquisitions.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public long getAttempts() {
+    return attempts.sum();
+  }
+
+  public long getBackOffs() {
+    return backOffs.sum();
+  }
+
+  public long getBackOffMillis() {
+    return backOffMillis.sum();
+  }
+
+  /**
+   * @return Mean time to acquire, over successful acquisitions./成功获取的平均等待时间
+   */
+  public double getMeanWaitMillis() {
+    long count = acquisitions.sum();
+    return count == 0 ? 0 : waitNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * @return Longest time to acquire, over successful acquisitions./成功获取的最长等待时间
+   */
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  /**
+   * Reset all counters, e.g. between benchmark runs.
+   */
+  public void reset() {
+    acquisitions.reset();
+    failures.reset();
+    attempts.reset();
+    backOffs.reset();
+    backOffMillis.reset();
+    waitNanos.reset();
+    maxWaitNanos.reset();
+  }
+
+  @Override
+  public String toString() {
+    return strategy + "{acquisitions=" + getAcquisitions()
+        + ", failures=" + getFailures()
+        + ", attempts=" + getAttempts()
+        + ", backOffs=" + getBackOffs()
+        + ", backOffMillis=" + getBackOffMillis()
+        + ", meanWaitMillis=" + getMeanWaitMillis()
+        + ", maxWaitMillis=" + getMaxWaitMillis()
+        + "}";
+  }
+}
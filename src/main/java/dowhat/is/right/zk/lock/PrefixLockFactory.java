@@ -0,0 +1,88 @@
+package dowhat.is.right.zk.lock;
+
+import dowhat.is.right.zk.lock.ILock.LockType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <English>
+ * Routes each lock path to the factory registered for its longest matching path prefix, and to a
+ * default factory when no prefix matches. Prefixes match whole path nodes, so "/hot" matches
+ * "/hot" and "/hot/a" but not "/hotel".
+ *
+ * <Chinese>
+ * 按最长匹配的路径前缀，把每个锁路径路由到注册的锁工厂，没有匹配时使用默认工厂。
+ * 前缀按完整节点匹配，比如"/hot"匹配"/hot"和"/hot/a"，但不匹配"/hotel"。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public class PrefixLockFactory implements ILockFactory {
+
+  private final ILockFactory defaultFactory;
+  private final Map<String, ILockFactory> factoryByPrefix;
+
+  public PrefixLockFactory() {
+    this(new ZkLockFactory());
+  }
+
+  public PrefixLockFactory(ILockFactory defaultFactory) {
+    this.defaultFactory = defaultFactory;
+    factoryByPrefix = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * <English>
+   * Serve all lock paths under a prefix from a factory.
+   *
+   * <Chinese>
+   * 前缀下的所有锁路径都由指定工厂构建。
+   *
+   * @param prefix  path prefix e.g. "/hot"/路径前缀
+   * @param factory lock factory/锁工厂
+   * @return this, for chaining
+   */
+  public PrefixLockFactory register(String prefix, ILockFactory factory) {
+    if (prefix.length() > 1 && prefix.endsWith("/")) {
+      prefix = prefix.substring(0, prefix.length() - 1);
+    }
+    factoryByPrefix.put(prefix, factory);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ISinglePathLock newLock(String lockPath, LockType type) {
+    return factoryFor(lockPath).newLock(lockPath, type);
+  }
+
+  /**
+   * <English>
+   * Find the factory for a path by walking up its ancestors.
+   *
+   * <Chinese>
+   * 沿着祖先路径向上查找路径对应的工厂。
+   *
+   * @param lockPath lock path
+   * @return lock factory
+   */
+  public ILockFactory factoryFor(String lockPath) {
+    String prefix = lockPath;
+    while (true) {
+      ILockFactory factory = factoryByPrefix.get(prefix);
+      if (factory != null) {
+        return factory;
+      }
+      int lastPathSep = prefix.lastIndexOf('/');
+      if (lastPathSep > 0) {
+        prefix = prefix.substring(0, lastPathSep);
+      } else if (lastPathSep == 0 && prefix.length() > 1) {
+        prefix = "/";
+      } else {
+        return defaultFactory;
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package dowhat.is.right.zk.lock;
 
+import dowhat.is.right.zk.OperationLane;
 import dowhat.is.right.zk.ZkException;
 import dowhat.is.right.zk.ZkPath;
 import dowhat.is.right.zk.ZkSessionManager;
@@ -7,6 +8,8 @@ import dowhat.is.right.zk.ZkSyncPrimitive;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
 import org.apache.zookeeper.AsyncCallback.StringCallback;
@@ -30,7 +33,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
     ISinglePathLock {
 
   //互斥锁
-  private final Integer mutex;
+  private final Object mutex = new Object();
   //锁路径
   private String lockPath;
   //上下文
@@ -38,7 +41,9 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   //zk路径
   private ZkPath zkPath;
   //当前nodeId
-  private String thisNodeId;
+  private volatile String thisNodeId;
+  //锁节点是否已删除，之后不再跟踪队列
+  private volatile boolean nodeReleased;
   //当前阻塞的锁nodeId
   private String blockingNodeId;
   //监听器
@@ -47,15 +52,25 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   private boolean tryAcquireOnly;
   //锁状态
   private volatile LockState lockState;
+  //预约的节点是否已经排入队列
+  private boolean reservationQueued;
+  //进入等待状态后需要继续执行的步骤
+  private Runnable pendingStep;
+  //锁有效性监听器
+  private final List<ILockValidityListener> validityListeners = new CopyOnWriteArrayList<>();
   private VoidCallback releaseLockHandler =
-      (rc, path, ctx) -> passOrTryRepeat(rc, new Code[]{Code.OK, Code.NONODE}, (Runnable) ctx);
+      (rc, path, ctx) -> passOrTryRepeat(rc, PASS_OK_OR_NONODE, (Runnable) ctx);
+  private final VoidCallback releaseLockCallback = voidOnStripe(releaseLockHandler);
   /**
    * Only delete the node.
    */
   private Runnable releaseLock = new Runnable() {
     @Override
     public void run() {
-      zkClient().delete(zkPath.getTargetPath() + "/" + thisNodeId, -1, releaseLockHandler, this);
+      String path = zkPath.getTargetPath() + "/" + thisNodeId;
+      nodeReleased = true;
+      ownEphemeral(path, false);
+      deleteNode(OperationLane.RELEASE, path, -1, releaseLockCallback, this);
     }
   };
   private Runnable onLockPathError = new Runnable() {
@@ -75,7 +90,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
     public void processResult(int rc, String path, Object ctx, List<String> children) {
       // Upon successful enumeration of lock nodes, see if any are blocking this...
       // 查看孩子节点，是否有阻塞父节点的情况
-      if (passOrTryRepeat(rc, new Code[]{Code.OK}, (Runnable) ctx)) {
+      if (passOrTryRepeat(rc, PASS_OK, (Runnable) ctx)) {
         // Create sorted list of nodes.
         SortedSet<ZkLockNode> nodeQueue = new TreeSet<>();
         for (String lockId : children) {
@@ -119,27 +134,31 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
       }
     }
   };
+  private final ChildrenCallback queuedLocksCallback = wrapChildren(queuedLocksHandler);
   /**
    * Get the children locks.
    */
   private Runnable getQueuedLocks = new Runnable() {
     @Override
     public void run() {
-      zkClient().getChildren(zkPath.getTargetPath(), null, queuedLocksHandler, this);
+      // Once we have been blocked, checking the queue again is a handoff
+      OperationLane lane = blockingNodeId == null ? OperationLane.ACQUIRE : OperationLane.RELEASE;
+      issue(lane, () -> zkClient()
+          .getChildren(zkPath.getTargetPath(), null, queuedLocksCallback, this));
     }
   };
   private StatCallback blockingNodeHandler = (rc, path, ctx, stat) -> {
     if (rc == Code.NONODE.intValue()) {
       getQueuedLocks.run();
     } else {
-      passOrTryRepeat(rc, new Code[]{Code.OK}, (Runnable) ctx);
+      passOrTryRepeat(rc, PASS_OK, (Runnable) ctx);
     }
   };
   private Runnable watchBlockingNode = new Runnable() {
     @Override
     public void run() {
       String path = zkPath.getTargetPath() + "/" + blockingNodeId;
-      zkClient().exists(path, ZkLockBase.this, blockingNodeHandler, this);
+      watchExists(OperationLane.ACQUIRE, path, blockingNodeHandler, this);
     }
   };
   /**
@@ -152,27 +171,45 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   private StringCallback createLockNodeHandler = (rc, path, ctx, name) -> {
     if (Code.OK.intValue() == rc) {
       thisNodeId = ZkLockNode.getLockNodeIdFromName(name);
+      ownEphemeral(name, true);
     }
-    if (passOrTryRepeat(rc, new Code[]{Code.OK}, (Runnable) ctx)) {
+    if (passOrTryRepeat(rc, PASS_OK, (Runnable) ctx) && !holdReservation()) {
       getQueuedLocks.run();
     }
   };
+  private final StringCallback createLockNodeCallback = stringOnStripe(createLockNodeHandler);
   /**
    * Create lock node in the target path.
    */
   private Runnable createLockNode = new Runnable() {
     @Override
     public void run() {
-      String path = zkPath.getTargetPath() + "/" + getType() + "-";
-      zkClient().create(
+      String prefix = getType() + "-";
+      String adopted = adoptOrphan(zkPath.getTargetPath(), name -> name.startsWith(prefix));
+      if (adopted != null) {
+        // Our node from before the restart, keep its position in the queue
+        createLockNodeHandler.processResult(Code.OK.intValue(), adopted, this, adopted);
+        return;
+      }
+      String path = zkPath.getTargetPath() + "/" + prefix;
+      createNode(OperationLane.ACQUIRE,
           path,
           new byte[0],
           ZooDefs.Ids.OPEN_ACL_UNSAFE,
           CreateMode.EPHEMERAL_SEQUENTIAL,
-          createLockNodeHandler,
+          createLockNodeCallback,
           this);
     }
   };
+  /**
+   * Start from scratch: create the lock path, then the lock node.
+   */
+  private Runnable startFromRoot = new Runnable() {
+    @Override
+    public void run() {
+      createRootPath(lockPath);
+    }
+  };
   private Runnable reportStateUpdatedToListener = () -> {
     if (tryAcquireOnly && lockState != LockState.ACQUIRED) {
       // We know that an error has not occurred, because that is passed to handler below. So report attempt
@@ -188,11 +225,14 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   };
 
   public ZkLockBase(String lockPath) {
-    super(ZkSessionManager.instance());
+    this(ZkSessionManager.instance(lockPath), lockPath);
+  }
+
+  public ZkLockBase(ZkSessionManager session, String lockPath) {
+    super(session);
     PathUtils.validatePath(lockPath);
     lockState = LockState.IDLE;
     this.lockPath = lockPath;
-    mutex = -1;
   }
 
   /**
@@ -201,7 +241,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   @Override
   public void acquire() throws ZkException {
     setLockState(LockState.WAITING);
-    createRootPath(lockPath);
+    continueAcquisition();
     waitSynchronized();
   }
 
@@ -211,12 +251,14 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   @Override
   public void acquire(ILockListener listener, Object context)
       throws ZkException {
-    setLockState(LockState.WAITING);
-    this.listener = listener;
-    this.context = context;
-    addUpdateListener(reportStateUpdatedToListener, false);
-    addDieListener(reportDieToListener);
-    createRootPath(lockPath);
+    synchronized (mutex) {
+      setLockState(LockState.WAITING);
+      this.listener = listener;
+      this.context = context;
+      addUpdateListener(reportStateUpdatedToListener, false);
+      addDieListener(reportDieToListener);
+    }
+    continueAcquisition();
   }
 
   /**
@@ -224,9 +266,11 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
    */
   @Override
   public boolean tryAcquire() throws ZkException {
-    setLockState(LockState.WAITING);//Only the idle state can set waiting.
-    tryAcquireOnly = true;
-    createRootPath(lockPath);
+    synchronized (mutex) {
+      setLockState(LockState.WAITING);//Only the idle or reserved state can set waiting.
+      tryAcquireOnly = true;
+    }
+    continueAcquisition();
     waitSynchronized();
     return lockState == LockState.ACQUIRED;
   }
@@ -237,12 +281,23 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
   @Override
   public void tryAcquire(ITryLockListener listener, Object context)
       throws ZkException {
-    setLockState(LockState.WAITING);
-    this.listener = listener;
-    this.context = context;
-    tryAcquireOnly = true;
-    addUpdateListener(reportStateUpdatedToListener, false);
-    addDieListener(reportDieToListener);
+    synchronized (mutex) {
+      setLockState(LockState.WAITING);
+      this.listener = listener;
+      this.context = context;
+      tryAcquireOnly = true;
+      addUpdateListener(reportStateUpdatedToListener, false);
+      addDieListener(reportDieToListener);
+    }
+    continueAcquisition();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void reserve() throws ZkException {
+    setLockState(LockState.RESERVED);
     createRootPath(lockPath);
   }
 
@@ -262,6 +317,49 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
     return lockState;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isValidFor(long duration, TimeUnit unit) {
+    return lockState == LockState.ACQUIRED && session().isSessionValidFor(duration, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isSuspect() {
+    return lockState == LockState.ACQUIRED && session().isSuspect();
+  }
+
+  /**
+   * <English>
+   * Add a listener to be told when the held lock becomes suspect after disconnection, is restored on
+   * reconnection, or is lost on session expiry.
+   *
+   * <Chinese>
+   * 添加监听器：持有的锁在断开连接后变为可疑、重新连接后恢复或会话过期后丢失时得到通知。
+   *
+   * @param listener 监听器
+   */
+  public void addValidityListener(ILockValidityListener listener) {
+    validityListeners.add(listener);
+  }
+
+  /**
+   * <English>
+   * Remove a validity listener.
+   *
+   * <Chinese>
+   * 删除有效性监听器。
+   *
+   * @param listener 监听器
+   */
+  public void removeValidityListener(ILockValidityListener listener) {
+    validityListeners.remove(listener);
+  }
+
   /**
    * What path does this instance lock?
    *
@@ -272,12 +370,6 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
     return lockPath;
   }
 
-  @Override
-  public int compareTo(ISinglePathLock other) {
-    int result = getLockPath().compareTo(other.getLockPath());
-    return result == 0 ? (getType() == other.getType() ? 1 : 0) : result;
-  }
-
   /**
    * <English>
    * create root path
@@ -288,21 +380,109 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
    * @param path 路径
    */
   private void createRootPath(String path) {
-    zkPath = new ZkPath(path, CreateMode.PERSISTENT);
+    zkPath = new ZkPath(session(), path, CreateMode.PERSISTENT);
     // TODO for now only persistent ZK nodes can have children. fix this.
     zkPath.addUpdateListener(createLockNode, true);
     zkPath.addDieListener(onLockPathError);
   }
 
+  /**
+   * <English>
+   * Run the step that follows entering the waiting state: either create the lock path and node
+   * from scratch, or walk the queue from an already enqueued reservation. If the reserved node is
+   * still being created, there is nothing to do, its creation handler walks the queue.
+   *
+   * <Chinese>
+   * 进入等待状态后继续获取锁：从头创建路径和节点，或者从已排队的预约节点开始检查队列。
+   * 如果预约节点还在创建中，则由创建回调继续。
+   */
+  private void continueAcquisition() {
+    Runnable step;
+    synchronized (mutex) {
+      step = pendingStep;
+      pendingStep = null;
+    }
+    if (step != null) {
+      step.run();
+    }
+  }
+
+  /**
+   * <English>
+   * Called once the lock node has been created. Holds the node in the queue if it was only reserved,
+   * or releases it if the reservation was given up while the node was being created.
+   *
+   * <Chinese>
+   * 锁节点创建成功后调用。如果只是预约，保持节点在队列中；如果创建期间预约已被放弃，则删除节点。
+   *
+   * @return Whether the queue should not be walked now./是否暂不检查队列
+   */
+  private boolean holdReservation() {
+    synchronized (mutex) {
+      switch (lockState) {
+        case RESERVED:
+          reservationQueued = true;
+          return true;
+        case RELEASED:
+        case ERROR:
+          // Given up or failed while the node was being created, take it out of the queue
+          releaseLock.run();
+          return true;
+        default:
+          return false;
+      }
+    }
+  }
+
+  /**
+   * Somebody is waiting on a lock, so replay it before cache refreshes after reconnection
+   */
+  @Override
+  protected int getRestartPriority() {
+    return 10;
+  }
+
   @Override
   protected void onDie(ZkException killerException) {
     // We just set the lock state. The killer exception has already been set by base class
     safeLockState(LockState.ERROR);
   }
 
+  @Override
+  protected void onDisConnected() {
+    if (lockState == LockState.ACQUIRED) {
+      long remainingMillis = session().getRemainingSessionMillis();
+      for (ILockValidityListener validityListener : validityListeners) {
+        validityListener.onLockSuspect(this, remainingMillis);
+      }
+    }
+  }
+
+  @Override
+  protected void onConnected() {
+    if (lockState == LockState.ACQUIRED) {
+      for (ILockValidityListener validityListener : validityListeners) {
+        validityListener.onLockRestored(this);
+      }
+    }
+  }
+
+  @Override
+  protected void onSessionExpired() {
+    if (lockState == LockState.ACQUIRED) {
+      // Our ephemeral node is gone with the session, so is the lock
+      die(Code.SESSIONEXPIRED);
+      for (ILockValidityListener validityListener : validityListeners) {
+        validityListener.onLockLost(this);
+      }
+    }
+  }
+
   @Override
   protected void onNodeDeleted(String path) {
-    getQueuedLocks.run();
+    if (!nodeReleased) {
+      getQueuedLocks.run();
+    }
   }
 
   /**
@@ -334,6 +514,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
       switch (newState) {
         case IDLE:
           assert false : "Unknown condition";
+        case RESERVED:
         case WAITING:
           /*
            * <English>
@@ -346,6 +527,15 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
             case IDLE:
               // Caller is starting operation
               lockState = newState;
+              pendingStep = newState == LockState.WAITING ? startFromRoot : null;
+              return;
+            case RESERVED:
+              if (newState == LockState.RESERVED) {
+                throw new ZkException(ZkException.Error.LOCK_ALREADY_RESERVED);
+              }
+              // Caller claims its reservation. Walk the queue now if our node is already in it
+              lockState = newState;
+              pendingStep = reservationQueued ? getQueuedLocks : null;
               return;
             case WAITING:
               throw new ZkException(ZkException.Error.LOCK_ALREADY_WAITING);
@@ -373,12 +563,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
               lockState = newState;
               // Release our lock node immediately
               releaseLock.run();
-              // Notify listeners about result
-              if (listener != null) {
-                ITryLockListener listener = (ITryLockListener) this.listener;
-                listener.onTryAcquireLockFailed(this, context);
-              }
-              // Notify waiting callers about result
+              // Notify listeners and waiting callers about result
               onStateUpdated();
               return;
             case RELEASED:
@@ -396,6 +581,8 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
             case WAITING:
               // Attempt to acquire lock has succeeded
               lockState = newState;
+              // From now on we need to know when the lock becomes suspect
+              watchConnection(true);
               // Notify caller
               onStateUpdated();
               return;
@@ -422,6 +609,13 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
                */
               lockState = newState;
               return;
+            case RESERVED:
+              // Giving up a reservation. If the node is still being created, its handler deletes it
+              lockState = newState;
+              if (reservationQueued) {
+                releaseLock.run();
+              }
+              return;
             case RELEASED:
             case ABANDONED:
               // We consider that release() has been called vacuously
@@ -431,10 +625,16 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
               // This causes an error!
               die(new ZkException(
                   ZkException.Error.LOCK_RELEASED_WHILE_WAITING)); // die callback will set state
+              // Leave the queue now rather than once our node reaches its head. If the node is still
+              // being created, its handler deletes it
+              if (thisNodeId != null) {
+                releaseLock.run();
+              }
               return;
             case ACQUIRED:
               // We are simply releasing the lock while holding it. This is fine!
               lockState = newState;
+              watchConnection(false);
               // Initiate the release procedure immediately
               releaseLock.run();
               return;
@@ -450,6 +650,7 @@ public abstract class ZkLockBase extends ZkSyncPrimitive implements
             default:
               // ZkSyncPrimitive infrastructure is handling passing exception notification to caller, so just set state
               lockState = newState;
+              watchConnection(false);
               return;
           }
       }
@@ -0,0 +1,49 @@
+package dowhat.is.right.zk.lock;
+
+import dowhat.is.right.zk.IZkSessionRouter;
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock.LockType;
+
+/**
+ * <English>
+ * Builds ZooKeeper read and write locks. This is the default lock factory.
+ *
+ * <Chinese>
+ * 构建zk读写锁，默认的锁工厂。
+ *
+ * @author 杨春炼
+ * @since 2020-05-08
+ */
+public class ZkLockFactory implements ILockFactory {
+
+  //为空时使用ZkSessionManager.instance(path)
+  private final IZkSessionRouter router;
+
+  public ZkLockFactory() {
+    this(null);
+  }
+
+  /**
+   * @param router Chooses the session of each lock, e.g. a session, pool or ensemble router./选择每个锁的会话
+   */
+  public ZkLockFactory(IZkSessionRouter router) {
+    this.router = router;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ISinglePathLock newLock(String lockPath, LockType type) {
+    ZkSessionManager session =
+        router == null ? ZkSessionManager.instance(lockPath) : router.route(lockPath);
+    switch (type) {
+      case READ:
+        return new ZkReadLock(session, lockPath);
+      case WRITE:
+        return new ZkWriteLock(session, lockPath);
+      default:
+        throw new IllegalArgumentException("not a single path lock type: " + type);
+    }
+  }
+}
@@ -4,10 +4,24 @@ import dowhat.is.right.networking.utility.NetworkAlgorithms;
 import dowhat.is.right.zk.ZkException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import org.apache.commons.lang3.NotImplementedException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import lombok.Getter;
 
 /**
+ * <English>
+ * Lock several paths at once. Paths are always locked in sorted order, so that multi-locks
+ * contending for the same paths cannot deadlock.
+ *
+ * <Chinese>
+ * 同时对多个路径加锁。路径总是按排序后的顺序加锁，所以竞争相同路径的多路径锁不会死锁。
+ *
  * @author 杨春炼
  * @since 2020-04-05
  */
@@ -16,24 +30,49 @@ public class ZkMultiPathLock implements IMultiPathLock {
   private final int MIN_RETRY_DELAY = 125;
   private final int MAX_RETRY_DELAY = 4000;
   private final int MAX_ACQUIRE_ATTEMPTS = 10;
-  private final Integer mutex;
+  private final Object mutex = new Object();
   private ArrayList<ISinglePathLock> locks;
   private ISinglePathLock[] sortedLocks;
   private volatile LockState lockState;
+  private final AcquireStrategy strategy;
+  private final ILockFactory lockFactory;
 
   public ZkMultiPathLock() {
+    this(AcquireStrategy.BACK_OFF);
+  }
+
+  /**
+   * @param strategy How <code>acquire()</code> waits for contended paths./获取锁时如何等待被占用的路径
+   */
+  public ZkMultiPathLock(AcquireStrategy strategy) {
+    this(strategy, new ZkLockFactory());
+  }
+
+  /**
+   * @param lockFactory Builds the lock for each path./构建每个路径的锁
+   */
+  public ZkMultiPathLock(ILockFactory lockFactory) {
+    this(AcquireStrategy.BACK_OFF, lockFactory);
+  }
+
+  /**
+   * @param strategy    How <code>acquire()</code> waits for contended paths./获取锁时如何等待被占用的路径
+   * @param lockFactory Builds the lock for each path./构建每个路径的锁
+   */
+  public ZkMultiPathLock(AcquireStrategy strategy, ILockFactory lockFactory) {
     lockState = LockState.IDLE;
     locks = new ArrayList<>(32);
-    mutex = -1;
+    this.strategy = strategy;
+    this.lockFactory = lockFactory;
   }
 
   /**
-   * Add a write lock requirement to the multi-lock
+   * Add a read lock requirement to the multi-lock
    *
    * @param lockPath The read lock path to add
    */
   public void addReadLock(String lockPath) {
-    locks.add(new ZkReadLock(lockPath));
+    addLock(lockPath, LockType.READ);
   }
 
   /**
@@ -42,7 +81,17 @@ public class ZkMultiPathLock implements IMultiPathLock {
    * @param lockPath The write lock path to add
    */
   public void addWriteLock(String lockPath) {
-    locks.add(new ZkWriteLock(lockPath));
+    addLock(lockPath, LockType.WRITE);
+  }
+
+  /**
+   * Add a lock requirement to the multi-lock, built by the lock factory
+   *
+   * @param lockPath The lock path to add
+   * @param type     READ or WRITE
+   */
+  public void addLock(String lockPath, LockType type) {
+    locks.add(lockFactory.newLock(lockPath, type));
   }
 
   /**
@@ -51,59 +100,122 @@ public class ZkMultiPathLock implements IMultiPathLock {
   @Override
   public void acquire() throws ZkException, InterruptedException {
     setLockState(LockState.WAITING);
-    if (locks.size() == 0)
-    // We succeed vacuously for zero paths.
-    {
+    if (locks.size() == 0) {
+      // We succeed vacuously for zero paths.
+      setLockState(LockState.ACQUIRED);
       return;
     }
     prepareSortedLockArray();
-    if (sortedLocks.length == 1) {
-      // With a single lock path, we can just wait.
-      sortedLocks[0].acquire();
-    } else {
-      // With multiple paths, we must try to acquire sequentially, then back off completely
-      // if we fail to acquire any
-      int attempts = 0;
-      while (true) {
-        // Try to acquire paths
-        if (doTryAcquire()) {
-          // got them
-          setLockState(LockState.ACQUIRED);
-          return;
-        }
-        // Not this time, and we give up and throw after max attempts
-        attempts++;
-        if (attempts > MAX_ACQUIRE_ATTEMPTS) {
-          throw new ZkException(ZkException.Error.MAX_ATTEMPTS_EXCEEDED);
-        }
-        // Otherwise back off a little then try again
-        Thread.sleep(
-            NetworkAlgorithms.getBinaryBackoffDelay(attempts, MIN_RETRY_DELAY, MAX_RETRY_DELAY));
-        // To avoid race conditions with the asynchronous release system used by ZkLockBase, we simply re-create the
-        // sorted locks array before trying again
-        ISinglePathLock[] newSortedLocks = new ISinglePathLock[sortedLocks.length];
-        for (int l = 0; l < sortedLocks.length; l++) {
-          if (sortedLocks[l] instanceof ZkReadLock) {
-            newSortedLocks[l] = new ZkReadLock(sortedLocks[l].getLockPath());
-          } else if (sortedLocks[l] instanceof ZkWriteLock) {
-            newSortedLocks[l] = new ZkWriteLock(sortedLocks[l].getLockPath());
-          } else {
-            assert false : "Unrecognized lock type";
-          }
-        }
-        sortedLocks = newSortedLocks;
+    MultiPathLockMetrics metrics = MultiPathLockMetrics.of(strategy);
+    long startTime = System.nanoTime();
+    try {
+      if (sortedLocks.length == 1) {
+        // With a single lock path, we can just wait.
+        doAcquireInOrder();
+      } else if (strategy == AcquireStrategy.ORDERED) {
+        metrics.onAttempt();
+        doAcquireInOrder();
+      } else {
+        doAcquireWithBackOff(metrics);
       }
+    } catch (ZkException | InterruptedException ex) {
+      metrics.onFailed();
+      throw ex;
+    }
+    setLockState(LockState.ACQUIRED);
+    metrics.onAcquired(System.nanoTime() - startTime);
+  }
+
+  /**
+   * <English>
+   * Block on each path in sorted order, keeping the paths already acquired. Since every multi-lock
+   * acquires in the same global order, waiting while holding earlier paths cannot deadlock, and we
+   * never need to back off.
+   *
+   * <Chinese>
+   * 按排序后的顺序依次阻塞获取每个路径，并保留已获取的路径。因为所有多路径锁都按相同的全局顺序获取，持有前面的路径时等待不会死锁，也就不需要退避。
+   */
+  private void doAcquireInOrder() throws ZkException, InterruptedException {
+    try {
+      for (ILock lock : sortedLocks) {
+        lock.acquire();
+      }
+    } catch (ZkException | InterruptedException ex) {
+      // roll back and re-throw
+      setLockState(LockState.ERROR);
+      release();
+      throw ex;
+    } catch (RuntimeException ex) {
+      // The single path locks wait through ManualResetEvent, which wraps an interrupt
+      setLockState(LockState.ERROR);
+      release();
+      if (ex.getCause() instanceof InterruptedException) {
+        throw (InterruptedException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * <English>
+   * Try to acquire all paths, and if any is held release everything, back off and try again.
+   * <p>
+   * The first try is pipelined. Paths were contended if it failed, so the retries try one path after
+   * the other: multi-locks contending for the same paths then conflict at the first path they
+   * share, and only one of them backs off.
+   *
+   * <Chinese>
+   * 尝试获取所有路径，只要有一个被占用就全部释放，退避后重试。
+   * <p>
+   * 第一次尝试是流水线式的。失败说明路径有竞争，所以重试时逐个尝试路径：竞争相同路径的多路径锁在它们共有的第一个路径上冲突，
+   * 只有其中一个需要退避。
+   */
+  private void doAcquireWithBackOff(MultiPathLockMetrics metrics)
+      throws ZkException, InterruptedException {
+    // With multiple paths, we must try to acquire sequentially, then back off completely
+    // if we fail to acquire any
+    int attempts = 0;
+    while (true) {
+      // Try to acquire paths
+      metrics.onAttempt();
+      if (doTryAcquire(attempts == 0)) {
+        // got them
+        return;
+      }
+      // Not this time, and we give up and throw after max attempts
+      attempts++;
+      if (attempts > MAX_ACQUIRE_ATTEMPTS) {
+        throw new ZkException(ZkException.Error.MAX_ATTEMPTS_EXCEEDED);
+      }
+      // Otherwise back off a little then try again
+      int delay =
+          NetworkAlgorithms.getBinaryBackoffDelay(attempts, MIN_RETRY_DELAY, MAX_RETRY_DELAY);
+      metrics.onBackOff(delay);
+      Thread.sleep(delay);
+      renewSortedLocks();
+    }
+  }
+
+  /**
+   * To avoid race conditions with the asynchronous release system used by ZkLockBase, we simply
+   * re-create the sorted locks array before trying again
+   */
+  private void renewSortedLocks() {
+    ISinglePathLock[] newSortedLocks = new ISinglePathLock[sortedLocks.length];
+    for (int l = 0; l < sortedLocks.length; l++) {
+      newSortedLocks[l] =
+          lockFactory.newLock(sortedLocks[l].getLockPath(), sortedLocks[l].getType());
+    }
+    synchronized (mutex) {
+      sortedLocks = newSortedLocks;
     }
   }
 
   private String describe() {
     StringBuilder description = new StringBuilder();
     for (ISinglePathLock sortedLock : sortedLocks) {
-      if (sortedLock instanceof ZkReadLock) {
-        description.append("ZkReadLock(").append(sortedLock.getLockPath()).append(") ");
-      } else if (sortedLock instanceof ZkWriteLock) {
-        description.append("ZkWriteLock(").append(sortedLock.getLockPath()).append(") ");
-      }
+      description.append(sortedLock.getClass().getSimpleName()).append("(")
+          .append(sortedLock.getType()).append(" ").append(sortedLock.getLockPath()).append(") ");
     }
     return description.toString();
   }
@@ -112,8 +224,46 @@ public class ZkMultiPathLock implements IMultiPathLock {
    * {@inheritDoc}
    */
   @Override
-  public void acquire(ILockListener listener, Object context) {
-    throw new NotImplementedException();
+  public void acquire(ILockListener listener, Object context) throws ZkException {
+    setLockState(LockState.WAITING);
+    if (locks.size() == 0) {
+      // We succeed vacuously for zero paths.
+      setLockState(LockState.ACQUIRED);
+      listener.onLockAcquired(this, context);
+      return;
+    }
+    prepareSortedLockArray();
+    // Wait in order, which does not tie up a thread here so there is never a reason to back off
+    new OrderedAcquire(sortedLocks, listener, context).next();
+  }
+
+  /**
+   * <English>
+   * Asynchronously acquire all paths, blocking on each in sorted order if needed.
+   *
+   * <Chinese>
+   * 异步获取所有路径，必要时按排序后的顺序依次等待。
+   *
+   * @return A future completed with this lock once acquired./获取锁后完成的future
+   */
+  public CompletableFuture<ZkMultiPathLock> acquireAsync() {
+    CompletableFuture<ZkMultiPathLock> future = new CompletableFuture<>();
+    try {
+      acquire(new ILockListener() {
+        @Override
+        public void onLockAcquired(ILock lock, Object context) {
+          future.complete(ZkMultiPathLock.this);
+        }
+
+        @Override
+        public void onLockError(ZkException err, ILock lock, Object context) {
+          future.completeExceptionally(err);
+        }
+      }, null);
+    } catch (ZkException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
   }
 
   /**
@@ -132,44 +282,232 @@ public class ZkMultiPathLock implements IMultiPathLock {
   }
 
   /**
-   * When locks are being acquired sequentially, this will produce the earliest possible and least
-   * expensive back off when there is contention by similar operations (since multi-locks will try
-   * to acquire the same paths first and conflict as early as possible)
+   * Locks are granted in this order, which produces the earliest possible and least expensive back
+   * off when there is contention by similar operations (since multi-locks decide the same paths
+   * first and conflict as early as possible)
    */
   protected void prepareSortedLockArray() {
-    sortedLocks = locks.toArray(new ISinglePathLock[0]);
+    // A write lock on a path covers a read lock on the same path, and asking for both would make us
+    // wait for ourselves. So keep one lock per path, the write lock if there is one.
+    Map<String, ISinglePathLock> lockByPath = new HashMap<>(locks.size() * 2);
+    for (ISinglePathLock lock : locks) {
+      ISinglePathLock other = lockByPath.get(lock.getLockPath());
+      if (other == null || other.getType() == LockType.READ) {
+        lockByPath.put(lock.getLockPath(), lock);
+      }
+    }
+    sortedLocks = lockByPath.values().toArray(new ISinglePathLock[0]);
     Arrays.sort(sortedLocks);
   }
 
+  /**
+   * <English>
+   * Try to acquire all paths without waiting, trying every path at once.
+   *
+   * <Chinese>
+   * 不等待地尝试获取所有路径，所有路径同时尝试。
+   *
+   * @return Whether all paths were acquired./是否获取了所有路径
+   */
   protected boolean doTryAcquire() throws ZkException, InterruptedException {
-    // loop until we acquire all locks
+    return doTryAcquire(true);
+  }
+
+  /**
+   * <English>
+   * Try to acquire all paths without waiting. The paths are granted in sorted order, and the first
+   * path that is held decides the outcome.
+   *
+   * <Chinese>
+   * 不等待地尝试获取所有路径。按排序后的顺序判定，第一个被占用的路径决定结果。
+   *
+   * @param pipelined Try every path at once, rather than each once the previous one is
+   *                  acquired./是否同时尝试所有路径，而不是前一个获取后再尝试下一个
+   * @return Whether all paths were acquired./是否获取了所有路径
+   */
+  protected boolean doTryAcquire(boolean pipelined) throws ZkException, InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    SortedTryAcquire tryAll =
+        new SortedTryAcquire(sortedLocks, pipelined, result -> done.countDown());
     try {
-      boolean tryFailed = false;
-      // try and get them all
-      for (ILock lock : sortedLocks) {
-        if (!lock.tryAcquire()) {
-          tryFailed = true;
-          break;
-        }
-      }
-      // done if successful
-      if (!tryFailed) {
-        return true;
-      }
-      // otherwise roll back any locks we acquired
-      release();
-      return false;
-    } catch (ZkException ex) {
-      // roll back and re-throw
+      tryAll.start();
+      done.await();
+    } catch (InterruptedException ex) {
+      // roll back, including the locks that are still being tried, and re-throw
+      tryAll.abandon();
       setLockState(LockState.ERROR);
-      release();
+      Thread.currentThread().interrupt();
       throw ex;
-    } catch (InterruptedException ex) {
+    }
+    ZkException error = tryAll.getError();
+    if (error != null) {
       // roll back and re-throw
       setLockState(LockState.ERROR);
       release();
-      Thread.currentThread().interrupt();
-      throw ex;
+      throw error;
+    }
+    if (tryAll.isFailed()) {
+      // roll back any locks we acquired, and those still being tried
+      release();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * How a sub-lock tried by <code>SortedTryAcquire</code> turned out
+   */
+  private enum TryOutcome {
+    PENDING, ACQUIRED, HELD, FAILED
+  }
+
+  /**
+   * <English>
+   * Tries a set of single path locks through their asynchronous interface, and decides in the given
+   * order: the first lock that is held or fails decides the outcome, and runs a task once decided.
+   * <p>
+   * Pipelined, every lock is tried at once, so the path creates, node creates and queue reads of
+   * all the paths are in flight together, and an uncontended try takes a few round trips whatever
+   * the number of paths. Otherwise each lock is tried once the previous one is acquired, and the
+   * locks after a held path are never touched.
+   *
+   * <Chinese>
+   * 通过异步接口尝试一组单路径锁，并按给定顺序判定：第一个被占用或出错的锁决定结果，判定后执行回调任务。
+   * <p>
+   * 流水线模式下所有锁同时尝试，所有路径的路径创建、节点创建和队列读取同时进行，无竞争时无论多少路径都只需几次网络往返。
+   * 否则前一个锁获取后才尝试下一个，被占用路径之后的锁不会被尝试。
+   */
+  private class SortedTryAcquire implements ITryLockListener {
+
+    private final ISinglePathLock[] tryLocks;
+    //是否同时尝试所有锁
+    private final boolean pipelined;
+    private final Consumer<SortedTryAcquire> onComplete;
+    //已结束，之后的通知（比如获得锁之后的会话过期）会被忽略
+    private final AtomicBoolean finished;
+    //每个锁的结果（在this的锁内访问）
+    private final TryOutcome[] outcomes;
+    //每个锁的错误（在this的锁内访问）
+    private final ZkException[] errors;
+    //已尝试的锁个数（在this的锁内访问）
+    private int started;
+    //按顺序已获取的锁个数（在this的锁内访问）
+    private int granted;
+    //是否有锁已被其他人持有
+    private volatile boolean failed;
+    //是否已被调用者放弃
+    private volatile boolean abandoned;
+    //错误
+    private volatile ZkException error;
+
+    private SortedTryAcquire(ISinglePathLock[] tryLocks, boolean pipelined,
+        Consumer<SortedTryAcquire> onComplete) {
+      this.tryLocks = tryLocks;
+      this.pipelined = pipelined;
+      this.onComplete = onComplete;
+      finished = new AtomicBoolean(false);
+      outcomes = new TryOutcome[tryLocks.length];
+      Arrays.fill(outcomes, TryOutcome.PENDING);
+      errors = new ZkException[tryLocks.length];
+    }
+
+    private void start() {
+      if (tryLocks.length == 0) {
+        finish();
+        return;
+      }
+      int count;
+      synchronized (this) {
+        count = pipelined ? tryLocks.length : 1;
+        started = count;
+      }
+      for (int i = 0; i < count && !finished.get(); i++) {
+        tryLock(i);
+      }
+    }
+
+    private void tryLock(int idx) {
+      ISinglePathLock lock = tryLocks[idx];
+      try {
+        lock.tryAcquire(this, idx);
+      } catch (ZkException ex) {
+        onLockError(ex, lock, idx);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        onLockError(new ZkException(ZkException.Error.INTERRUPTED_EXCEPTION), lock, idx);
+      }
+    }
+
+    /**
+     * Record the outcome of a lock, then finish once decided, or try the next lock
+     */
+    private void onOutcome(int idx, TryOutcome outcome, ZkException err) {
+      int next = -1;
+      synchronized (this) {
+        if (outcomes[idx] != TryOutcome.PENDING) {
+          // Only the first outcome counts, e.g. not the expiry after a lock was acquired
+          return;
+        }
+        outcomes[idx] = outcome;
+        errors[idx] = err;
+        while (granted < tryLocks.length && outcomes[granted] == TryOutcome.ACQUIRED) {
+          granted++;
+        }
+        if (granted == tryLocks.length) {
+          next = tryLocks.length;
+        } else if (outcomes[granted] == TryOutcome.HELD) {
+          failed = true;
+          next = tryLocks.length;
+        } else if (outcomes[granted] == TryOutcome.FAILED) {
+          error = errors[granted];
+          next = tryLocks.length;
+        } else if (granted == started) {
+          next = started++;
+        }
+      }
+      if (next == tryLocks.length) {
+        finish();
+      } else if (next >= 0 && !abandoned) {
+        tryLock(next);
+      }
+    }
+
+    private void abandon() {
+      abandoned = true;
+      release();
+    }
+
+    private void finish() {
+      if (finished.compareAndSet(false, true)) {
+        onComplete.accept(this);
+      }
+    }
+
+    private boolean isFailed() {
+      return failed;
+    }
+
+    private ZkException getError() {
+      return error;
+    }
+
+    @Override
+    public void onLockAcquired(ILock lock, Object context) {
+      if (abandoned) {
+        lock.release();
+        return;
+      }
+      onOutcome((Integer) context, TryOutcome.ACQUIRED, null);
+    }
+
+    @Override
+    public void onTryAcquireLockFailed(ILock lock, Object context) {
+      onOutcome((Integer) context, TryOutcome.HELD, null);
+    }
+
+    @Override
+    public void onLockError(ZkException err, ILock lock, Object context) {
+      onOutcome((Integer) context, TryOutcome.FAILED, err);
     }
   }
 
@@ -177,20 +515,149 @@ public class ZkMultiPathLock implements IMultiPathLock {
    * {@inheritDoc}
    */
   @Override
-  public void tryAcquire(ITryLockListener listener, Object context) {
-    throw new NotImplementedException();
+  public void tryAcquire(ITryLockListener listener, Object context) throws ZkException {
+    setLockState(LockState.WAITING);
+    prepareSortedLockArray();
+    new SortedTryAcquire(sortedLocks, true, tryAll -> {
+      if (tryAll.getError() != null) {
+        reportError(tryAll.getError(), listener, context);
+      } else if (tryAll.isFailed()) {
+        // roll back any locks we acquired, and those still being tried
+        release();
+        safeLockState(LockState.ABANDONED);
+        listener.onTryAcquireLockFailed(this, context);
+      } else {
+        reportAcquired(listener, context);
+      }
+    }).start();
+  }
+
+  /**
+   * <English>
+   * Asynchronously try to acquire all paths, giving up if any is already held.
+   *
+   * <Chinese>
+   * 异步尝试获取所有路径，只要有一个已被持有就放弃。
+   *
+   * @return A future completed with whether all paths were acquired./完成时表示是否获取了所有路径
+   */
+  public CompletableFuture<Boolean> tryAcquireAsync() {
+    CompletableFuture<Boolean> future = new CompletableFuture<>();
+    try {
+      tryAcquire(new ITryLockListener() {
+        @Override
+        public void onTryAcquireLockFailed(ILock lock, Object context) {
+          future.complete(false);
+        }
+
+        @Override
+        public void onLockAcquired(ILock lock, Object context) {
+          future.complete(true);
+        }
+
+        @Override
+        public void onLockError(ZkException err, ILock lock, Object context) {
+          future.completeExceptionally(err);
+        }
+      }, null);
+    } catch (ZkException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+  private void reportAcquired(ILockListener listener, Object context) {
+    safeLockState(LockState.ACQUIRED);
+    listener.onLockAcquired(this, context);
+  }
+
+  private void reportError(ZkException error, ILockListener listener, Object context) {
+    // roll back and report
+    safeLockState(LockState.ERROR);
+    release();
+    listener.onLockError(error, this, context);
+  }
+
+  /**
+   * <English>
+   * Acquires a set of single path locks one after the other in the given order through their
+   * asynchronous interface, keeping earlier locks while waiting for later ones. If any lock fails,
+   * all the locks acquired so far are released.
+   *
+   * <Chinese>
+   * 通过异步接口按给定顺序依次获取一组单路径锁，等待后面的锁时保留前面已获取的锁。任何一个失败，则释放所有已获取的锁。
+   */
+  private class OrderedAcquire implements ILockListener {
+
+    private final ISinglePathLock[] orderedLocks;
+    private final ILockListener listener;
+    private final Object context;
+    //已结束，之后的通知（比如获得锁之后的会话过期）会被忽略
+    private final AtomicBoolean finished;
+    //下一个要获取的锁
+    private int nextIdx;
+
+    private OrderedAcquire(ISinglePathLock[] orderedLocks, ILockListener listener,
+        Object context) {
+      this.orderedLocks = orderedLocks;
+      this.listener = listener;
+      this.context = context;
+      finished = new AtomicBoolean(false);
+      nextIdx = 0;
+    }
+
+    private void next() {
+      if (nextIdx == orderedLocks.length) {
+        if (finished.compareAndSet(false, true)) {
+          reportAcquired(listener, context);
+        }
+        return;
+      }
+      ISinglePathLock lock = orderedLocks[nextIdx++];
+      try {
+        lock.acquire(this, null);
+      } catch (ZkException ex) {
+        onLockError(ex, lock, null);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        onLockError(new ZkException(ZkException.Error.INTERRUPTED_EXCEPTION), lock, null);
+      }
+    }
+
+    @Override
+    public void onLockAcquired(ILock lock, Object context) {
+      if (!finished.get()) {
+        next();
+      }
+    }
+
+    @Override
+    public void onLockError(ZkException err, ILock lock, Object context) {
+      if (finished.compareAndSet(false, true)) {
+        reportError(err, listener, this.context);
+      }
+    }
   }
 
   /**
    * {@inheritDoc}
+   * <p>
+   * Sub-locks still waiting or reserved are released too, so that a rolled back acquisition leaves
+   * no node behind in any queue.
    */
   @Override
   public void release() {
     synchronized (mutex) {
       if (sortedLocks != null) {
         for (ILock lock : sortedLocks) {
-          if (lock.getState() == LockState.ACQUIRED) {
-            lock.release();
+          switch (lock.getState()) {
+            case ACQUIRED:
+            case WAITING:
+            case RESERVED:
+              lock.release();
+              break;
+            default:
+              break;
           }
         }
       }
@@ -205,6 +672,38 @@ public class ZkMultiPathLock implements IMultiPathLock {
     return lockState;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isValidFor(long duration, TimeUnit unit) {
+    if (lockState != LockState.ACQUIRED) {
+      return false;
+    }
+    for (ILock lock : sortedLocks) {
+      if (!lock.isValidFor(duration, unit)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isSuspect() {
+    if (lockState != LockState.ACQUIRED) {
+      return false;
+    }
+    for (ILock lock : sortedLocks) {
+      if (lock.isSuspect()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -244,6 +743,32 @@ public class ZkMultiPathLock implements IMultiPathLock {
     return LockType.NONE;
   }
 
+  /**
+   * <English>
+   * How a multi-path lock waits for paths that are held by someone else.
+   *
+   * <Chinese>
+   * 多路径锁如何等待被其他人持有的路径。
+   */
+  public enum AcquireStrategy {
+    /**
+     * Try all paths, release everything on the first miss, back off and retry. Gives up after a
+     * limited number of attempts.
+     */
+    BACK_OFF("失败全部释放并退避重试"),
+    /**
+     * Block on each path in sorted order, keeping earlier paths. Never backs off or gives up.
+     */
+    ORDERED("按顺序阻塞获取"),
+    ;
+    @Getter
+    private String des;
+
+    AcquireStrategy(String des) {
+      this.des = des;
+    }
+  }
+
   private String[] getLockPathsByType(ILock.LockType type) {
     ArrayList<String> lockPaths = new ArrayList<>(32);
     List<ISinglePathLock> lockList = locks;
@@ -255,6 +780,20 @@ public class ZkMultiPathLock implements IMultiPathLock {
     return lockPaths.toArray(new String[]{});
   }
 
+  /**
+   * Set the lock state when we know an exception can't be thrown
+   *
+   * @param newState The new lock state
+   */
+  private void safeLockState(LockState newState) {
+    try {
+      setLockState(newState);
+    } catch (ZkException e) {
+      e.printStackTrace();
+      assert false : "Unknown condition";
+    }
+  }
+
   /**
    * Set the lock state
    *
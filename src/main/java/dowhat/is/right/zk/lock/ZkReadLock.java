@@ -1,5 +1,7 @@
 package dowhat.is.right.zk.lock;
 
+import dowhat.is.right.zk.ZkSessionManager;
+
 /**
  * <English>
  * Zookeeper read lock.
@@ -17,6 +19,10 @@ public class ZkReadLock extends ZkLockBase {
     super(lockPath);
   }
 
+  public ZkReadLock(ZkSessionManager session, String lockPath) {
+    super(session, lockPath);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -1,5 +1,7 @@
 package dowhat.is.right.zk.lock;
 
+import dowhat.is.right.zk.ZkSessionManager;
+
 /**
  * <English>
  * Zookeeper write lock.
@@ -16,6 +18,10 @@ public class ZkWriteLock extends ZkLockBase {
     super(lockPath);
   }
 
+  public ZkWriteLock(ZkSessionManager session, String lockPath) {
+    super(session, lockPath);
+  }
+
   /**
    * {@inheritDoc}
    *
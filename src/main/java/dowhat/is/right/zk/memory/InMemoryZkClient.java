@@ -0,0 +1,258 @@
+package dowhat.is.right.zk.memory;
+
+import dowhat.is.right.zk.IZkClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * <English>
+ * A client of an {@link InMemoryZkServer}. Operations are applied to the node tree at once, and
+ * their results and watch events are delivered in order on the client's event thread, after the
+ * latency of the server. ACLs are ignored.
+ *
+ * <Chinese>
+ * {@link InMemoryZkServer}的客户端。操作立即作用于节点树，结果和watch事件在服务端设置的延迟之后，
+ * 在客户端的事件线程上按顺序投递。忽略ACL。
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+public final class InMemoryZkClient implements IZkClient {
+
+  /**
+   * Connection state, guarded by the server's mutex. PARTITIONED waits for the server to leave
+   * read-only mode, as a client which cannot be read-only
+   */
+  enum State {
+    CONNECTED, READ_ONLY, DISCONNECTED, PARTITIONED, EXPIRED, CLOSED, DETACHED
+  }
+
+  //服务端
+  private final InMemoryZkServer server;
+  //会话id
+  private final long sessionId;
+  //会话密码
+  private final byte[] sessionPasswd;
+  //会话超时（毫秒）
+  private final int sessionTimeout;
+  //默认watcher，接收连接状态事件
+  private final Watcher watcher;
+  //是否允许只读连接
+  private final boolean canBeReadOnly;
+  //事件线程
+  private final ExecutorService events;
+  //连接状态（只在服务端的锁内修改）
+  volatile State state;
+  //断开期间触发的watch事件，重新连接后投递（只在服务端的锁内访问）
+  final List<Runnable> missedEvents = new ArrayList<>();
+  //最后一个事件的投递时间（System.nanoTime），保证延迟变化时事件仍然有序
+  private long lastDueNanos;
+
+  InMemoryZkClient(InMemoryZkServer server, long sessionId, byte[] sessionPasswd,
+      int sessionTimeout, Watcher watcher, boolean canBeReadOnly) {
+    this.server = server;
+    this.sessionId = sessionId;
+    this.sessionPasswd = sessionPasswd;
+    this.sessionTimeout = sessionTimeout;
+    this.watcher = watcher;
+    this.canBeReadOnly = canBeReadOnly;
+    events = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "in-memory-zk-event-" + sessionId);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void create(String path, byte[] data, List<ACL> acl, CreateMode createMode,
+      StringCallback cb, Object ctx) {
+    try {
+      String name = server.create(this, path, data, createMode);
+      deliver(() -> cb.processResult(Code.OK.intValue(), path, ctx, name));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), path, ctx, null));
+    }
+  }
+
+  @Override
+  public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode)
+      throws KeeperException, InterruptedException {
+    try {
+      return server.create(this, path, data, createMode);
+    } finally {
+      roundTrip();
+    }
+  }
+
+  @Override
+  public void delete(String path, int version, VoidCallback cb, Object ctx) {
+    try {
+      server.delete(this, path, version);
+      deliver(() -> cb.processResult(Code.OK.intValue(), path, ctx));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), path, ctx));
+    }
+  }
+
+  @Override
+  public void delete(String path, int version) throws InterruptedException, KeeperException {
+    try {
+      server.delete(this, path, version);
+    } finally {
+      roundTrip();
+    }
+  }
+
+  @Override
+  public void exists(String path, Watcher watcher, StatCallback cb, Object ctx) {
+    try {
+      Stat stat = server.exists(this, path, watcher);
+      deliver(() -> cb.processResult(Code.OK.intValue(), path, ctx, stat));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), path, ctx, null));
+    }
+  }
+
+  @Override
+  public void getChildren(String path, Watcher watcher, ChildrenCallback cb, Object ctx) {
+    try {
+      List<String> children = server.getChildren(this, path, watcher);
+      deliver(() -> cb.processResult(Code.OK.intValue(), path, ctx, children));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), path, ctx, null));
+    }
+  }
+
+  @Override
+  public void sync(String path, VoidCallback cb, Object ctx) {
+    try {
+      server.sync(this, path);
+      deliver(() -> cb.processResult(Code.OK.intValue(), path, ctx));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), path, ctx));
+    }
+  }
+
+  @Override
+  public void multi(Iterable<Op> ops, MultiCallback cb, Object ctx) {
+    List<Op> opList = new ArrayList<>();
+    ops.forEach(opList::add);
+    try {
+      List<OpResult> results = server.multi(this, opList);
+      int rc = Code.OK.intValue();
+      for (OpResult result : results) {
+        if (result instanceof ErrorResult) {
+          int err = ((ErrorResult) result).getErr();
+          if (err != Code.OK.intValue() && err != Code.RUNTIMEINCONSISTENCY.intValue()) {
+            rc = err;
+          }
+        }
+      }
+      int multiRc = rc;
+      deliver(() -> cb.processResult(multiRc, null, ctx, results));
+    } catch (KeeperException e) {
+      deliver(() -> cb.processResult(e.code().intValue(), null, ctx, null));
+    }
+  }
+
+  @Override
+  public long getSessionId() {
+    return sessionId;
+  }
+
+  @Override
+  public byte[] getSessionPasswd() {
+    return sessionPasswd;
+  }
+
+  @Override
+  public int getSessionTimeout() {
+    return sessionTimeout;
+  }
+
+  @Override
+  public void close() {
+    server.close(this);
+  }
+
+  @Override
+  public void detach() {
+    server.detach(this);
+  }
+
+  boolean canBeReadOnly() {
+    return canBeReadOnly;
+  }
+
+  void deliver(WatchedEvent event) {
+    deliver(() -> watcher.process(event));
+  }
+
+  void deliver(Runnable event) {
+    long due;
+    synchronized (this) {
+      long now = System.nanoTime();
+      lastDueNanos = Math.max(now + TimeUnit.MILLISECONDS.toNanos(server.getLatencyMillis()),
+          lastDueNanos);
+      due = lastDueNanos;
+    }
+    try {
+      // Single thread and non-decreasing due times, so events run in the order delivered
+      events.execute(() -> {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        try {
+          event.run();
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The event thread has stopped, as with a real client run the callback on the caller
+      event.run();
+    }
+  }
+
+  /**
+   * Deliver the events already queued, then stop the event thread
+   */
+  void shutdownEvents() {
+    events.shutdown();
+  }
+
+  /**
+   * Blocking calls wait for the latency, as the reply travels back
+   */
+  private void roundTrip() throws InterruptedException {
+    long latency = server.getLatencyMillis();
+    if (latency > 0) {
+      Thread.sleep(latency);
+    }
+  }
+}
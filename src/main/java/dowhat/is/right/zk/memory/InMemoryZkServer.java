@@ -0,0 +1,709 @@
+package dowhat.is.right.zk.memory;
+
+import dowhat.is.right.zk.IZkClient;
+import dowhat.is.right.zk.IZkClientFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.OpResult.CreateResult;
+import org.apache.zookeeper.OpResult.DeleteResult;
+import org.apache.zookeeper.OpResult.ErrorResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.OpCode;
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.apache.zookeeper.proto.DeleteRequest;
+
+/**
+ * <English>
+ * A ZooKeeper node tree held in memory, for deterministic tests and micro-benchmarks of the
+ * primitives without an ensemble or network noise.
+ * <p>
+ * It supports persistent, ephemeral and sequential nodes, one-shot exists and children watches,
+ * atomic <code>multi()</code> of creates and deletes, session expiry, a read-only mode standing
+ * for a partition from the quorum, and a latency injected before every response and watch event. Operations are
+ * applied in the order they are issued, and each client receives its responses and watch events in
+ * order on a single event thread, as with a real client. Pass the server to
+ * <code>ZkSessionManager.setClientFactory()</code> to have new sessions use it, then disconnect or
+ * expire them at will to replay failure scenarios.
+ *
+ * <Chinese>
+ * 保存在内存中的zk节点树，用于原语的确定性测试和微基准，不需要集群，也没有网络噪声。
+ * <p>
+ * 支持持久、临时和顺序节点，一次性的exists和children watch，创建和删除的原子<code>multi()</code>，会话过期，
+ * 模拟与多数派分区的只读模式，以及在每个响应和watch事件前注入的延迟。
+ * 操作按发起的顺序执行，每个客户端和真实客户端一样在单个事件线程上按顺序收到响应和watch事件。
+ * 把服务端传给<code>ZkSessionManager.setClientFactory()</code>，新会话就会使用它，之后可以随时断开或者
+ * 使会话过期，以重放故障场景。
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+public class InMemoryZkServer implements IZkClientFactory {
+
+  //节点树、会话和watch的锁
+  private final Object mutex = new Object();
+  //路径到节点
+  private final Map<String, Node> nodes = new HashMap<>();
+  //会话id到会话
+  private final Map<Long, Session> sessions = new HashMap<>();
+  //exists设置的watch：路径 -> watcher -> 客户端
+  private final Map<String, Map<Watcher, InMemoryZkClient>> dataWatches = new HashMap<>();
+  //getChildren设置的watch：路径 -> watcher -> 客户端
+  private final Map<String, Map<Watcher, InMemoryZkClient>> childWatches = new HashMap<>();
+  //断开连接的会话超时后使其过期
+  private final ScheduledExecutorService expiryTimer;
+  //生成会话密码
+  private final Random random = new Random();
+  //最后一个会话id
+  private long lastSessionId;
+  //最后一个事务id
+  private long zxid;
+  //响应和watch事件的延迟（毫秒）
+  private volatile long latencyMillis;
+  //是否与多数派分区，只能只读
+  private boolean readOnly;
+
+  public InMemoryZkServer() {
+    nodes.put("/", new Node(0, 0, new byte[0]));
+    expiryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "in-memory-zk-expiry");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The connect string is ignored. A session which is unknown or expired, or whose password does not
+   * match, is reported as expired. In read-only mode, a client which can be read-only connects
+   * read-only, the others wait for read-write mode to connect.
+   */
+  @Override
+  public IZkClient newClient(String connectString, int sessionTimeout, Watcher watcher,
+      long sessionId, byte[] sessionPasswd, boolean canBeReadOnly) {
+    synchronized (mutex) {
+      Session session;
+      if (sessionId == 0) {
+        byte[] passwd = new byte[16];
+        random.nextBytes(passwd);
+        session = new Session(++lastSessionId, passwd, sessionTimeout);
+        sessions.put(session.id, session);
+      } else {
+        session = sessions.get(sessionId);
+        if (session == null || !Arrays.equals(session.passwd, sessionPasswd)) {
+          InMemoryZkClient client = new InMemoryZkClient(this, sessionId, sessionPasswd,
+              sessionTimeout, watcher, canBeReadOnly);
+          client.state = InMemoryZkClient.State.EXPIRED;
+          client.deliver(stateEvent(KeeperState.Expired));
+          client.shutdownEvents();
+          return client;
+        }
+        if (session.client != null) {
+          // The new client takes over the session
+          removeWatches(session.client);
+          session.client.state = InMemoryZkClient.State.DETACHED;
+          session.client.shutdownEvents();
+        }
+      }
+      InMemoryZkClient client = new InMemoryZkClient(this, session.id, session.passwd,
+          session.timeout, watcher, canBeReadOnly);
+      session.client = client;
+      connect(session);
+      return client;
+    }
+  }
+
+  /**
+   * <English>
+   * Delay every response and watch event by the given latency. Events of one client keep their
+   * order whatever the latency.
+   *
+   * <Chinese>
+   * 每个响应和watch事件都延迟指定的时间。无论延迟多少，同一个客户端的事件都保持顺序。
+   *
+   * @param latency latency/延迟
+   * @param unit time unit/时间单位
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    latencyMillis = unit.toMillis(latency);
+  }
+
+  long getLatencyMillis() {
+    return latencyMillis;
+  }
+
+  /**
+   * <English>
+   * Enter or leave read-only mode, as a server cut off from the quorum and back.
+   * <p>
+   * On entering, connected clients receive <code>Disconnected</code>. Those which can be read-only
+   * then receive <code>ConnectedReadOnly</code>: reads are served, writes and syncs fail with
+   * <code>NOTREADONLY</code>. The others stay disconnected. On leaving, read-only clients receive
+   * <code>Disconnected</code>, then all of them receive <code>SyncConnected</code>. Sessions do not
+   * expire meanwhile.
+   *
+   * <Chinese>
+   * 进入或退出只读模式，模拟服务端与多数派分区以及恢复。
+   * <p>
+   * 进入时，已连接的客户端收到<code>Disconnected</code>。允许只读的客户端随后收到<code>ConnectedReadOnly</code>：
+   * 读操作正常，写操作和sync以<code>NOTREADONLY</code>失败。其他客户端保持断开。
+   * 退出时，只读客户端收到<code>Disconnected</code>，然后所有这些客户端收到<code>SyncConnected</code>。
+   * 期间会话不会过期。
+   *
+   * @param readOnly whether read-only/是否只读
+   */
+  public void setReadOnly(boolean readOnly) {
+    synchronized (mutex) {
+      if (this.readOnly == readOnly) {
+        return;
+      }
+      this.readOnly = readOnly;
+      for (Session session : sessions.values()) {
+        InMemoryZkClient client = session.client;
+        if (client == null) {
+          continue;
+        }
+        if (readOnly && client.state == InMemoryZkClient.State.CONNECTED) {
+          client.deliver(stateEvent(KeeperState.Disconnected));
+          connect(session);
+        } else if (!readOnly && (client.state == InMemoryZkClient.State.READ_ONLY
+            || client.state == InMemoryZkClient.State.PARTITIONED)) {
+          if (client.state == InMemoryZkClient.State.READ_ONLY) {
+            client.deliver(stateEvent(KeeperState.Disconnected));
+          }
+          connect(session);
+        }
+      }
+    }
+  }
+
+  /**
+   * <English>
+   * Ids of the live sessions.
+   *
+   * <Chinese>
+   * 存活会话的id。
+   *
+   * @return session ids
+   */
+  public Set<Long> getSessionIds() {
+    synchronized (mutex) {
+      return new TreeSet<>(sessions.keySet());
+    }
+  }
+
+  /**
+   * <English>
+   * Drop the connection of a session. Its client receives <code>Disconnected</code>, operations
+   * fail with <code>CONNECTIONLOSS</code>, and the session expires if it is not reconnected within
+   * the session timeout.
+   *
+   * <Chinese>
+   * 断开会话的连接。客户端收到<code>Disconnected</code>，操作以<code>CONNECTIONLOSS</code>失败，
+   * 如果在会话超时时间内没有重新连接，会话过期。
+   *
+   * @param sessionId session id
+   */
+  public void disconnect(long sessionId) {
+    synchronized (mutex) {
+      Session session = sessions.get(sessionId);
+      if (session == null || session.client == null
+          || session.client.state != InMemoryZkClient.State.CONNECTED) {
+        return;
+      }
+      session.client.state = InMemoryZkClient.State.DISCONNECTED;
+      session.client.deliver(stateEvent(KeeperState.Disconnected));
+      scheduleExpiry(session);
+    }
+  }
+
+  /**
+   * <English>
+   * Reconnect a disconnected session. Its client receives <code>SyncConnected</code>, followed by
+   * the watch events triggered while it was disconnected.
+   *
+   * <Chinese>
+   * 重新连接断开的会话。客户端收到<code>SyncConnected</code>，然后收到断开期间触发的watch事件。
+   *
+   * @param sessionId session id
+   */
+  public void reconnect(long sessionId) {
+    synchronized (mutex) {
+      Session session = sessions.get(sessionId);
+      if (session == null || session.client == null
+          || session.client.state != InMemoryZkClient.State.DISCONNECTED) {
+        return;
+      }
+      connect(session);
+    }
+  }
+
+  /**
+   * <English>
+   * Expire a session now: its ephemeral nodes are deleted and its client receives
+   * <code>Expired</code>.
+   *
+   * <Chinese>
+   * 立即使会话过期：删除会话的临时节点，客户端收到<code>Expired</code>。
+   *
+   * @param sessionId session id
+   */
+  public void expire(long sessionId) {
+    synchronized (mutex) {
+      Session session = sessions.get(sessionId);
+      if (session == null) {
+        return;
+      }
+      endSession(session);
+      InMemoryZkClient client = session.client;
+      if (client != null) {
+        client.state = InMemoryZkClient.State.EXPIRED;
+        client.deliver(stateEvent(KeeperState.Expired));
+        client.shutdownEvents();
+      }
+    }
+  }
+
+  /**
+   * <English>
+   * Whether a node exists, for assertions.
+   *
+   * <Chinese>
+   * 节点是否存在，用于断言。
+   *
+   * @param path node path
+   * @return exists
+   */
+  public boolean hasNode(String path) {
+    synchronized (mutex) {
+      return nodes.containsKey(path);
+    }
+  }
+
+  /**
+   * <English>
+   * The sorted children of a node, or an empty list if it does not exist, for assertions.
+   *
+   * <Chinese>
+   * 节点的有序子节点，节点不存在时返回空列表，用于断言。
+   *
+   * @param path node path
+   * @return children
+   */
+  public List<String> listChildren(String path) {
+    synchronized (mutex) {
+      Node node = nodes.get(path);
+      return node == null ? Collections.emptyList() : new ArrayList<>(node.children);
+    }
+  }
+
+  String create(InMemoryZkClient client, String path, byte[] data, CreateMode mode)
+      throws KeeperException {
+    synchronized (mutex) {
+      checkWritable(client, path);
+      return doCreate(client, path, data, mode, null);
+    }
+  }
+
+  void delete(InMemoryZkClient client, String path, int version) throws KeeperException {
+    synchronized (mutex) {
+      checkWritable(client, path);
+      doDelete(path, version, null);
+    }
+  }
+
+  /**
+   * Apply the operations atomically. If one fails, those before it are undone, the watches they
+   * would have triggered are not, and every result is an ErrorResult
+   */
+  List<OpResult> multi(InMemoryZkClient client, List<Op> ops) throws KeeperException {
+    synchronized (mutex) {
+      checkWritable(client, null);
+      Transaction tx = new Transaction();
+      List<OpResult> results = new ArrayList<>(ops.size());
+      for (int i = 0; i < ops.size(); i++) {
+        Op op = ops.get(i);
+        try {
+          if (op.getType() == OpCode.create) {
+            CreateRequest request = (CreateRequest) op.toRequestRecord();
+            results.add(new CreateResult(doCreate(client, op.getPath(), request.getData(),
+                CreateMode.fromFlag(request.getFlags()), tx)));
+          } else if (op.getType() == OpCode.delete) {
+            doDelete(op.getPath(), ((DeleteRequest) op.toRequestRecord()).getVersion(), tx);
+            results.add(new DeleteResult());
+          } else {
+            throw KeeperException.create(Code.UNIMPLEMENTED, op.getPath());
+          }
+        } catch (KeeperException e) {
+          for (int j = tx.undo.size() - 1; j >= 0; j--) {
+            tx.undo.get(j).run();
+          }
+          List<OpResult> errors = new ArrayList<>(ops.size());
+          for (int j = 0; j < ops.size(); j++) {
+            errors.add(new ErrorResult(j < i ? Code.OK.intValue()
+                : j == i ? e.code().intValue() : Code.RUNTIMEINCONSISTENCY.intValue()));
+          }
+          return errors;
+        }
+      }
+      for (Runnable trigger : tx.triggers) {
+        trigger.run();
+      }
+      return results;
+    }
+  }
+
+  private String doCreate(InMemoryZkClient client, String path, byte[] data, CreateMode mode,
+      Transaction tx) throws KeeperException {
+    String parentPath = parentOf(path);
+    Node parent = nodes.get(parentPath);
+    if (parent == null) {
+      throw KeeperException.create(Code.NONODE, path);
+    }
+    if (parent.ephemeralOwner != 0) {
+      throw KeeperException.create(Code.NOCHILDRENFOREPHEMERALS, path);
+    }
+    if (mode.isSequential()) {
+      path = path + String.format("%010d", parent.cversion);
+    }
+    if (nodes.containsKey(path)) {
+      throw KeeperException.create(Code.NODEEXISTS, path);
+    }
+    zxid++;
+    Node node = new Node(zxid, mode.isEphemeral() ? client.getSessionId() : 0,
+        data == null ? new byte[0] : data);
+    String name = path.substring(parentPath.length() == 1 ? 1 : parentPath.length() + 1);
+    long pzxid = parent.pzxid;
+    nodes.put(path, node);
+    parent.children.add(name);
+    parent.cversion++;
+    parent.pzxid = zxid;
+    Session owner = node.ephemeralOwner != 0 ? sessions.get(node.ephemeralOwner) : null;
+    if (owner != null) {
+      owner.ephemerals.add(path);
+    }
+    String created = path;
+    if (tx != null) {
+      tx.undo.add(() -> {
+        nodes.remove(created);
+        parent.children.remove(name);
+        parent.cversion--;
+        parent.pzxid = pzxid;
+        if (owner != null) {
+          owner.ephemerals.remove(created);
+        }
+      });
+    }
+    trigger(dataWatches, path, EventType.NodeCreated, tx);
+    trigger(childWatches, parentPath, EventType.NodeChildrenChanged, tx);
+    return path;
+  }
+
+  private void doDelete(String path, int version, Transaction tx) throws KeeperException {
+    Node node = nodes.get(path);
+    if (node == null || "/".equals(path)) {
+      throw KeeperException.create(node == null ? Code.NONODE : Code.BADARGUMENTS, path);
+    }
+    if (version != -1 && version != node.version) {
+      throw KeeperException.create(Code.BADVERSION, path);
+    }
+    if (!node.children.isEmpty()) {
+      throw KeeperException.create(Code.NOTEMPTY, path);
+    }
+    removeNode(path, node, tx);
+  }
+
+  Stat exists(InMemoryZkClient client, String path, Watcher watcher) throws KeeperException {
+    synchronized (mutex) {
+      checkConnected(client, path);
+      if (watcher != null) {
+        // Set even when the node does not exist, to learn when it is created
+        dataWatches.computeIfAbsent(path, p -> new HashMap<>()).put(watcher, client);
+      }
+      Node node = nodes.get(path);
+      if (node == null) {
+        throw KeeperException.create(Code.NONODE, path);
+      }
+      return node.stat();
+    }
+  }
+
+  List<String> getChildren(InMemoryZkClient client, String path, Watcher watcher)
+      throws KeeperException {
+    synchronized (mutex) {
+      checkConnected(client, path);
+      Node node = nodes.get(path);
+      if (node == null) {
+        throw KeeperException.create(Code.NONODE, path);
+      }
+      if (watcher != null) {
+        childWatches.computeIfAbsent(path, p -> new HashMap<>()).put(watcher, client);
+      }
+      return new ArrayList<>(node.children);
+    }
+  }
+
+  void sync(InMemoryZkClient client, String path) throws KeeperException {
+    synchronized (mutex) {
+      checkWritable(client, path);
+    }
+  }
+
+  void close(InMemoryZkClient client) {
+    synchronized (mutex) {
+      Session session = sessions.get(client.getSessionId());
+      if (session != null && session.client == client) {
+        endSession(session);
+      }
+      client.state = InMemoryZkClient.State.CLOSED;
+      client.shutdownEvents();
+    }
+  }
+
+  void detach(InMemoryZkClient client) {
+    synchronized (mutex) {
+      if (client.state == InMemoryZkClient.State.EXPIRED
+          || client.state == InMemoryZkClient.State.CLOSED
+          || client.state == InMemoryZkClient.State.DETACHED) {
+        return;
+      }
+      removeWatches(client);
+      client.state = InMemoryZkClient.State.DETACHED;
+      client.shutdownEvents();
+      Session session = sessions.get(client.getSessionId());
+      if (session != null && session.client == client) {
+        // The session lives on until it times out, or another client takes it over
+        session.client = null;
+        scheduleExpiry(session);
+      }
+    }
+  }
+
+  /**
+   * Connect the current client of a session, read-write, read-only, or not at all if it cannot be
+   * read-only, followed by the watch events triggered while it was disconnected
+   */
+  private void connect(Session session) {
+    InMemoryZkClient client = session.client;
+    session.epoch++;
+    if (!readOnly) {
+      client.state = InMemoryZkClient.State.CONNECTED;
+      client.deliver(stateEvent(KeeperState.SyncConnected));
+    } else if (client.canBeReadOnly()) {
+      client.state = InMemoryZkClient.State.READ_ONLY;
+      client.deliver(stateEvent(KeeperState.ConnectedReadOnly));
+    } else {
+      client.state = InMemoryZkClient.State.PARTITIONED;
+      return;
+    }
+    for (Runnable event : client.missedEvents) {
+      client.deliver(event);
+    }
+    client.missedEvents.clear();
+  }
+
+  private void checkWritable(InMemoryZkClient client, String path) throws KeeperException {
+    if (client.state == InMemoryZkClient.State.READ_ONLY) {
+      throw KeeperException.create(Code.NOTREADONLY, path);
+    }
+    checkConnected(client, path);
+  }
+
+  private void checkConnected(InMemoryZkClient client, String path) throws KeeperException {
+    switch (client.state) {
+      case CONNECTED:
+      case READ_ONLY:
+        return;
+      case EXPIRED:
+      case CLOSED:
+        throw KeeperException.create(Code.SESSIONEXPIRED, path);
+      default:
+        throw KeeperException.create(Code.CONNECTIONLOSS, path);
+    }
+  }
+
+  private void scheduleExpiry(Session session) {
+    long epoch = session.epoch;
+    expiryTimer.schedule(() -> {
+      synchronized (mutex) {
+        if (session.epoch == epoch && sessions.get(session.id) == session) {
+          expire(session.id);
+        }
+      }
+    }, session.timeout, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Forget a session, deleting its ephemeral nodes and watches
+   */
+  private void endSession(Session session) {
+    sessions.remove(session.id);
+    if (session.client != null) {
+      removeWatches(session.client);
+    }
+    for (String path : new ArrayList<>(session.ephemerals)) {
+      Node node = nodes.get(path);
+      if (node != null) {
+        removeNode(path, node, null);
+      }
+    }
+  }
+
+  private void removeNode(String path, Node node, Transaction tx) {
+    zxid++;
+    nodes.remove(path);
+    String parentPath = parentOf(path);
+    Node parent = nodes.get(parentPath);
+    String name = path.substring(parentPath.length() == 1 ? 1 : parentPath.length() + 1);
+    long pzxid = parent.pzxid;
+    parent.children.remove(name);
+    parent.cversion++;
+    parent.pzxid = zxid;
+    Session owner = node.ephemeralOwner != 0 ? sessions.get(node.ephemeralOwner) : null;
+    if (owner != null) {
+      owner.ephemerals.remove(path);
+    }
+    if (tx != null) {
+      tx.undo.add(() -> {
+        nodes.put(path, node);
+        parent.children.add(name);
+        parent.cversion--;
+        parent.pzxid = pzxid;
+        if (owner != null) {
+          owner.ephemerals.add(path);
+        }
+      });
+    }
+    trigger(dataWatches, path, EventType.NodeDeleted, tx);
+    trigger(childWatches, path, EventType.NodeDeleted, tx);
+    trigger(childWatches, parentPath, EventType.NodeChildrenChanged, tx);
+  }
+
+  /**
+   * Fire and clear the one-shot watches on a path
+   */
+  private void trigger(Map<String, Map<Watcher, InMemoryZkClient>> watches, String path,
+      EventType type, Transaction tx) {
+    if (tx != null) {
+      // Only once the whole transaction has been applied
+      tx.triggers.add(() -> trigger(watches, path, type, null));
+      return;
+    }
+    Map<Watcher, InMemoryZkClient> watchers = watches.remove(path);
+    if (watchers == null) {
+      return;
+    }
+    for (Map.Entry<Watcher, InMemoryZkClient> entry : watchers.entrySet()) {
+      Watcher watcher = entry.getKey();
+      InMemoryZkClient client = entry.getValue();
+      WatchedEvent event = new WatchedEvent(type, KeeperState.SyncConnected, path);
+      if (client.state == InMemoryZkClient.State.CONNECTED) {
+        client.deliver(() -> watcher.process(event));
+      } else if (client.state == InMemoryZkClient.State.DISCONNECTED
+          || client.state == InMemoryZkClient.State.READ_ONLY
+          || client.state == InMemoryZkClient.State.PARTITIONED) {
+        client.missedEvents.add(() -> watcher.process(event));
+      }
+    }
+  }
+
+  private void removeWatches(InMemoryZkClient client) {
+    for (Map<String, Map<Watcher, InMemoryZkClient>> watches : Arrays.asList(dataWatches,
+        childWatches)) {
+      Iterator<Map<Watcher, InMemoryZkClient>> it = watches.values().iterator();
+      while (it.hasNext()) {
+        Map<Watcher, InMemoryZkClient> watchers = it.next();
+        watchers.values().removeIf(c -> c == client);
+        if (watchers.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+    client.missedEvents.clear();
+  }
+
+  private static WatchedEvent stateEvent(KeeperState state) {
+    return new WatchedEvent(EventType.None, state, null);
+  }
+
+  private static String parentOf(String path) {
+    int idx = path.lastIndexOf('/');
+    return idx <= 0 ? "/" : path.substring(0, idx);
+  }
+
+  /**
+   * Undo steps and deferred watch triggers of a multi()
+   */
+  private static final class Transaction {
+
+    final List<Runnable> undo = new ArrayList<>();
+    final List<Runnable> triggers = new ArrayList<>();
+  }
+
+  /**
+   * A session, which outlives the client that created it when the client is detached
+   */
+  private static final class Session {
+
+    final long id;
+    final byte[] passwd;
+    final int timeout;
+    //会话的临时节点
+    final Set<String> ephemerals = new TreeSet<>();
+    //当前使用会话的客户端
+    InMemoryZkClient client;
+    //每次连接递增，用于取消过期的超时
+    long epoch;
+
+    Session(long id, byte[] passwd, int timeout) {
+      this.id = id;
+      this.passwd = passwd;
+      this.timeout = timeout;
+    }
+  }
+
+  private static final class Node {
+
+    final long czxid;
+    final long ctime = System.currentTimeMillis();
+    final long ephemeralOwner;
+    final byte[] data;
+    //有序的子节点名称
+    final TreeSet<String> children = new TreeSet<>();
+    int version;
+    int cversion;
+    long pzxid;
+
+    Node(long czxid, long ephemeralOwner, byte[] data) {
+      this.czxid = czxid;
+      this.ephemeralOwner = ephemeralOwner;
+      this.data = data;
+      pzxid = czxid;
+    }
+
+    Stat stat() {
+      return new Stat(czxid, czxid, ctime, ctime, version, cversion, 0, ephemeralOwner,
+          data.length, children.size(), pzxid);
+    }
+  }
+}
@@ -0,0 +1,7 @@
+/**
+ * in-memory zookeeper
+ *
+ * @author 杨春炼
+ * @since 2020-05-19
+ */
+package dowhat.is.right.zk.memory;
@@ -0,0 +1,46 @@
+package dowhat.is.right.concurrency;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <English>
+ * Access to virtual threads, Java 21 version.
+ *
+ * <Chinese>
+ * 访问虚拟线程，Java 21的版本。
+ *
+ * @author 杨春炼
+ * @since 2020-05-20
+ */
+public final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * <English>
+   * Whether virtual threads are available on this JVM.
+   *
+   * <Chinese>
+   * 当前JVM是否支持虚拟线程。
+   *
+   * @return supported
+   */
+  public static boolean isSupported() {
+    return true;
+  }
+
+  /**
+   * <English>
+   * A factory of virtual threads, named with the prefix and a counter.
+   *
+   * <Chinese>
+   * 虚拟线程工厂，线程名为前缀加序号。
+   *
+   * @param name Thread name prefix./线程名前缀
+   * @return thread factory
+   */
+  public static ThreadFactory newThreadFactory(String name) {
+    return Thread.ofVirtual().name(name + "-", 0).factory();
+  }
+}
@@ -0,0 +1,56 @@
+package dowhat.is.right.concurrency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+  @Test
+  public void testTasksOfOneKeyRunInOrder() throws InterruptedException {
+    StripedExecutor executor = new StripedExecutor("test", 4);
+    List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(1000);
+    Object key = new Object();
+    for (int i = 0; i < 1000; i++) {
+      int n = i;
+      executor.execute(key, () -> {
+        seen.add(n);
+        done.countDown();
+      });
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, (int) seen.get(i));
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSlowKeyDoesNotBlockOtherStripes() throws InterruptedException {
+    StripedExecutor executor = new StripedExecutor("test", 2);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch other = new CountDownLatch(1);
+    // Integer keys 0 and 1 land on different stripes
+    executor.execute(0, () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    executor.execute(0, () -> {
+    });
+    executor.execute(1, other::countDown);
+    assertTrue(other.await(5, TimeUnit.SECONDS));
+    assertEquals(2, executor.getQueueDepths()[0]);
+    release.countDown();
+    executor.shutdown();
+  }
+}
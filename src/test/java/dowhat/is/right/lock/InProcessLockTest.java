@@ -0,0 +1,168 @@
+package dowhat.is.right.lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.lock.ILock.LockState;
+import dowhat.is.right.zk.lock.ILock.LockType;
+import dowhat.is.right.zk.lock.ISinglePathLock;
+import dowhat.is.right.zk.lock.PrefixLockFactory;
+import dowhat.is.right.zk.lock.ZkMultiPathLock;
+import dowhat.is.right.zk.lock.ZkMultiPathLock.AcquireStrategy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class InProcessLockTest {
+
+  private static String newPath() {
+    return "/" + UUID.randomUUID();
+  }
+
+  @Test
+  public void testWriteLockExcludes() throws Exception {
+    String path = newPath();
+    InProcessLock holder = new InProcessLock(path, LockType.WRITE);
+    holder.acquire();
+    assertFalse(new InProcessLock(path, LockType.WRITE).tryAcquire());
+    assertFalse(new InProcessLock(path, LockType.READ).tryAcquire());
+    holder.release();
+    assertTrue(new InProcessLock(path, LockType.WRITE).tryAcquire());
+  }
+
+  @Test
+  public void testReadLocksShare() throws Exception {
+    String path = newPath();
+    InProcessLock reader1 = new InProcessLock(path, LockType.READ);
+    InProcessLock reader2 = new InProcessLock(path, LockType.READ);
+    assertTrue(reader1.tryAcquire());
+    assertTrue(reader2.tryAcquire());
+    CompletableFuture<Void> writerAcquired = new CompletableFuture<>();
+    InProcessLock writer = new InProcessLock(path, LockType.WRITE);
+    new Thread(() -> {
+      try {
+        writer.acquire();
+        writerAcquired.complete(null);
+      } catch (Exception e) {
+        writerAcquired.completeExceptionally(e);
+      }
+    }).start();
+    reader1.release();
+    Thread.sleep(100);
+    assertFalse(writerAcquired.isDone());
+    reader2.release();
+    writerAcquired.get(5, TimeUnit.SECONDS);
+    assertEquals(LockState.ACQUIRED, writer.getState());
+    writer.release();
+  }
+
+  @Test
+  public void testReserveKeepsPosition() throws Exception {
+    String path = newPath();
+    InProcessLock holder = new InProcessLock(path, LockType.WRITE);
+    holder.acquire();
+    InProcessLock reserved = new InProcessLock(path, LockType.WRITE);
+    reserved.reserve();
+    InProcessLock late = new InProcessLock(path, LockType.WRITE);
+    holder.release();
+    // The reservation is ahead of later arrivals even before it is claimed
+    assertFalse(late.tryAcquire());
+    assertTrue(reserved.tryAcquire());
+    reserved.release();
+  }
+
+  @Test
+  public void testMultiPathLockOverInProcessLocks() throws Exception {
+    String folder = newPath();
+    ZkMultiPathLock holder = new ZkMultiPathLock(AcquireStrategy.ORDERED, InProcessLock::new);
+    holder.addWriteLock(folder + "/b");
+    holder.acquire();
+    ZkMultiPathLock lock = new ZkMultiPathLock(AcquireStrategy.ORDERED, InProcessLock::new);
+    lock.addWriteLock(folder + "/b");
+    lock.addReadLock(folder + "/a");
+    ZkMultiPathLock tryLock = new ZkMultiPathLock(InProcessLock::new);
+    tryLock.addWriteLock(folder + "/b");
+    assertFalse(tryLock.tryAcquire());
+    CompletableFuture<ZkMultiPathLock> acquired = lock.acquireAsync();
+    Thread.sleep(100);
+    assertFalse(acquired.isDone());
+    // Path a is held while waiting in order for path b
+    assertFalse(new InProcessLock(folder + "/a", LockType.WRITE).tryAcquire());
+    holder.release();
+    assertSame(lock, acquired.get(5, TimeUnit.SECONDS));
+    assertEquals(LockState.ACQUIRED, lock.getState());
+    lock.release();
+    assertTrue(new InProcessLock(folder + "/a", LockType.WRITE).tryAcquire());
+  }
+
+  @Test
+  public void testTryAcquireStopsAtFirstHeldPath() throws Exception {
+    String folder = newPath();
+    InProcessLock holder = new InProcessLock(folder + "/a", LockType.WRITE);
+    holder.acquire();
+    List<ISinglePathLock> created = new ArrayList<>();
+    ZkMultiPathLock lock = new ZkMultiPathLock((path, type) -> {
+      ISinglePathLock subLock = new InProcessLock(path, type);
+      created.add(subLock);
+      return subLock;
+    });
+    lock.addWriteLock(folder + "/b");
+    lock.addWriteLock(folder + "/a");
+    assertFalse(lock.tryAcquire());
+    // Path b comes after the held path a, so it was never tried
+    for (ISinglePathLock subLock : created) {
+      assertEquals(subLock.getLockPath().endsWith("/a") ? LockState.ABANDONED : LockState.IDLE,
+          subLock.getState());
+    }
+    holder.release();
+  }
+
+  @Test
+  public void testBackOffContentionOnSharedPaths() throws Exception {
+    String folder = newPath();
+    AtomicInteger holders = new AtomicInteger();
+    AtomicInteger maxHolders = new AtomicInteger();
+    List<CompletableFuture<Void>> workers = new ArrayList<>();
+    for (int w = 0; w < 3; w++) {
+      CompletableFuture<Void> done = new CompletableFuture<>();
+      workers.add(done);
+      new Thread(() -> {
+        try {
+          for (int i = 0; i < 10; i++) {
+            ZkMultiPathLock lock = new ZkMultiPathLock(InProcessLock::new);
+            lock.addWriteLock(folder + "/a");
+            lock.addWriteLock(folder + "/b");
+            lock.acquire();
+            maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+            Thread.sleep(1);
+            holders.decrementAndGet();
+            lock.release();
+          }
+          done.complete(null);
+        } catch (Exception e) {
+          done.completeExceptionally(e);
+        }
+      }).start();
+    }
+    // Every worker conflicts at path a, so nobody gives up with MAX_ATTEMPTS_EXCEEDED
+    for (CompletableFuture<Void> done : workers) {
+      done.get(60, TimeUnit.SECONDS);
+    }
+    assertEquals(1, maxHolders.get());
+  }
+
+  @Test
+  public void testPrefixLockFactory() {
+    PrefixLockFactory factory = new PrefixLockFactory()
+        .register("/hot/", InProcessLock::new);
+    assertTrue(factory.newLock("/hot", LockType.READ) instanceof InProcessLock);
+    assertTrue(factory.newLock("/hot/a/b", LockType.WRITE) instanceof InProcessLock);
+    assertSame(factory.factoryFor("/cold"), factory.factoryFor("/hotel"));
+  }
+}
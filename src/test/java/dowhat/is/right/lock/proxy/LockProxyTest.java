@@ -0,0 +1,94 @@
+package dowhat.is.right.lock.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.ZkException;
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock;
+import dowhat.is.right.zk.lock.ILock.LockState;
+import dowhat.is.right.zk.lock.ILock.LockType;
+import dowhat.is.right.zk.lock.ILockListener;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockProxyTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+  private LockProxyServer proxy;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+    proxy = new LockProxyServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        session);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    proxy.close();
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private LockProxyClient connect() throws Exception {
+    return new LockProxyClient(proxy.getLocalAddress());
+  }
+
+  @Test
+  public void testWriteLockExcludesAcrossClients() throws Exception {
+    try (LockProxyClient first = connect(); LockProxyClient second = connect()) {
+      ILock holder = first.newLock("/jobs/report", LockType.WRITE);
+      holder.acquire();
+      assertFalse(second.newLock("/jobs/report", LockType.WRITE).tryAcquire());
+      assertFalse(second.newLock("/jobs/report", LockType.READ).tryAcquire());
+      holder.release();
+      // Releasing is asynchronous, wait for the lock node to go
+      long deadline = System.currentTimeMillis() + 5000;
+      while (!server.listChildren("/jobs/report").isEmpty()
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      ILock next = second.newLock("/jobs/report", LockType.WRITE);
+      assertTrue(next.tryAcquire());
+      assertEquals(1, proxy.getLockCount());
+      next.release();
+    }
+  }
+
+  @Test
+  public void testDisconnectReleasesLocks() throws Exception {
+    LockProxyClient crashing = connect();
+    crashing.newLock("/jobs/import", LockType.WRITE).acquire();
+    try (LockProxyClient waiting = connect()) {
+      CompletableFuture<ILock> acquired = new CompletableFuture<>();
+      ILock lock = waiting.newLock("/jobs/import", LockType.WRITE);
+      lock.acquire(new ILockListener() {
+        @Override
+        public void onLockAcquired(ILock lock, Object context) {
+          acquired.complete(lock);
+        }
+
+        @Override
+        public void onLockError(ZkException err, ILock lock, Object context) {
+          acquired.completeExceptionally(err);
+        }
+      }, null);
+      assertFalse(acquired.isDone());
+      // The worker dies while holding the lock
+      crashing.close();
+      assertEquals(lock, acquired.get(5, TimeUnit.SECONDS));
+      assertEquals(LockState.ACQUIRED, lock.getState());
+    }
+  }
+}
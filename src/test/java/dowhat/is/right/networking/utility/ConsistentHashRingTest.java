@@ -0,0 +1,68 @@
+package dowhat.is.right.networking.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+  private static final int KEYS = 10000;
+
+  private static Map<String, String> assign(ConsistentHashRing<String> ring) {
+    Map<String, String> assignment = new HashMap<>(KEYS * 2);
+    for (int i = 0; i < KEYS; i++) {
+      String key = "/locks/" + i;
+      assignment.put(key, ring.get(key));
+    }
+    return assignment;
+  }
+
+  @Test
+  public void testEmptyRing() {
+    assertNull(new ConsistentHashRing<String>(10).get("/a"));
+  }
+
+  @Test
+  public void testKeysSpreadOverNodes() {
+    ConsistentHashRing<String> ring = new ConsistentHashRing<>(160);
+    for (String name : new String[]{"zk1", "zk2", "zk3", "zk4"}) {
+      ring.add(name, name);
+    }
+    Map<String, Integer> counts = new HashMap<>();
+    for (String node : assign(ring).values()) {
+      counts.merge(node, 1, Integer::sum);
+    }
+    assertEquals(4, counts.size());
+    for (int count : counts.values()) {
+      assertTrue("unbalanced: " + counts, count > KEYS / 4 * 0.7 && count < KEYS / 4 * 1.3);
+    }
+  }
+
+  @Test
+  public void testAddingNodeOnlyMovesItsShare() {
+    ConsistentHashRing<String> ring = new ConsistentHashRing<>(160);
+    for (String name : new String[]{"zk1", "zk2", "zk3"}) {
+      ring.add(name, name);
+    }
+    Map<String, String> before = assign(ring);
+    ring.add("zk4", "zk4");
+    Map<String, String> after = assign(ring);
+    int moved = 0;
+    for (Map.Entry<String, String> entry : before.entrySet()) {
+      String now = after.get(entry.getKey());
+      if (!now.equals(entry.getValue())) {
+        // Keys only ever move to the new node
+        assertEquals("zk4", now);
+        moved++;
+      }
+    }
+    assertTrue("moved " + moved, moved > KEYS / 4 * 0.7 && moved < KEYS / 4 * 1.3);
+    // And removing it puts them back
+    ring.remove("zk4");
+    assertEquals(before, assign(ring));
+  }
+}
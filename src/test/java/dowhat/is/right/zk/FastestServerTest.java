@@ -0,0 +1,150 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.ServerLatencyProbe.Latency;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Test;
+
+public class FastestServerTest {
+
+  private final List<NIOServerCnxnFactory> factories = new ArrayList<>();
+  private final List<ZkSessionManager> sessions = new ArrayList<>();
+
+  @After
+  public void tearDown() throws Exception {
+    for (ZkSessionManager session : sessions) {
+      session.shutdown();
+    }
+    for (NIOServerCnxnFactory factory : factories) {
+      factory.shutdown();
+    }
+    ZkSessionManager.setLatencyProbe(null);
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  /**
+   * A standalone server in this JVM
+   */
+  private ZooKeeperServer startServer() throws Exception {
+    File dir = Files.createTempDirectory("zk").toFile();
+    ZooKeeperServer server = new ZooKeeperServer(dir, dir, 2000);
+    NIOServerCnxnFactory factory = new NIOServerCnxnFactory();
+    factory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+    factory.startup(server);
+    factories.add(factory);
+    return server;
+  }
+
+  /**
+   * Reports fixed latencies instead of measuring them
+   */
+  private static void probeAs(Map<String, Long> latencies) {
+    ZkSessionManager.setLatencyProbe(new ServerLatencyProbe() {
+      @Override
+      public List<Latency> probe(String[] servers) {
+        List<Latency> result = new ArrayList<>();
+        for (String server : servers) {
+          result.add(new Latency(server, latencies.get(server)));
+        }
+        return result;
+      }
+    });
+  }
+
+  private ZkSessionManager connect(String connectString, int sessionTimeout) {
+    ZkSessionManager session = ZkSessionManager.newSession(connectString, sessionTimeout, 3);
+    sessions.add(session);
+    return session;
+  }
+
+  @Test
+  public void testConnectsToTheFastestServer() throws Exception {
+    ZooKeeperServer slow = startServer();
+    ZooKeeperServer fast = startServer();
+    String slowServer = "127.0.0.1:" + slow.getClientPort();
+    String fastServer = "127.0.0.1:" + fast.getClientPort();
+    Map<String, Long> latencies = new HashMap<>();
+    latencies.put(slowServer, 50_000_000L);
+    latencies.put(fastServer, 1_000_000L);
+    probeAs(latencies);
+    String connectString = slowServer + "," + fastServer;
+    for (int i = 0; i < 5; i++) {
+      assertEquals(fastServer, connect(connectString, 6000).getActiveConnectString());
+    }
+    // Every session is on the fast server, whatever order the client would have tried
+    await(() -> fast.getNumAliveConnections() == 5);
+    assertEquals(0, slow.getNumAliveConnections());
+  }
+
+  @Test
+  public void testFallsBackWhenTheFastestServerIsDown() throws Exception {
+    ZooKeeperServer live = startServer();
+    String liveServer = "127.0.0.1:" + live.getClientPort();
+    ServerSocket closed = new ServerSocket(0);
+    String deadServer = "127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    Map<String, Long> latencies = new HashMap<>();
+    latencies.put(deadServer, 1_000_000L);
+    latencies.put(liveServer, 50_000_000L);
+    probeAs(latencies);
+    String connectString = deadServer + "," + liveServer;
+    long start = System.currentTimeMillis();
+    ZkSessionManager session = connect(connectString, 3000);
+    // Connected within a third of the session timeout after giving up on the dead server
+    assertTrue(System.currentTimeMillis() - start < 3000);
+    assertEquals(connectString, session.getActiveConnectString());
+    assertEquals(1, live.getNumAliveConnections());
+  }
+
+  @Test
+  public void testFallsBackOnDisconnectionAndKeepsWatching() throws Exception {
+    InMemoryZkServer server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    Map<String, Long> latencies = new HashMap<>();
+    latencies.put("a:2181", 1_000_000L);
+    latencies.put("b:2181", 50_000_000L);
+    probeAs(latencies);
+    ZkSessionManager session = connect("a:2181,b:2181", 6000);
+    assertEquals("a:2181", session.getActiveConnectString());
+    new ZkPath(session, "/members", CreateMode.PERSISTENT);
+    await(() -> server.hasNode("/members"));
+    ZkContributedKeySet keys = new ZkContributedKeySet(session, "/members", new String[]{"a"},
+        false);
+    await(() -> keys.getKeySet().contains("a"));
+
+    long sessionId = session.zkClient.getSessionId();
+    server.disconnect(sessionId);
+    // The same session moves to the whole connect string
+    await(() -> session.isConnectedNow() && "a:2181,b:2181".equals(
+        session.getActiveConnectString()));
+    assertEquals(sessionId, session.zkClient.getSessionId());
+    assertEquals(0, session.getSessionExpiries());
+    // The children watch was set again on the new client
+    ZkSessionManager other = connect("b:2181", 6000);
+    new ZkContributedKeySet(other, "/members", new String[]{"b"}, false);
+    await(() -> keys.getKeySet().contains("b"));
+  }
+}
@@ -0,0 +1,84 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class InFlightGateTest {
+
+  @Test
+  public void testQueuedOperationsRunByLane() {
+    InFlightGate gate = new InFlightGate(1);
+    List<String> issued = new ArrayList<>();
+    gate.issue(OperationLane.BULK, () -> issued.add("first"));
+    gate.issue(OperationLane.BULK, () -> issued.add("bulk"));
+    gate.issue(OperationLane.ACQUIRE, () -> issued.add("acquire"));
+    gate.issue(OperationLane.RELEASE, () -> issued.add("release"));
+    assertEquals(Arrays.asList("first"), issued);
+    assertEquals(3, gate.getQueued());
+    // Each completion hands its slot to the most urgent waiting operation
+    gate.done();
+    gate.done();
+    gate.done();
+    assertEquals(Arrays.asList("first", "release", "acquire", "bulk"), issued);
+    assertEquals(1, gate.getInFlight());
+    gate.done();
+    assertEquals(0, gate.getInFlight());
+  }
+
+  @Test
+  public void testWrappedCallbackGivesSlotBack() {
+    InFlightGate gate = new InFlightGate(1);
+    gate.issue(OperationLane.ACQUIRE,
+        () -> gate.wrapVoid((rc, path, ctx) -> {
+        }).processResult(0, "/a", null));
+    assertEquals(0, gate.getInFlight());
+  }
+
+  @Test
+  public void testBulkFloodIsBounded() throws Exception {
+    InFlightGate gate = new InFlightGate(2, 5);
+    AtomicInteger issued = new AtomicInteger();
+    int flood = 1000;
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < flood; i++) {
+        gate.issue(OperationLane.BULK, issued::incrementAndGet);
+      }
+    });
+    producer.start();
+    // Completions arrive slower than the producer issues
+    while (issued.get() < flood) {
+      Thread.sleep(0, 100000);
+      if (gate.getInFlight() > 0) {
+        gate.done();
+      }
+    }
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+    assertTrue("peak " + gate.getPeakQueued(), gate.getPeakQueued() <= 5);
+    while (gate.getInFlight() > 0) {
+      gate.done();
+    }
+    // Lock operations are never held back by a full bulk lane
+    for (int i = 0; i < 7; i++) {
+      gate.issue(OperationLane.BULK, issued::incrementAndGet);
+    }
+    Thread blocked = new Thread(() -> gate.issue(OperationLane.BULK, issued::incrementAndGet));
+    blocked.start();
+    gate.issue(OperationLane.RELEASE, issued::incrementAndGet);
+    assertEquals(1, gate.getQueued(OperationLane.RELEASE));
+    blocked.join(100);
+    assertTrue(blocked.isAlive());
+    assertEquals(5, gate.getQueued(OperationLane.BULK));
+    gate.done();
+    gate.done();
+    blocked.join(5000);
+    assertFalse(blocked.isAlive());
+  }
+}
@@ -0,0 +1,153 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.lock.ZkWriteLock;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.apache.zookeeper.KeeperException.Code;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RestartSchedulerTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+  private final List<Waiter> replayOrder = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  /**
+   * A primitive whose operation was interrupted by a disconnection
+   */
+  private final class Waiter extends ZkSyncPrimitive {
+
+    final int priority;
+    final boolean resurrect;
+    final AtomicInteger replays = new AtomicInteger();
+    final AtomicInteger resyncs = new AtomicInteger();
+
+    Waiter(int priority, boolean resurrect) {
+      super(session);
+      this.priority = priority;
+      this.resurrect = resurrect;
+      passOrTryRepeat(Code.CONNECTIONLOSS.intValue(), PASS_OK, () -> {
+        replays.incrementAndGet();
+        replayOrder.add(this);
+      });
+    }
+
+    @Override
+    protected int getRestartPriority() {
+      return priority;
+    }
+
+    @Override
+    protected boolean shouldResurrectAfterSessionExpiry() {
+      return resurrect;
+    }
+
+    @Override
+    protected void resynchronize() {
+      resyncs.incrementAndGet();
+    }
+  }
+
+  private long disconnect() throws Exception {
+    long sessionId = session.zkClient.getSessionId();
+    server.disconnect(sessionId);
+    await(() -> !session.isConnectedNow());
+    return sessionId;
+  }
+
+  @Test
+  public void testReplaysAtConfiguredRate() throws Exception {
+    session.getRestartScheduler().setRatePerSecond(1000);
+    long sessionId = disconnect();
+    int count = 500;
+    for (int i = 0; i < count; i++) {
+      new Waiter(0, false);
+    }
+    long start = System.currentTimeMillis();
+    server.reconnect(sessionId);
+    await(() -> replayOrder.size() == count);
+    long elapsed = System.currentTimeMillis() - start;
+    // 500 operations at 1000 per second, rather than all at once
+    assertTrue("elapsed " + elapsed, elapsed >= 400 && elapsed < 2500);
+    assertEquals(count, session.getRestartScheduler().getReplayed());
+    assertEquals(0, session.getRestartScheduler().getPending());
+  }
+
+  @Test
+  public void testHigherPriorityReplaysFirst() throws Exception {
+    // A lock waiter outranks a cache refresh
+    assertTrue(((ZkSyncPrimitive) new ZkWriteLock(session, "/jobs")).getRestartPriority()
+        > new Waiter(0, false).getRestartPriority());
+    replayOrder.clear();
+    session.getRestartScheduler().setRatePerSecond(100);
+    long sessionId = disconnect();
+    List<Waiter> waiters = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      waiters.add(new Waiter(i % 2 == 0 ? 0 : 10, false));
+    }
+    server.reconnect(sessionId);
+    await(() -> replayOrder.size() == waiters.size());
+    for (int i = 0; i < waiters.size(); i++) {
+      assertEquals("replay " + i, i < 10 ? 10 : 0, replayOrder.get(i).priority);
+    }
+  }
+
+  @Test
+  public void testExpiryDrainsTheQueue() throws Exception {
+    session.getRestartScheduler().setRatePerSecond(100);
+    long sessionId = disconnect();
+    List<Waiter> waiters = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      waiters.add(new Waiter(0, i % 2 == 0));
+    }
+    server.reconnect(sessionId);
+    await(() -> replayOrder.size() >= 10);
+    server.expire(sessionId);
+    await(() -> session.getSessionExpiries() == 1 && session.isConnected());
+    int died = 0;
+    for (Waiter waiter : waiters) {
+      if (waiter.resurrect) {
+        // Resynchronized on the new session, unless replayed before the expiry
+        await(() -> waiter.replays.get() + waiter.resyncs.get() == 1);
+      } else if (waiter.replays.get() == 0) {
+        assertTrue(waiter.getKillerException() != null);
+        died++;
+      } else {
+        assertEquals(1, waiter.replays.get());
+      }
+    }
+    // The queue was drained, not replayed on the expired session
+    assertTrue("died " + died, died > 0);
+    assertEquals(0, session.getRestartScheduler().getPending());
+  }
+}
@@ -0,0 +1,46 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class RetrySchedulerTest {
+
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testJitteredDelaysStayInBounds() {
+    DecorrelatedJitterBackoff backoff = new DecorrelatedJitterBackoff(100, 2000);
+    long delay = 0;
+    for (int i = 0; i < 1000; i++) {
+      delay = backoff.getDelayMillis(i, delay);
+      assertTrue("delay " + delay, delay >= 100 && delay <= 2000);
+    }
+  }
+
+  @Test
+  public void testRetriesRunAndBudgetIsEnforced() throws InterruptedException {
+    RetryScheduler scheduler =
+        new RetryScheduler(executor, new DecorrelatedJitterBackoff(1, 20), 5, 0.001);
+    CountDownLatch ran = new CountDownLatch(8);
+    for (int i = 0; i < 8; i++) {
+      scheduler.schedule(ran::countDown, 0, 0);
+    }
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertEquals(8, scheduler.getScheduled());
+    // Beyond the burst of 5 the retries were pushed back to the max delay, not dropped
+    assertEquals(3, scheduler.getBudgetExhausted());
+    assertEquals(0, scheduler.getPending());
+  }
+}
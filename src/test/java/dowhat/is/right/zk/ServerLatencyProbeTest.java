@@ -0,0 +1,86 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class ServerLatencyProbeTest {
+
+  private final List<ServerSocket> servers = new ArrayList<>();
+
+  @After
+  public void tearDown() throws IOException {
+    for (ServerSocket server : servers) {
+      server.close();
+    }
+  }
+
+  /**
+   * A fake server answering "imok" after a delay
+   */
+  private String startServer(long delayMillis) throws IOException {
+    ServerSocket server = new ServerSocket(0);
+    servers.add(server);
+    Thread thread = new Thread(() -> {
+      while (!server.isClosed()) {
+        try (Socket socket = server.accept()) {
+          socket.getInputStream().read(new byte[4]);
+          Thread.sleep(delayMillis);
+          OutputStream out = socket.getOutputStream();
+          out.write("imok".getBytes(StandardCharsets.US_ASCII));
+          out.flush();
+        } catch (IOException | InterruptedException e) {
+          return;
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return "127.0.0.1:" + server.getLocalPort();
+  }
+
+  @Test
+  public void testOrdersAllServersByLatency() throws IOException {
+    String slow = startServer(300);
+    String fast = startServer(0);
+    String medium = startServer(20);
+    ServerLatencyProbe probe = new ServerLatencyProbe(2000);
+    // The slow server is kept, so the client can still fail over to it
+    assertEquals(fast + "," + medium + "," + slow + "/chroot",
+        probe.select(slow + "," + fast + "," + medium + "/chroot"));
+  }
+
+  @Test
+  public void testUnreachableServersGoLast() throws IOException {
+    String fast = startServer(0);
+    ServerSocket closed = new ServerSocket(0);
+    String unreachable = "127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    ServerLatencyProbe probe = new ServerLatencyProbe(500);
+    assertEquals(fast + "," + unreachable, probe.select(unreachable + "," + fast));
+    // Nothing answers, leave the connect string alone
+    assertEquals(unreachable, probe.select(unreachable));
+  }
+
+  @Test
+  public void testSelectsTheFastestTier() throws IOException {
+    String slow = startServer(300);
+    String fast = startServer(0);
+    ServerSocket closed = new ServerSocket(0);
+    String unreachable = "127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    ServerLatencyProbe probe = new ServerLatencyProbe(2000);
+    assertEquals(fast + "/chroot",
+        probe.selectFastest(slow + "," + unreachable + "," + fast + "/chroot"));
+    // Nothing answers, leave the connect string alone
+    assertEquals(unreachable, probe.selectFastest(unreachable));
+  }
+}
@@ -0,0 +1,78 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkContributedKeySetTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    ZkSessionManager.setReadOnlyAllowed(true);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setReadOnlyAllowed(false);
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testReadOnlySessionReadsAndDefersEntries() throws Exception {
+    new ZkPath(session, "/members", CreateMode.PERSISTENT);
+    await(() -> server.hasNode("/members"));
+    ZkContributedKeySet first = new ZkContributedKeySet(session, "/members", new String[]{"a"},
+        false);
+    await(() -> first.getKeySet().contains("a"));
+    assertFalse(first.isStale());
+
+    server.setLatency(100, TimeUnit.MILLISECONDS);
+    server.setReadOnly(true);
+    // Issued before the session learns it is read-only, so the create reaches the server and
+    // fails with NOTREADONLY
+    ZkContributedKeySet late = new ZkContributedKeySet(session, "/members", new String[]{"b"},
+        false);
+    assertFalse(session.isReadOnly());
+    await(session::isReadOnly);
+    // Reads are still served while read-only
+    ZkContributedKeySet reader = new ZkContributedKeySet(session, "/members", new String[]{"c"},
+        false);
+    await(() -> reader.getKeySet().contains("a"));
+    assertTrue(reader.isStale());
+    assertTrue(late.isStale());
+    // The creates wait for a read-write connection
+    Thread.sleep(500);
+    assertEquals(Arrays.asList("a"), server.listChildren("/members"));
+
+    server.setReadOnly(false);
+    await(() -> server.listChildren("/members").size() == 3);
+    await(() -> reader.getKeySet().size() == 3 && late.getKeySet().size() == 3);
+    assertEquals(Arrays.asList("a", "b", "c"), server.listChildren("/members"));
+    assertFalse(session.isReadOnly());
+    assertFalse(reader.isStale());
+  }
+}
@@ -0,0 +1,122 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.lock.ILock.LockType;
+import dowhat.is.right.zk.lock.ISinglePathLock;
+import dowhat.is.right.zk.lock.ZkLockFactory;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkEnsembleRouterTest {
+
+  private final List<NIOServerCnxnFactory> factories = new ArrayList<>();
+  private final List<ZkSessionManager> sessions = new ArrayList<>();
+  private ZooKeeperServer serverA;
+  private ZooKeeperServer serverB;
+  private ZkSessionManager sessionA;
+  private ZkSessionManager sessionB;
+
+  @Before
+  public void setUp() throws Exception {
+    serverA = startServer();
+    serverB = startServer();
+    sessionA = connect(serverA);
+    sessionB = connect(serverB);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (ZkSessionManager session : sessions) {
+      session.shutdown();
+    }
+    for (NIOServerCnxnFactory factory : factories) {
+      factory.shutdown();
+    }
+  }
+
+  /**
+   * A standalone server in this JVM, standing for a whole ensemble
+   */
+  private ZooKeeperServer startServer() throws Exception {
+    File dir = Files.createTempDirectory("zk").toFile();
+    ZooKeeperServer server = new ZooKeeperServer(dir, dir, 2000);
+    NIOServerCnxnFactory factory = new NIOServerCnxnFactory();
+    factory.configure(new InetSocketAddress("127.0.0.1", 0), 100);
+    factory.startup(server);
+    factories.add(factory);
+    return server;
+  }
+
+  private ZkSessionManager connect(ZooKeeperServer server) {
+    ZkSessionManager session = ZkSessionManager.newSession(
+        "127.0.0.1:" + server.getClientPort(), 6000, 3);
+    sessions.add(session);
+    return session;
+  }
+
+  @Test
+  public void testLocksLandOnTheirEnsemble() throws Exception {
+    ZkEnsembleRouter router = new ZkEnsembleRouter()
+        .addEnsemble("a", sessionA)
+        .addEnsemble("b", sessionB);
+    ZkLockFactory factory = new ZkLockFactory(router);
+    int onA = 0;
+    for (int i = 0; i < 20; i++) {
+      String path = "/locks/job" + i;
+      ISinglePathLock lock = factory.newLock(path, LockType.WRITE);
+      lock.acquire();
+      boolean expectA = router.route(path) == sessionA;
+      onA += expectA ? 1 : 0;
+      ZooKeeperServer expected = expectA ? serverA : serverB;
+      ZooKeeperServer other = expectA ? serverB : serverA;
+      assertNotNull(path, expected.getZKDatabase().getNode(path));
+      assertEquals(path, 1, expected.getZKDatabase().getNode(path).getChildren().size());
+      assertNull(path, other.getZKDatabase().getNode(path));
+      lock.release();
+    }
+    // Both ensembles take a share of the locks
+    assertTrue("on a " + onA, onA > 0 && onA < 20);
+  }
+
+  @Test
+  public void testAddingAnEnsembleMovesAboutOneNth() throws Exception {
+    ZkEnsembleRouter router = new ZkEnsembleRouter()
+        .addEnsemble("a", sessionA)
+        .addEnsemble("b", sessionB);
+    int paths = 10000;
+    Map<String, ZkSessionManager> before = new HashMap<>();
+    for (int i = 0; i < paths; i++) {
+      String path = "/locks/job" + i;
+      before.put(path, router.route(path));
+    }
+    ZkSessionManager sessionC = connect(startServer());
+    router.addEnsemble("c", sessionC);
+    int moved = 0;
+    for (Map.Entry<String, ZkSessionManager> entry : before.entrySet()) {
+      ZkSessionManager after = router.route(entry.getKey());
+      if (after != entry.getValue()) {
+        // A path only ever moves to the new ensemble
+        assertSame(sessionC, after);
+        moved++;
+      }
+    }
+    // 1/3 of the paths would move with a perfectly even ring
+    double share = (double) moved / paths;
+    assertTrue("moved " + share, share > 0.2 && share < 0.45);
+  }
+}
@@ -0,0 +1,89 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.function.BooleanSupplier;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkHotStandbyTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testStandbyTakesOverExpiredSession() throws Exception {
+    session.zkClient.create("/routes", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    ZkContributedKeySet keys =
+        new ZkContributedKeySet(session, "/routes", new String[]{"a"}, true);
+    keys.waitSynchronized();
+    session.setHotStandby(true);
+    await(session::isStandbyReady);
+
+    long expired = session.zkClient.getSessionId();
+    server.expire(expired);
+    await(() -> server.hasNode("/routes/a"));
+    assertEquals(1, session.getStandbyTakeovers());
+    assertTrue(session.isConnected());
+    assertNotEquals(expired, session.zkClient.getSessionId());
+    // A new standby replaces the one that took over
+    await(session::isStandbyReady);
+    assertEquals(2, server.getSessionIds().size());
+
+    session.setHotStandby(false);
+    await(() -> server.getSessionIds().size() == 1);
+  }
+
+  @Test
+  public void testStandbyConnectsReadOnlyDuringPartition() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setReadOnlyAllowed(true);
+    try {
+      session = ZkSessionManager.newSession("memory", 6000, 1);
+      session.setHotStandby(true);
+      await(session::isStandbyReady);
+      server.setReadOnly(true);
+      await(session::isReadOnly);
+      // The standby may use a read-only server too, so it is still ready to take over
+      await(session::isStandbyReady);
+
+      server.expire(session.zkClient.getSessionId());
+      await(() -> session.getStandbyTakeovers() == 1);
+      assertTrue(session.isConnected());
+      assertTrue(session.isReadOnly());
+
+      server.setReadOnly(false);
+      await(() -> !session.isReadOnly());
+      assertTrue(session.isConnected());
+    } finally {
+      ZkSessionManager.setReadOnlyAllowed(false);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.junit.Test;
+
+public class ZkReadBarrierTest {
+
+  private final List<VoidCallback> outstanding = new ArrayList<>();
+  private final ZkReadBarrier barrier =
+      new ZkReadBarrier((path, callback) -> outstanding.add(callback));
+
+  private void completeSync(Code rc) {
+    outstanding.remove(0).processResult(rc.intValue(), "/routes", null);
+  }
+
+  @Test
+  public void testRequestsCoalesceBehindNextSync() {
+    CompletableFuture<Void> first = barrier.sync("/routes");
+    // Requested while the first sync is in flight: served by the next one only
+    List<CompletableFuture<Void>> later = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      later.add(barrier.sync("/routes"));
+    }
+    assertEquals(1, outstanding.size());
+    completeSync(Code.OK);
+    assertTrue(first.isDone());
+    assertFalse(later.get(0).isDone());
+    assertEquals(1, outstanding.size());
+    completeSync(Code.OK);
+    for (CompletableFuture<Void> future : later) {
+      assertTrue(future.isDone());
+    }
+    assertEquals(2, barrier.getSyncs());
+    assertEquals(101, barrier.getRequests());
+    // Idle again, the next request starts a new sync straight away
+    barrier.sync("/routes");
+    assertEquals(1, outstanding.size());
+  }
+
+  @Test
+  public void testFailedSyncFailsItsRequests() {
+    CompletableFuture<Void> future = barrier.sync("/routes");
+    completeSync(Code.CONNECTIONLOSS);
+    assertTrue(future.isCompletedExceptionally());
+  }
+}
@@ -0,0 +1,55 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ZkSessionFileTest {
+
+  @Test
+  public void testCredentialsAreReadOnce() throws IOException {
+    Path file = Files.createTempDirectory("zk").resolve("session");
+    byte[] password = {1, 2, 3, -4};
+    ZkSessionFile.store(file, "zk1:2181", 0x8000000012345678L, password, 60000,
+        Arrays.asList("/locks/a/WRITE-0000000003", "/members/host1"));
+    ZkSessionFile saved = ZkSessionFile.load(file, "zk1:2181");
+    assertEquals(0x8000000012345678L, saved.sessionId);
+    assertArrayEquals(password, saved.password);
+    assertEquals(Arrays.asList("/locks/a/WRITE-0000000003", "/members/host1"), saved.ephemerals);
+    // Deleted once read, so a crashing JVM can't keep reattaching
+    assertFalse(Files.exists(file));
+    assertNull(ZkSessionFile.load(file, "zk1:2181"));
+  }
+
+  @Test
+  public void testStaleOrForeignCredentialsAreIgnored() throws IOException {
+    Path file = Files.createTempDirectory("zk").resolve("session");
+    ZkSessionFile.store(file, "zk1:2181", 1, new byte[16], 60000, Arrays.asList());
+    assertNull(ZkSessionFile.load(file, "zk2:2181"));
+    ZkSessionFile.store(file, "zk1:2181", 1, new byte[16], 0, Arrays.asList());
+    assertNull(ZkSessionFile.load(file, "zk1:2181"));
+  }
+
+  @Test
+  public void testCredentialsAreOwnerOnly() throws IOException {
+    Path dir = Files.createTempDirectory("zk");
+    assumeTrue(Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class));
+    Path file = dir.resolve("session");
+    // A world readable leftover of a crash is not reused
+    Files.createFile(dir.resolve("session.tmp"),
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-rw-rw-")));
+    ZkSessionFile.store(file, "zk1:2181", 1, new byte[16], 60000, Arrays.asList());
+    assertEquals(PosixFilePermissions.fromString("rw-------"),
+        Files.getPosixFilePermissions(file));
+  }
+}
@@ -0,0 +1,87 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkSessionManagerTest {
+
+  private InMemoryZkServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    ZkSessionManager setup = ZkSessionManager.newSession("memory", 6000, 1);
+    setup.zkClient.create("/members", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    setup.shutdown();
+  }
+
+  @After
+  public void tearDown() {
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  private static ZkSyncPrimitive countFirstOperations(ZkSessionManager session,
+      AtomicInteger runs) {
+    return new ZkSyncPrimitive(session) {
+      {
+        runWhenConnected(runs::incrementAndGet);
+      }
+    };
+  }
+
+  @Test
+  public void testPrimitivesCreatedBeforeAsyncConnectionRunOnConnect() throws Exception {
+    server.setLatency(200, TimeUnit.MILLISECONDS);
+    CompletableFuture<ZkSessionManager> connected =
+        ZkSessionManager.initializeInstanceAsync("memory", 6000, 1);
+    ZkSessionManager session = ZkSessionManager.instance();
+    try {
+      // The caller is not blocked, and primitives may be created at once
+      assertFalse(connected.isDone());
+      AtomicInteger runs = new AtomicInteger();
+      countFirstOperations(session, runs);
+      new ZkPath("/jobs", CreateMode.PERSISTENT);
+      ZkContributedKeySet keys =
+          new ZkContributedKeySet("/members", new String[]{"a"}, false);
+      assertEquals(0, runs.get());
+      assertFalse(server.hasNode("/jobs"));
+
+      assertSame(session, connected.get(5, TimeUnit.SECONDS));
+      await(() -> runs.get() == 1);
+      await(() -> server.hasNode("/jobs"));
+      await(() -> keys.getKeySet().contains("a"));
+      assertEquals(Collections.singletonList("a"), server.listChildren("/members"));
+      // Queued once, so replayed once
+      Thread.sleep(300);
+      assertEquals(1, runs.get());
+      // Once connected, the first operation runs straight away
+      countFirstOperations(session, runs);
+      assertEquals(2, runs.get());
+    } finally {
+      session.shutdown();
+    }
+  }
+}
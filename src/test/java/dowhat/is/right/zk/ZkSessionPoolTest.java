@@ -0,0 +1,75 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkSessionPoolTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionPool pool;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    pool = new ZkSessionPool("memory", 6000, 1, 3);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testRoutingIsStableAndSpread() {
+    Set<ZkSessionManager> used = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      String path = "/jobs/" + i;
+      ZkSessionManager session = pool.route(path);
+      assertSame(session, pool.route(path));
+      used.add(session);
+    }
+    assertEquals(3, used.size());
+  }
+
+  @Test
+  public void testHealthAndExpiries() throws Exception {
+    assertEquals(3, server.getSessionIds().size());
+    assertTrue(pool.isHealthy());
+    ZkSessionManager session = pool.getSessions().get(1);
+    long sessionId = session.zkClient.getSessionId();
+
+    server.disconnect(sessionId);
+    await(() -> pool.getConnectedCount() == 2);
+    assertFalse(pool.isHealthy());
+    server.reconnect(sessionId);
+    await(pool::isHealthy);
+    assertEquals(0, pool.getSessionExpiries());
+
+    server.expire(sessionId);
+    await(() -> pool.getSessionExpiries() == 1);
+    // The expired session is replaced, and the pool keeps routing to it
+    await(pool::isHealthy);
+    assertEquals(3, server.getSessionIds().size());
+    assertSame(session, pool.getSessions().get(1));
+  }
+}
@@ -0,0 +1,187 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import dowhat.is.right.concurrency.StripedExecutor;
+import dowhat.is.right.zk.lock.ZkLockBase;
+import dowhat.is.right.zk.lock.ZkWriteLock;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkSyncPrimitiveTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static int passes(ZkSyncPrimitive primitive, int calls, Runnable operation) {
+    int passed = 0;
+    for (int i = 0; i < calls; i++) {
+      // The codes the lock and key set callbacks accept on success. Only the classification is
+      // measured: the rest of a real callback, e.g. sorting the children, still allocates
+      passed += primitive.passOrTryRepeat(Code.OK.intValue(), ZkSyncPrimitive.PASS_OK, operation)
+          ? 1 : 0;
+      passed += primitive.passOrTryRepeat(Code.NONODE.intValue(),
+          ZkSyncPrimitive.PASS_OK_OR_NONODE, operation) ? 1 : 0;
+      passed += primitive.passOrTryRepeat(Code.NODEEXISTS.intValue(),
+          ZkSyncPrimitive.PASS_OK_OR_NODEEXISTS, operation) ? 1 : 0;
+    }
+    return passed;
+  }
+
+  /**
+   * Deliver successful results to a callback the way the ZooKeeper event thread does, one at a
+   * time, each handled on the stripe before the next
+   */
+  private static void releases(ZkSessionManager session, VoidCallback callback, int calls) {
+    StripedExecutor dispatcher = session.getEventDispatcher();
+    for (int i = 0; i < calls; i++) {
+      callback.processResult(Code.OK.intValue(), "/jobs/report/write-0000000000", null);
+      while (dispatcher.getQueueDepth() != 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  @Test
+  public void testClassifyingSuccessDoesNotAllocate() throws Exception {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    ZkSyncPrimitive primitive = new ZkSyncPrimitive(session) {
+    };
+    Runnable operation = () -> {
+    };
+    int calls = 100000;
+    passes(primitive, calls, operation);// warm up
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    int passed = passes(primitive, calls, operation);
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+    assertEquals(3 * calls, passed);
+    // Allow for the bookkeeping of the measurement itself, far below one object per call
+    assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+
+    // A real callback of a lock, handed to the stripe of the lock and handled there
+    ZkWriteLock lock = new ZkWriteLock(session, "/jobs/report");
+    Field field = ZkLockBase.class.getDeclaredField("releaseLockCallback");
+    field.setAccessible(true);
+    VoidCallback released = (VoidCallback) field.get(lock);
+    AtomicLong stripeThreadId = new AtomicLong();
+    session.dispatch(lock, () -> stripeThreadId.set(Thread.currentThread().getId()));
+    calls = 20000;
+    releases(session, released, calls);// warm up
+    long callerBefore = threads.getThreadAllocatedBytes(threadId);
+    long stripeBefore = threads.getThreadAllocatedBytes(stripeThreadId.get());
+    releases(session, released, calls);
+    long callerAllocated = threads.getThreadAllocatedBytes(threadId) - callerBefore;
+    long stripeAllocated = threads.getThreadAllocatedBytes(stripeThreadId.get()) - stripeBefore;
+    assertTrue("caller allocated " + callerAllocated + " bytes", callerAllocated < 1024);
+    assertTrue("stripe allocated " + stripeAllocated + " bytes", stripeAllocated < 1024);
+  }
+
+  @Test
+  public void testCallbacksRunOnTheStripeOfThePrimitive() throws Exception {
+    session.zkClient.create("/p", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    ZkSyncPrimitive primitive = new ZkSyncPrimitive(session) {
+    };
+    CountDownLatch stripeBusy = new CountDownLatch(1);
+    List<String> threads = new CopyOnWriteArrayList<>();
+    CountDownLatch called = new CountDownLatch(2);
+    // Hold the stripe of the primitive, so that its callbacks cannot run yet
+    session.dispatch(primitive, () -> {
+      try {
+        stripeBusy.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    primitive.createNode(OperationLane.ACQUIRE, "/p/n-", new byte[0], Ids.OPEN_ACL_UNSAFE,
+        CreateMode.EPHEMERAL_SEQUENTIAL, (rc, path, ctx, name) -> {
+          threads.add(Thread.currentThread().getName());
+          called.countDown();
+        }, null);
+    primitive.issue(OperationLane.BULK, () -> primitive.zkClient().getChildren("/p", null,
+        primitive.wrapChildren((rc, path, ctx, children) -> {
+          threads.add(Thread.currentThread().getName());
+          called.countDown();
+        }), null));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (server.listChildren("/p").isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, server.listChildren("/p").size());
+    // Both operations completed, but their callbacks wait behind the busy stripe
+    assertFalse(called.await(100, TimeUnit.MILLISECONDS));
+    stripeBusy.countDown();
+    assertTrue(called.await(5, TimeUnit.SECONDS));
+    for (String thread : threads) {
+      assertTrue(thread, thread.startsWith("zk-event-"));
+    }
+  }
+
+  @Test
+  public void testSlowListenerDoesNotDelayOtherPrimitives() throws Exception {
+    ZkSyncPrimitive slow = new ZkSyncPrimitive(session) {
+    };
+    ZkSyncPrimitive other = new ZkSyncPrimitive(session) {
+    };
+    StripedExecutor dispatcher = session.getEventDispatcher();
+    // Even on a single core machine
+    assertTrue(dispatcher.getStripes() > 1);
+    while (dispatcher.stripeOf(other) == dispatcher.stripeOf(slow)) {
+      other = new ZkSyncPrimitive(session) {
+      };
+    }
+    CountDownLatch listenerRunning = new CountDownLatch(1);
+    CountDownLatch releaseListener = new CountDownLatch(1);
+    slow.addUpdateListener(() -> {
+      listenerRunning.countDown();
+      try {
+        releaseListener.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, false);
+    slow.onStateUpdated();
+    assertTrue(listenerRunning.await(5, TimeUnit.SECONDS));
+    CountDownLatch otherUpdated = new CountDownLatch(1);
+    other.addUpdateListener(otherUpdated::countDown, false);
+    other.onStateUpdated();
+    // The other primitive is notified and synchronized while the slow listener still runs
+    assertTrue(otherUpdated.await(5, TimeUnit.SECONDS));
+    other.waitSynchronized();
+    assertEquals(1, releaseListener.getCount());
+    releaseListener.countDown();
+    slow.waitSynchronized();
+  }
+}
@@ -0,0 +1,69 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkWatchMultiplexerTest {
+
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    ZkSessionManager.setClientFactory(new InMemoryZkServer());
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void awaitKeys(List<ZkContributedKeySet> sets, int keys) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    for (ZkContributedKeySet set : sets) {
+      while (set.getKeySet().size() != keys && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(keys, set.getKeySet().size());
+    }
+  }
+
+  @Test
+  public void testKeySetsShareOneWatchAndRead() throws Exception {
+    session.zkClient.create("/routes", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    ZkContributedKeySet contributor =
+        new ZkContributedKeySet(session, "/routes", new String[]{"a"}, false);
+    contributor.waitSynchronized();
+    List<ZkContributedKeySet> observers = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      ZkContributedKeySet observer =
+          new ZkContributedKeySet(session, "/routes", new String[0], false);
+      observer.waitSynchronized();
+      observers.add(observer);
+    }
+    awaitKeys(observers, 1);
+    ZkWatchMultiplexer multiplexer = session.getWatchMultiplexer();
+    assertEquals(1, multiplexer.getWatchCount());
+    long readsBefore = multiplexer.getReads();
+    assertTrue("reads " + readsBefore, readsBefore < 10);
+
+    // One change: one event from ZooKeeper, one shared re-read for all the observers
+    contributor.adjustMyContribution(new String[]{"a", "b"});
+    awaitKeys(observers, 2);
+    awaitKeys(Collections.singletonList(contributor), 2);
+    long readsAfterChange = multiplexer.getReads() - readsBefore;
+    assertTrue("reads " + readsAfterChange, readsAfterChange <= 3);
+    assertTrue(multiplexer.getNotifications() >= observers.size());
+  }
+}
@@ -0,0 +1,142 @@
+package dowhat.is.right.zk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.lock.ZkReadLock;
+import dowhat.is.right.zk.lock.ZkWriteLock;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkWriteBatcherTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  @Test
+  public void testFailingWriteOnlyFailsItself() throws Exception {
+    session.zkClient.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    ZkWriteBatcher batcher = session.getWriteBatcher();
+    batcher.setWindow(50, TimeUnit.MILLISECONDS);
+    Map<String, Integer> results = new ConcurrentHashMap<>();
+    Map<String, String> created = new ConcurrentHashMap<>();
+    CountDownLatch done = new CountDownLatch(5);
+    for (String name : new String[]{"n1", "n2", "n3", "n4"}) {
+      batcher.create(OperationLane.ACQUIRE, "/b/" + name, new byte[0], Ids.OPEN_ACL_UNSAFE,
+          CreateMode.EPHEMERAL_SEQUENTIAL, (rc, path, ctx, nodeName) -> {
+            results.put(path, rc);
+            created.put(path, String.valueOf(nodeName));
+            done.countDown();
+          }, null);
+      if (name.equals("n2")) {
+        // A lost node, the only write of the transaction that fails
+        batcher.delete(OperationLane.RELEASE, "/b/missing", -1, (rc, path, ctx) -> {
+          results.put(path, rc);
+          done.countDown();
+        }, null);
+      }
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Code.NONODE.intValue(), (int) results.get("/b/missing"));
+    for (String name : new String[]{"n1", "n2", "n3", "n4"}) {
+      assertEquals(Code.OK.intValue(), (int) results.get("/b/" + name));
+      assertTrue(server.hasNode(created.get("/b/" + name)));
+    }
+    assertEquals(1, batcher.getTransactions());
+    assertEquals(4, batcher.getRolledBack());
+  }
+
+  @Test
+  public void testOnlyLockNodeCreatesAreBatched() throws Exception {
+    session.zkClient.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    ZkWriteBatcher batcher = session.getWriteBatcher();
+    batcher.setWindow(50, TimeUnit.MILLISECONDS);
+    CountDownLatch done = new CountDownLatch(3);
+    for (String name : new String[]{"p1", "p2", "p3"}) {
+      batcher.create(OperationLane.ACQUIRE, "/b/" + name, new byte[0], Ids.OPEN_ACL_UNSAFE,
+          CreateMode.PERSISTENT, (rc, path, ctx, nodeName) -> done.countDown(), null);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, batcher.getWrites());
+    assertEquals(0, batcher.getTransactions());
+  }
+
+  @Test
+  public void testLockCreatesOnExistingPathDoNotRollBack() throws Exception {
+    session.zkClient.create("/locks", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    session.zkClient.create("/locks/shared", new byte[0], Ids.OPEN_ACL_UNSAFE,
+        CreateMode.PERSISTENT);
+    ZkWriteBatcher batcher = session.getWriteBatcher();
+    batcher.setWindow(20, TimeUnit.MILLISECONDS);
+    int count = 10;
+    CountDownLatch acquired = new CountDownLatch(count);
+    ZkReadLock[] locks = new ZkReadLock[count];
+    for (int i = 0; i < locks.length; i++) {
+      ZkReadLock lock = new ZkReadLock(session, "/locks/shared");
+      locks[i] = lock;
+      new Thread(() -> {
+        try {
+          lock.acquire();
+          acquired.countDown();
+        } catch (ZkException e) {
+          throw new IllegalStateException(e);
+        }
+      }).start();
+    }
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertTrue("transactions " + batcher.getTransactions(),
+        batcher.getTransactions() > 0 && batcher.getTransactions() < batcher.getWrites());
+    assertEquals(0, batcher.getRolledBack());
+    for (ZkReadLock lock : locks) {
+      lock.release();
+    }
+  }
+
+  @Test
+  public void testLocksShareTransactions() throws Exception {
+    ZkWriteBatcher batcher = session.getWriteBatcher();
+    batcher.setWindow(20, TimeUnit.MILLISECONDS);
+    CountDownLatch acquired = new CountDownLatch(20);
+    ZkWriteLock[] locks = new ZkWriteLock[20];
+    for (int i = 0; i < locks.length; i++) {
+      ZkWriteLock lock = new ZkWriteLock(session, "/locks/l" + i);
+      locks[i] = lock;
+      new Thread(() -> {
+        try {
+          lock.acquire();
+          acquired.countDown();
+        } catch (ZkException e) {
+          throw new IllegalStateException(e);
+        }
+      }).start();
+    }
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertTrue("transactions " + batcher.getTransactions(),
+        batcher.getTransactions() < batcher.getWrites());
+    for (ZkWriteLock lock : locks) {
+      lock.release();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package dowhat.is.right.zk.lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock.LockState;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkLockBaseTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testHeldLockIsSuspectWhileDisconnectedAndLostOnExpiry() throws Exception {
+    ZkWriteLock lock = new ZkWriteLock(session, "/jobs/report");
+    lock.acquire();
+    BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    lock.addValidityListener(new ILockValidityListener() {
+      @Override
+      public void onLockSuspect(ILock lock, long remainingMillis) {
+        events.add("suspect");
+      }
+
+      @Override
+      public void onLockRestored(ILock lock) {
+        events.add("restored");
+      }
+
+      @Override
+      public void onLockLost(ILock lock) {
+        events.add("lost");
+      }
+    });
+    assertFalse(lock.isSuspect());
+    assertTrue(lock.isValidFor(1, TimeUnit.SECONDS));
+    long sessionId = server.getSessionIds().iterator().next();
+
+    server.disconnect(sessionId);
+    assertEquals("suspect", events.poll(5, TimeUnit.SECONDS));
+    assertTrue(lock.isSuspect());
+    // At most a third of the 6 second timeout is left once the client reports disconnection
+    assertFalse(lock.isValidFor(1, TimeUnit.MINUTES));
+    assertEquals(LockState.ACQUIRED, lock.getState());
+
+    server.reconnect(sessionId);
+    assertEquals("restored", events.poll(5, TimeUnit.SECONDS));
+    assertFalse(lock.isSuspect());
+
+    server.disconnect(sessionId);
+    assertEquals("suspect", events.poll(5, TimeUnit.SECONDS));
+    server.expire(sessionId);
+    assertEquals("lost", events.poll(5, TimeUnit.SECONDS));
+    assertEquals(LockState.ERROR, lock.getState());
+    assertFalse(lock.isValidFor(1, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testReserveThenAcquire() throws Exception {
+    ZkWriteLock holder = new ZkWriteLock(session, "/jobs/report");
+    holder.acquire();
+    // Reserve while the lock is held, our node queues up behind the holder
+    ZkWriteLock reserved = new ZkWriteLock(session, "/jobs/report");
+    reserved.reserve();
+    assertEquals(LockState.RESERVED, reserved.getState());
+    // The reserved node is created in the background
+    await(() -> server.listChildren("/jobs/report").size() == 2);
+    // Someone arriving after the reservation must queue behind it
+    ZkWriteLock late = new ZkWriteLock(session, "/jobs/report");
+    assertFalse(late.tryAcquire());
+    holder.release();
+    reserved.acquire();
+    assertEquals(LockState.ACQUIRED, reserved.getState());
+    reserved.release();
+  }
+
+  @Test
+  public void testReleaseReservation() throws Exception {
+    ZkWriteLock reserved = new ZkWriteLock(session, "/jobs/report");
+    reserved.reserve();
+    await(() -> server.listChildren("/jobs/report").size() == 1);
+    reserved.release();
+    ZkWriteLock lock = new ZkWriteLock(session, "/jobs/report");
+    lock.acquire();
+    // The reserved node is gone, only ours is queued
+    assertEquals(1, server.listChildren("/jobs/report").size());
+    lock.release();
+  }
+}
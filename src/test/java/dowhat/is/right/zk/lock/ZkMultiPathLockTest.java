@@ -0,0 +1,132 @@
+package dowhat.is.right.zk.lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock.LockState;
+import dowhat.is.right.zk.lock.ZkMultiPathLock.AcquireStrategy;
+import dowhat.is.right.zk.memory.InMemoryZkServer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZkMultiPathLockTest {
+
+  private InMemoryZkServer server;
+  private ZkSessionManager session;
+  private ZkLockFactory factory;
+
+  @Before
+  public void setUp() {
+    server = new InMemoryZkServer();
+    ZkSessionManager.setClientFactory(server);
+    session = ZkSessionManager.newSession("memory", 6000, 1);
+    factory = new ZkLockFactory(session);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    session.shutdown();
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private static void await(BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  public void testOrderedMultiPathLock() throws Exception {
+    MultiPathLockMetrics metrics = MultiPathLockMetrics.of(AcquireStrategy.ORDERED);
+    long acquisitions = metrics.getAcquisitions();
+    ZkMultiPathLock lock = new ZkMultiPathLock(AcquireStrategy.ORDERED, factory);
+    lock.addWriteLock("/jobs/b");
+    lock.addReadLock("/jobs/a");
+    lock.addReadLock("/jobs/b");
+    lock.acquire();
+    assertEquals(LockState.ACQUIRED, lock.getState());
+    // The read lock on b is covered by the write lock, one node per path
+    assertEquals(1, server.listChildren("/jobs/b").size());
+    lock.release();
+    assertEquals(acquisitions + 1, metrics.getAcquisitions());
+  }
+
+  @Test
+  public void testAsyncMultiPathLock() throws Exception {
+    ZkMultiPathLock holder = new ZkMultiPathLock(factory);
+    holder.addWriteLock("/jobs/b");
+    assertTrue(holder.tryAcquire());
+    ZkMultiPathLock lock = new ZkMultiPathLock(factory);
+    lock.addWriteLock("/jobs/a");
+    lock.addWriteLock("/jobs/b");
+    CompletableFuture<ZkMultiPathLock> acquired = lock.acquireAsync();
+    // Waits in order for the held path, holding the path before it
+    await(() -> server.listChildren("/jobs/a").size() == 1
+        && server.listChildren("/jobs/b").size() == 2);
+    assertFalse(acquired.isDone());
+    assertEquals(LockState.WAITING, lock.getState());
+    holder.release();
+    assertEquals(LockState.ACQUIRED, acquired.get(5, TimeUnit.SECONDS).getState());
+    lock.release();
+  }
+
+  @Test
+  public void testInterruptedOrderedWaiterRollsBack() throws Exception {
+    ZkWriteLock holder = new ZkWriteLock(session, "/jobs/b");
+    holder.acquire();
+    ZkMultiPathLock lock = new ZkMultiPathLock(AcquireStrategy.ORDERED, factory);
+    lock.addWriteLock("/jobs/a");
+    lock.addWriteLock("/jobs/b");
+    CompletableFuture<Throwable> thrown = new CompletableFuture<>();
+    Thread waiter = new Thread(() -> {
+      try {
+        lock.acquire();
+        thrown.complete(null);
+      } catch (Throwable e) {
+        thrown.complete(e);
+      }
+    });
+    waiter.start();
+    // Holding path a, queued behind the holder on path b
+    await(() -> server.listChildren("/jobs/a").size() == 1
+        && server.listChildren("/jobs/b").size() == 2);
+
+    waiter.interrupt();
+    assertTrue(thrown.get(5, TimeUnit.SECONDS) instanceof InterruptedException);
+    assertEquals(LockState.ERROR, lock.getState());
+    // Neither the held path nor the queued node is left behind
+    await(() -> server.listChildren("/jobs/a").isEmpty()
+        && server.listChildren("/jobs/b").size() == 1);
+    holder.release();
+    assertTrue(new ZkWriteLock(session, "/jobs/b").tryAcquire());
+  }
+
+  private long timeTryAcquire(String folder, int paths) throws Exception {
+    ZkMultiPathLock lock = new ZkMultiPathLock(factory);
+    for (int i = 0; i < paths; i++) {
+      lock.addWriteLock(folder + "/p" + i);
+    }
+    long start = System.nanoTime();
+    assertTrue(lock.tryAcquire());
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    lock.release();
+    return elapsed;
+  }
+
+  @Test
+  public void testTryAcquireIsPipelined() throws Exception {
+    server.setLatency(20, TimeUnit.MILLISECONDS);
+    long one = timeTryAcquire("/one", 1);
+    long twenty = timeTryAcquire("/twenty", 20);
+    // Path by path, 20 paths would take 20 times as long as one
+    assertTrue("1 path " + one + " ms, 20 paths " + twenty + " ms", twenty < one * 4);
+  }
+}
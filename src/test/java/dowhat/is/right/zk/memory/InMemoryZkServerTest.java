@@ -0,0 +1,110 @@
+package dowhat.is.right.zk.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import dowhat.is.right.zk.IZkClient;
+import dowhat.is.right.zk.ZkSessionManager;
+import dowhat.is.right.zk.lock.ILock.LockState;
+import dowhat.is.right.zk.lock.ZkWriteLock;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.junit.After;
+import org.junit.Test;
+
+public class InMemoryZkServerTest {
+
+  private final InMemoryZkServer server = new InMemoryZkServer();
+  private final BlockingQueue<WatchedEvent> events = new LinkedBlockingQueue<>();
+
+  @After
+  public void tearDown() {
+    ZkSessionManager.setClientFactory(null);
+  }
+
+  private IZkClient connect(BlockingQueue<WatchedEvent> events) throws Exception {
+    IZkClient client = server.newClient("memory", 6000, events::add, 0, null, false);
+    assertEquals(KeeperState.SyncConnected, events.poll(1, TimeUnit.SECONDS).getState());
+    return client;
+  }
+
+  @Test
+  public void testSequentialEphemeralNodesAndWatches() throws Exception {
+    BlockingQueue<WatchedEvent> ownerEvents = new LinkedBlockingQueue<>();
+    IZkClient owner = connect(ownerEvents);
+    IZkClient observer = connect(events);
+    observer.create("/locks", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    assertEquals("/locks/write-0000000000", owner.create("/locks/write-", new byte[0],
+        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+    assertEquals("/locks/write-0000000001", owner.create("/locks/write-", new byte[0],
+        Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+
+    BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+    observer.getChildren("/locks", events::add,
+        (rc, path, ctx, children) -> results.add(children.size()), null);
+    assertEquals(2, (int) results.poll(1, TimeUnit.SECONDS));
+    observer.exists("/locks/write-0000000000", events::add,
+        (rc, path, ctx, stat) -> results.add(rc), null);
+    assertEquals(Code.OK.intValue(), (int) results.poll(1, TimeUnit.SECONDS));
+
+    // Expiry takes the ephemeral nodes with it, firing the observer's watches
+    server.expire(owner.getSessionId());
+    assertEquals(KeeperState.Expired, ownerEvents.poll(1, TimeUnit.SECONDS).getState());
+    assertEquals(EventType.NodeDeleted, events.poll(1, TimeUnit.SECONDS).getType());
+    assertEquals(EventType.NodeChildrenChanged, events.poll(1, TimeUnit.SECONDS).getType());
+    assertTrue(server.listChildren("/locks").isEmpty());
+    assertEquals(Arrays.asList(observer.getSessionId()),
+        Arrays.asList(server.getSessionIds().toArray()));
+
+    owner.sync("/locks", (rc, path, ctx) -> results.add(rc), null);
+    assertEquals(Code.SESSIONEXPIRED.intValue(), (int) results.poll(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testEventsKeepOrderUnderLatency() throws Exception {
+    IZkClient client = connect(events);
+    BlockingQueue<String> order = new LinkedBlockingQueue<>();
+    server.setLatency(50, TimeUnit.MILLISECONDS);
+    client.create("/a", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+        (rc, path, ctx, name) -> order.add(name), null);
+    server.setLatency(0, TimeUnit.MILLISECONDS);
+    client.create("/b", new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT,
+        (rc, path, ctx, name) -> order.add(name), null);
+    assertEquals("/a", order.poll(1, TimeUnit.SECONDS));
+    assertEquals("/b", order.poll(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWriteLockOverInMemorySession() throws Exception {
+    ZkSessionManager.setClientFactory(server);
+    ZkSessionManager session = ZkSessionManager.newSession("memory", 6000, 1);
+    try {
+      ZkWriteLock holder = new ZkWriteLock(session, "/jobs");
+      holder.acquire();
+      assertFalse(new ZkWriteLock(session, "/jobs").tryAcquire());
+      holder.release();
+      ZkWriteLock next = new ZkWriteLock(session, "/jobs");
+      assertTrue(next.tryAcquire());
+
+      // The session expires under the lock: it is lost, and a new session is created
+      server.expire(server.getSessionIds().iterator().next());
+      long deadline = System.currentTimeMillis() + 5000;
+      while (next.getState() != LockState.ERROR && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(LockState.ERROR, next.getState());
+      assertEquals(1, session.getSessionExpiries());
+    } finally {
+      session.shutdown();
+    }
+  }
+}